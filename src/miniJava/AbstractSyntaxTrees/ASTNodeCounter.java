@@ -0,0 +1,250 @@
+package miniJava.AbstractSyntaxTrees;
+
+// Counts every AST node reachable from a root, used for throughput statistics
+public class ASTNodeCounter implements Visitor<Object, Object> {
+    private long count = 0;
+
+    public long countNodes(AST ast) {
+        count = 0;
+        ast.visit(this, null);
+        return count;
+    }
+
+    @Override
+    public Object visitPackage(Package prog, Object arg) {
+        count++;
+        for (ClassDecl classDecl : prog.classDeclList) {
+            classDecl.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitClassDecl(ClassDecl cd, Object arg) {
+        count++;
+        for (FieldDecl fieldDecl : cd.fieldDeclList) {
+            fieldDecl.visit(this, null);
+        }
+        for (MethodDecl methodDecl : cd.methodDeclList) {
+            methodDecl.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitFieldDecl(FieldDecl fd, Object arg) {
+        count++;
+        fd.type.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitMethodDecl(MethodDecl md, Object arg) {
+        count++;
+        md.type.visit(this, null);
+        for (ParameterDecl parameterDecl : md.parameterDeclList) {
+            parameterDecl.visit(this, null);
+        }
+        for (Statement statement : md.statementList) {
+            statement.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitParameterDecl(ParameterDecl pd, Object arg) {
+        count++;
+        pd.type.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitVarDecl(VarDecl decl, Object arg) {
+        count++;
+        decl.type.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitBaseType(BaseType type, Object arg) {
+        count++;
+        return null;
+    }
+
+    @Override
+    public Object visitClassType(ClassType type, Object arg) {
+        count++;
+        type.className.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitArrayType(ArrayType type, Object arg) {
+        count++;
+        type.eltType.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        count++;
+        for (Statement statement : stmt.sl) {
+            statement.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        count++;
+        stmt.varDecl.visit(this, null);
+        stmt.initExp.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+        count++;
+        stmt.ref.visit(this, null);
+        stmt.val.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+        count++;
+        stmt.ref.visit(this, null);
+        stmt.ix.visit(this, null);
+        stmt.exp.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitCallStmt(CallStmt stmt, Object arg) {
+        count++;
+        stmt.methodRef.visit(this, null);
+        for (Expression expr : stmt.argList) {
+            expr.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+        count++;
+        if (stmt.returnExpr != null) {
+            stmt.returnExpr.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        count++;
+        stmt.cond.visit(this, null);
+        stmt.thenStmt.visit(this, null);
+        if (stmt.elseStmt != null) {
+            stmt.elseStmt.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        count++;
+        stmt.cond.visit(this, null);
+        stmt.body.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+        count++;
+        expr.operator.visit(this, null);
+        expr.expr.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        count++;
+        expr.operator.visit(this, null);
+        expr.left.visit(this, null);
+        expr.right.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitRefExpr(RefExpr expr, Object arg) {
+        count++;
+        expr.ref.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitIxExpr(IxExpr expr, Object arg) {
+        count++;
+        expr.ref.visit(this, null);
+        expr.ixExpr.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr, Object arg) {
+        count++;
+        expr.functionRef.visit(this, null);
+        for (Expression argExpr : expr.argList) {
+            argExpr.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+        count++;
+        expr.lit.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+        count++;
+        expr.classtype.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        count++;
+        expr.eltType.visit(this, null);
+        expr.sizeExpr.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitThisRef(ThisRef ref, Object arg) {
+        count++;
+        return null;
+    }
+
+    @Override
+    public Object visitIdRef(IdRef ref, Object arg) {
+        count++;
+        ref.id.visit(this, null);
+        return null;
+    }
+
+    @Override
+    public Object visitQRef(QualRef ref, Object arg) {
+        count++;
+        ref.ref.visit(this, null);
+        ref.id.visit(this, null);
+        return null;
+    }
+
+    @Override public Object visitIdentifier(Identifier id, Object arg) { count++; return null; }
+    @Override public Object visitOperator(Operator op, Object arg) { count++; return null; }
+    @Override public Object visitIntLiteral(IntLiteral num, Object arg) { count++; return null; }
+    @Override public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) { count++; return null; }
+    @Override public Object visitNullLiteral(NullLiteral num, Object arg) { count++; return null; }
+}
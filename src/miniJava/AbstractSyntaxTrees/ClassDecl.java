@@ -21,4 +21,6 @@ public class ClassDecl extends Declaration {
       
   public FieldDeclList fieldDeclList;
   public MethodDeclList methodDeclList;
+  public Identifier superClassName = null; // after extends, null if there is none
+  public ClassDecl superClass = null; // resolved by contextual analysis
 }
@@ -6,6 +6,7 @@
 package miniJava.AbstractSyntaxTrees;
 
 import miniJava.SyntacticAnalyzer.SourcePosition;
+import miniJava.SyntacticAnalyzer.Symbols;
 
 public abstract class Declaration extends AST {
 	
@@ -13,9 +14,11 @@ public abstract class Declaration extends AST {
 		super(posn);
 		this.name = name;
 		this.type = type;
+		this.symbol = name == null ? -1 : Symbols.intern(name);
 	}
 	
 	public String name;
+	public int symbol; // interned id of name
 	public TypeDenoter type;
     public int offset = -1;
 }
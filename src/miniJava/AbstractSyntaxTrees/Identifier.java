@@ -9,9 +9,11 @@ import miniJava.SyntacticAnalyzer.Token;
 
 public class Identifier extends Terminal {
   public Declaration declaration = null;
+  public int symbol;
 
   public Identifier (Token t) {
     super (t);
+    symbol = t.symbol;
   }
 
   public <A,R> R visit(Visitor<A,R> v, A o) {
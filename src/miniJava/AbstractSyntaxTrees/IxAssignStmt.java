@@ -23,4 +23,5 @@ public class IxAssignStmt extends Statement
     public Reference ref;
     public Expression ix;
     public Expression exp;
+    public boolean needsBoundsCheck = true; // cleared by range check elimination
 }
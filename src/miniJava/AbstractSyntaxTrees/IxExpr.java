@@ -21,5 +21,6 @@ public <A,R> R visit(Visitor<A,R> v, A o) {
 
 public Reference ref;
 public Expression ixExpr;
+public boolean needsBoundsCheck = true; // cleared by range check elimination
 
 }
@@ -0,0 +1,131 @@
+package miniJava;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Compiles many source files in one JVM, spread over a fork-join pool
+// Usage: java miniJava.Compiler [--regalloc] [--jobs n] [--out dir] <file or directory>...
+// Directories are searched recursively for .java files, Foo.java produces the executable Foo next to it (or in --out dir)
+// Diagnostics are printed per file in input order, the exit status is 1 if any file failed
+public class BatchCompiler {
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private Path outputDir = null;
+    private List<Path> sources = new ArrayList<Path>();
+    private List<String> errorMessages = new ArrayList<String>();
+    private CompilerOptions options;
+
+    public static int run(String[] args, CompilerOptions options) throws IOException {
+        BatchCompiler batch = new BatchCompiler();
+        batch.options = options;
+        batch.parseArgs(args);
+        if (!batch.errorMessages.isEmpty()) {
+            for (String errorMessage : batch.errorMessages) {
+                System.err.println(errorMessage);
+            }
+            return 1;
+        }
+        return batch.compileAll();
+    }
+
+    private void parseArgs(String[] args) throws IOException {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--jobs") && i + 1 < args.length) {
+                jobs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--out") && i + 1 < args.length) {
+                outputDir = Paths.get(args[++i]);
+            } else if (args[i].startsWith("--")) {
+                errorMessages.add(String.format("Unknown argument %s", args[i]));
+            } else {
+                addSource(Paths.get(args[i]));
+            }
+        }
+        if (sources.isEmpty()) {
+            errorMessages.add("No source files provided");
+        }
+
+        // Two inputs must never race on the same executable
+        Map<Path, Path> outputs = new HashMap<Path, Path>();
+        for (Path source : sources) {
+            Path previous = outputs.put(outputPath(source), source);
+            if (previous != null) {
+                errorMessages.add(String.format("%s and %s would both be compiled to %s", previous, source, outputPath(source)));
+            }
+        }
+    }
+
+    private void addSource(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                sources.addAll(files.filter(file -> Files.isRegularFile(file) && file.toString().endsWith(".java")).sorted().collect(Collectors.toList()));
+            }
+        } else if (Files.isRegularFile(path)) {
+            sources.add(path);
+        } else {
+            errorMessages.add(String.format("Cannot read %s", path));
+        }
+    }
+
+    private Path outputPath(Path source) {
+        String name = source.getFileName().toString();
+        if (name.endsWith(".java")) {
+            name = name.substring(0, name.length() - ".java".length());
+        } else {
+            name = name + ".out";
+        }
+        Path dir = outputDir != null ? outputDir : source.toAbsolutePath().getParent();
+        return dir.resolve(name);
+    }
+
+    private int compileAll() throws IOException {
+        if (outputDir != null) {
+            Files.createDirectories(outputDir);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(jobs);
+        List<ForkJoinTask<List<String>>> tasks = new ArrayList<ForkJoinTask<List<String>>>();
+        for (Path source : sources) {
+            tasks.add(pool.submit(() -> compileOne(source)));
+        }
+
+        int failed = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            List<String> diagnostics = tasks.get(i).join();
+            if (!diagnostics.isEmpty()) {
+                failed++;
+                System.out.println(sources.get(i));
+                for (String line : diagnostics) {
+                    System.out.println("    " + line);
+                }
+            }
+        }
+        pool.shutdown();
+
+        System.out.println(String.format("Compiled %d files, %d succeeded, %d failed", sources.size(), sources.size() - failed, failed));
+        return failed == 0 ? 0 : 1;
+    }
+
+    // Any failure is confined to its own file
+    private List<String> compileOne(Path source) {
+        Path output = outputPath(source);
+        try {
+            List<String> diagnostics = Compiler.compile(source, output.toString(), options, new CompileStats(false));
+            if (diagnostics.isEmpty()) {
+                new File(output.toString()).setExecutable(true);
+            }
+            return diagnostics;
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            return List.of("Error", String.format("Internal compiler error: %s", e));
+        }
+    }
+}
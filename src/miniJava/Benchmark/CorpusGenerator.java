@@ -0,0 +1,83 @@
+package miniJava.Benchmark;
+
+import java.util.Random;
+
+// Generates syntactically and contextually valid miniJava programs of (roughly) a requested size
+// Every generated class is self contained so the program stays valid no matter where generation stops
+public class CorpusGenerator {
+    private final Random random;
+    private StringBuilder source;
+
+    public CorpusGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public String generate(long targetBytes) {
+        source = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, targetBytes + 4096));
+        source.append("// generated miniJava benchmark corpus\n");
+        source.append("class MainClass {\n");
+        source.append("    public static void main(String[] args) {\n");
+        source.append("        Worker0 w = new Worker0();\n");
+        source.append("        int r = w.compute(3, 4);\n");
+        source.append("        System.out.println(r);\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        int classIdx = 0;
+        while (source.length() < targetBytes) {
+            appendWorkerClass(classIdx++);
+        }
+        return source.toString();
+    }
+
+    private void appendWorkerClass(int idx) {
+        String name = "Worker" + idx;
+        source.append("\n/* worker class ").append(idx).append(" */\n");
+        source.append("class ").append(name).append(" {\n");
+        source.append("    int total;\n");
+        source.append("    int[] data;\n");
+        source.append("    ").append(name).append(" next;\n");
+        source.append("    static int instances;\n");
+        source.append("    private boolean ready;\n\n");
+
+        // Arithmetic and control flow heavy instance method
+        source.append("    public int compute(int a, int b) {\n");
+        source.append("        int x = a * ").append(1 + random.nextInt(9)).append(" + b;\n");
+        source.append("        int i = 0;\n");
+        source.append("        data = new int[").append(8 + random.nextInt(56)).append("];\n");
+        source.append("        while (i < ").append(4 + random.nextInt(12)).append(") {\n");
+        source.append("            if (x > ").append(random.nextInt(500)).append(" && i != ").append(random.nextInt(8)).append(") {\n");
+        source.append("                x = x - a / 2;\n");
+        source.append("            } else {\n");
+        source.append("                x = x + i * ").append(1 + random.nextInt(5)).append(";\n");
+        source.append("            }\n");
+        source.append("            data[i] = x;\n");
+        source.append("            i = i + 1;\n");
+        source.append("        }\n");
+        source.append("        total = x + helper(i);\n");
+        source.append("        ready = total >= 0 || !ready;\n");
+        source.append("        return total;\n");
+        source.append("    }\n\n");
+
+        // Static helper exercising calls, comparisons and unary operators
+        source.append("    public static int helper(int n) {\n");
+        source.append("        int acc = -n;\n");
+        source.append("        if (n <= 0) {\n");
+        source.append("            return 0;\n");
+        source.append("        }\n");
+        source.append("        acc = acc + n * n - ").append(random.nextInt(100)).append(";\n");
+        source.append("        instances = instances + 1;\n");
+        source.append("        return acc;\n");
+        source.append("    }\n\n");
+
+        // Object graph manipulation through qualified references
+        source.append("    public void link(").append(name).append(" other) {\n");
+        source.append("        next = other;\n");
+        source.append("        if (next != null) {\n");
+        source.append("            next.total = this.total + ").append(random.nextInt(1000)).append(";\n");
+        source.append("            this.next.link(null);\n");
+        source.append("        }\n");
+        source.append("    }\n");
+        source.append("}\n");
+    }
+}
@@ -0,0 +1,212 @@
+package miniJava.Benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import miniJava.AbstractSyntaxTrees.ASTNodeCounter;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.CodeGeneration.ELFMaker;
+import miniJava.ContextualAnalysis.ContextualAnalysisVisitor;
+import miniJava.ContextualAnalysis.Environment;
+import miniJava.SyntacticAnalyzer.Parser;
+import miniJava.SyntacticAnalyzer.Scanner;
+
+// Measures every compiler phase on its own and end to end over generated corpora
+// Usage: java miniJava.Benchmark.PhaseBenchmark [--sizes 1K,64K,1M,10M,50M] [--warmup n] [--iterations n] [--phases scan,parse,...]
+// Output is one CSV line per (corpus size, phase) so results can be diffed and charted across releases
+public class PhaseBenchmark {
+    private static final String[] ALL_PHASES = { "scan", "parse", "contextual", "codegen", "bytes", "elf", "total" };
+
+    private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private int warmupIterations = 2;
+    private int measuredIterations = 5;
+    private List<Long> sizes = new ArrayList<Long>(List.of(1L << 10, 64L << 10, 1L << 20, 10L << 20, 50L << 20));
+    private List<String> phases = new ArrayList<String>(List.of(ALL_PHASES));
+    private File workDir;
+
+    // Per corpus facts used to turn times into throughputs
+    private long sourceBytes;
+    private long tokenCount;
+    private long nodeCount;
+    // .bss size and vtables of the last generated program, the elf phase only receives its code
+    private int bssSize = 0;
+    private byte[] rodata = new byte[0];
+
+    // Keeps results alive so the JIT cannot discard the measured work
+    private Object sink;
+
+    public static void main(String[] args) throws IOException {
+        PhaseBenchmark benchmark = new PhaseBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--sizes") && i + 1 < args.length) {
+                benchmark.sizes.clear();
+                for (String size : args[++i].split(",")) {
+                    benchmark.sizes.add(parseSize(size));
+                }
+            } else if (args[i].equals("--warmup") && i + 1 < args.length) {
+                benchmark.warmupIterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--iterations") && i + 1 < args.length) {
+                benchmark.measuredIterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--phases") && i + 1 < args.length) {
+                benchmark.phases = List.of(args[++i].split(","));
+            } else {
+                System.err.println("Unknown argument " + args[i]);
+                System.exit(1);
+            }
+        }
+        benchmark.run();
+    }
+
+    private static long parseSize(String size) {
+        size = size.trim().toUpperCase();
+        long multiplier = 1;
+        if (size.endsWith("K")) {
+            multiplier = 1L << 10;
+        } else if (size.endsWith("M")) {
+            multiplier = 1L << 20;
+        }
+        if (multiplier != 1) {
+            size = size.substring(0, size.length() - 1);
+        }
+        return Long.parseLong(size) * multiplier;
+    }
+
+    public void run() throws IOException {
+        workDir = Files.createTempDirectory("minijava-bench").toFile();
+        System.out.println("corpus_bytes,phase,ms_per_op,mb_per_s,tokens_per_s,nodes_per_s,alloc_bytes_per_op,alloc_mb_per_s");
+        for (long size : sizes) {
+            File source = new File(workDir, "corpus" + size + ".java");
+            Files.write(source.toPath(), new CorpusGenerator(size).generate(size).getBytes(StandardCharsets.US_ASCII));
+            sourceBytes = source.length();
+            tokenCount = scan(source);
+            nodeCount = new ASTNodeCounter().countNodes(parse(source));
+
+            for (String phase : phases) {
+                measure(phase, source);
+            }
+            source.delete();
+        }
+        new File(workDir, "a.out").delete();
+        workDir.delete();
+    }
+
+    private void measure(String phase, File source) throws IOException {
+        long totalNanos = 0;
+        long totalAllocated = 0;
+        for (int i = 0; i < warmupIterations + measuredIterations; i++) {
+            // Each phase consumes the output of the previous ones, prepare it outside the timed region
+            Object input = prepare(phase, source);
+
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            sink = runPhase(phase, source, input);
+            long elapsed = System.nanoTime() - start;
+            long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+
+            if (i >= warmupIterations) {
+                totalNanos += elapsed;
+                totalAllocated += allocated;
+            }
+        }
+
+        double secondsPerOp = totalNanos / 1e9 / measuredIterations;
+        long allocatedPerOp = totalAllocated / measuredIterations;
+        System.out.println(String.format("%d,%s,%.3f,%.2f,%.0f,%.0f,%d,%.2f",
+            sourceBytes, phase, secondsPerOp * 1e3,
+            sourceBytes / secondsPerOp / (1 << 20),
+            tokenCount / secondsPerOp,
+            nodeCount / secondsPerOp,
+            allocatedPerOp,
+            allocatedPerOp / secondsPerOp / (1 << 20)));
+    }
+
+    private Object prepare(String phase, File source) throws IOException {
+        switch (phase) {
+            case "contextual":
+                return parse(source);
+            case "codegen":
+                return analyze(parse(source));
+            case "bytes":
+                return generate(analyze(parse(source)));
+            case "elf":
+                return generate(analyze(parse(source))).getInstructionList().getBytes();
+            default:
+                return null;
+        }
+    }
+
+    private Object runPhase(String phase, File source, Object input) throws IOException {
+        switch (phase) {
+            case "scan":
+                return scan(source);
+            case "parse":
+                return parse(source);
+            case "contextual":
+                return analyze((Package) input);
+            case "codegen":
+                return generate((AnalyzedProgram) input);
+            case "bytes":
+                return ((CodeGenerator) input).getInstructionList().getBytes();
+            case "elf":
+                return writeElf((byte[]) input);
+            case "total":
+                return writeElf(generate(analyze(parse(source))).getInstructionList().getBytes());
+            default:
+                throw new IllegalArgumentException("Unknown phase " + phase);
+        }
+    }
+
+    private long scan(File source) throws IOException {
+        // Packed form, excluding the EOT token
+        return Scanner.fromFile(source.toPath()).scanAll().size() - 1;
+    }
+
+    private Package parse(File source) throws IOException {
+        Parser parser = new Parser(Scanner.fromFile(source.toPath()));
+        Package AST = parser.parseTokenStream();
+        if (AST == null) {
+            throw new IllegalStateException("Generated corpus does not parse: " + parser.getErrorMsg());
+        }
+        return AST;
+    }
+
+    // Contextual analysis results needed by the code generator
+    private static class AnalyzedProgram {
+        Package AST;
+        Environment env;
+    }
+
+    private AnalyzedProgram analyze(Package AST) {
+        AnalyzedProgram program = new AnalyzedProgram();
+        program.AST = AST;
+        program.env = new Environment(AST);
+        AST.visit(new ContextualAnalysisVisitor(), program.env);
+        if (!program.env.errorMessages.isEmpty()) {
+            throw new IllegalStateException("Generated corpus is not well typed: " + program.env.errorMessages.get(0));
+        }
+        return program;
+    }
+
+    private CodeGenerator generate(AnalyzedProgram program) {
+        CodeGenerator codeGenerator = new CodeGenerator();
+        Environment env = program.env;
+        codeGenerator.generate(program.AST, env.mainMethodDecl, env.printlnMethodDecl, env.outFieldDecl);
+        bssSize = codeGenerator.getBssSize();
+        rodata = codeGenerator.getRodata();
+        return codeGenerator;
+    }
+
+    private List<String> writeElf(byte[] text) {
+        List<String> errors = new ArrayList<String>();
+        ELFMaker elf = new ELFMaker(errors, text.length, rodata.length, bssSize);
+        elf.outputELF(new File(workDir, "a.out").getPath(), text, rodata, 0);
+        return errors;
+    }
+}
@@ -0,0 +1,28 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.ModRMSIB;
+import miniJava.CodeGeneration.x64.Reg;
+import miniJava.CodeGeneration.x64.Reg64;
+
+// A memory location [base+disp] produced by visiting a reference
+// A null base means disp is an offset into .bss, addressed as [rip+disp]
+// ModRMSIB objects are mutated by the instructions using them, so a fresh one is built for every use
+public class Address {
+    public final Reg64 base;
+    public final int disp;
+
+    public Address(Reg64 base, int disp) {
+        this.base = base;
+        this.disp = disp;
+    }
+
+    // [base+disp]
+    public ModRMSIB mem() {
+        return base == null ? new ModRMSIB(disp) : new ModRMSIB(base, disp);
+    }
+
+    // [base+disp],r
+    public ModRMSIB mem(Reg r) {
+        return base == null ? new ModRMSIB(disp, r) : new ModRMSIB(base, disp, r);
+    }
+}
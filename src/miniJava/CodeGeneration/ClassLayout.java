@@ -0,0 +1,172 @@
+package miniJava.CodeGeneration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGeneration.x64.InstructionList;
+
+// Object layout and virtual method tables for single inheritance
+//   Every non-static, non-private method has a slot, a subclass keeps the slots of its superclass, an override takes
+//   over the slot of the method it overrides and new methods are appended
+//   Class hierarchy analysis: a method is virtual only when some subclass puts a different method in its slot,
+//   every other call stays a direct call
+//   Only hierarchies with a virtual method get vtables, their objects start with a pointer to the vtable of their
+//   class and everything else keeps the plain layout, fields of a superclass come before those of a subclass
+// Vtables live in .rodata, since the executable is position independent each entry holds the distance from the
+// start of its vtable to the method instead of an absolute address
+public class ClassLayout {
+    private Map<ClassDecl, List<MethodDecl>> vtables = new IdentityHashMap<ClassDecl, List<MethodDecl>>();
+    private Map<MethodDecl, Integer> slots = new IdentityHashMap<MethodDecl, Integer>();
+    private Set<MethodDecl> virtualMethods = new HashSet<MethodDecl>();
+    private Set<ClassDecl> dispatchingRoots = new HashSet<ClassDecl>();
+    private Map<ClassDecl, Integer> objectWords = new IdentityHashMap<ClassDecl, Integer>();
+    private Map<ClassDecl, Integer> vtableOffsets = new IdentityHashMap<ClassDecl, Integer>();
+    private List<ClassDecl> classes = new ArrayList<ClassDecl>(); // superclasses before their subclasses
+    private int rodataSize = 0;
+
+    // Also gives every instance field its word in the object
+    public ClassLayout(Package prog) {
+        for (ClassDecl cd : prog.classDeclList) {
+            buildVtable(cd);
+        }
+        findVirtualMethods();
+        for (ClassDecl cd : classes) {
+            layOutFields(cd);
+            if (hasVtable(cd)) {
+                vtableOffsets.put(cd, rodataSize);
+                rodataSize += 8*vtables.get(cd).size();
+            }
+        }
+    }
+
+    private List<MethodDecl> buildVtable(ClassDecl cd) {
+        List<MethodDecl> vtable = vtables.get(cd);
+        if (vtable != null) {
+            return vtable;
+        }
+        vtable = cd.superClass != null ? new ArrayList<MethodDecl>(buildVtable(cd.superClass)) : new ArrayList<MethodDecl>();
+        for (MethodDecl md : cd.methodDeclList) {
+            if (md.isStatic || md.isPrivate) {
+                continue;
+            }
+            // Contextual analysis made sure a method with an inherited name has its signature
+            int slot = vtable.size();
+            for (int i = 0; i < vtable.size(); i++) {
+                if (vtable.get(i).name.equals(md.name)) {
+                    slot = i;
+                }
+            }
+            if (slot == vtable.size()) {
+                vtable.add(md);
+            } else {
+                vtable.set(slot, md);
+            }
+            slots.put(md, slot);
+        }
+        vtables.put(cd, vtable);
+        classes.add(cd);
+        return vtable;
+    }
+
+    // A method some subclass replaces in its slot is virtual, and every class of its hierarchy gets a vtable
+    private void findVirtualMethods() {
+        for (ClassDecl cd : classes) {
+            List<MethodDecl> vtable = vtables.get(cd);
+            for (ClassDecl superClass = cd.superClass; superClass != null; superClass = superClass.superClass) {
+                List<MethodDecl> inherited = vtables.get(superClass);
+                for (int slot = 0; slot < inherited.size(); slot++) {
+                    if (inherited.get(slot) != vtable.get(slot)) {
+                        virtualMethods.add(inherited.get(slot));
+                        dispatchingRoots.add(root(cd));
+                    }
+                }
+            }
+        }
+    }
+
+    private void layOutFields(ClassDecl cd) {
+        int words;
+        if (cd.superClass != null) {
+            words = objectWords.get(cd.superClass);
+        } else {
+            words = hasVtable(cd) ? 1 : 0;
+        }
+        for (FieldDecl fieldDecl : cd.fieldDeclList) {
+            if (!fieldDecl.isStatic) {
+                fieldDecl.offset = words++;
+            }
+        }
+        objectWords.put(cd, words);
+    }
+
+    private static ClassDecl root(ClassDecl cd) {
+        while (cd.superClass != null) {
+            cd = cd.superClass;
+        }
+        return cd;
+    }
+
+    // Whether objects of the class start with a vtable pointer
+    public boolean hasVtable(ClassDecl cd) {
+        return dispatchingRoots.contains(root(cd));
+    }
+
+    // Calls to a virtual method have to go through the vtable of the receiver
+    public boolean isVirtual(MethodDecl md) {
+        return virtualMethods.contains(md);
+    }
+
+    public int getSlot(MethodDecl md) {
+        return slots.get(md);
+    }
+
+    // Where the vtable of the class starts in .rodata
+    public int getVtableOffset(ClassDecl cd) {
+        return vtableOffsets.get(cd);
+    }
+
+    // At least one word so every object gets its own address
+    public int getObjectSize(ClassDecl cd) {
+        return 8*Math.max(1, objectWords.get(cd));
+    }
+
+    public int getRodataSize() {
+        return rodataSize;
+    }
+
+    public int getNumVirtualMethods() {
+        return virtualMethods.size();
+    }
+
+    // Every method some vtable points to, these are entered without a direct call
+    public Set<MethodDecl> getVtableMethods() {
+        Set<MethodDecl> methods = new HashSet<MethodDecl>();
+        for (ClassDecl cd : vtableOffsets.keySet()) {
+            methods.addAll(vtables.get(cd));
+        }
+        return methods;
+    }
+
+    // The contents of .rodata once every method has its final address, rodataAddress is relative to the code
+    public byte[] makeRodata(InstructionList asm, int rodataAddress) {
+        byte[] rodata = new byte[rodataSize];
+        for (Map.Entry<ClassDecl, Integer> entry : vtableOffsets.entrySet()) {
+            List<MethodDecl> vtable = vtables.get(entry.getKey());
+            for (int slot = 0; slot < vtable.size(); slot++) {
+                // Calls add the entry to the start of the vtable, not to the address of the entry itself
+                int position = entry.getValue() + 8*slot;
+                long distance = asm.get(vtable.get(slot).offset).startAddress - (long) (rodataAddress + entry.getValue());
+                for (int i = 0; i < 8; i++) {
+                    rodata[position + i] = (byte) (distance >> (8*i));
+                }
+            }
+        }
+        return rodata;
+    }
+}
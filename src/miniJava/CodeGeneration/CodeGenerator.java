@@ -2,28 +2,94 @@ package miniJava.CodeGeneration;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
+import miniJava.CompilerOptions;
 import miniJava.AbstractSyntaxTrees.*;
 import miniJava.AbstractSyntaxTrees.Package;
 import miniJava.CodeGeneration.x64.*;
 import miniJava.CodeGeneration.x64.ISA.*;
+import miniJava.IR.DeadCodeEliminator;
+import miniJava.IR.Function;
+import miniJava.IR.IRBuilder;
+import miniJava.IR.LoopOptimizer;
 
 public class CodeGenerator implements Visitor<Object, Object> {
     public List<String> errorMessages = new ArrayList<String>();
 	private InstructionList asm; // our list of instructions that are used to make the code section
+    private OperandStack operands; // where expression values live while being evaluated
+    private CompilerOptions options;
     private MethodDecl mainMethodDecl;
     private MethodDecl printlnMethodDecl;
     private FieldDecl outFieldDecl;
     private Map<Integer, Declaration> callMethodPatches = new HashMap<Integer, Declaration>();
+    private ClassLayout layout;
+    private byte[] rodata = new byte[0];
+    private int numVirtualCalls = 0;
+
+    // Bump allocator state lives in two .bss words, the refill routine maps a new chunk when one runs out
+    // With --gc every allocation calls the collector's allocation routine instead
+    private static final int HEAP_CHUNK_SIZE = 0x4000000; // 64mb, reserved without backing so untouched pages cost nothing
+    private int heapNextOffset;
+    private int heapEndOffset;
+    private GarbageCollector gc = null;
+
+    // Runtime routines are called and patched like methods so the peephole pass and patchCalls need nothing extra
+    private MethodDecl allocRoutine = runtimeRoutine("_alloc");
+    private MethodDecl flushRoutine = runtimeRoutine("_flush");
+    private MethodDecl faultSetupRoutine = runtimeRoutine("_faultSetup");
+    private MethodDecl faultInstallRoutine = runtimeRoutine("_faultInstall");
+    // Failed bounds checks and the collector running out of memory jump straight here, so it is placed before any method and kept as an index
+    private int errorExitIdx;
+
+    // Signals a faulting program dies from, SIGBUS, SIGFPE and SIGSEGV
+    private static final int[] FAULT_SIGNALS = { 7, 8, 11 };
+    // SA_RESTORER | SA_NODEFER | SA_RESETHAND, the handler runs once and the signal it raises again is fatal
+    private static final long FAULT_HANDLER_FLAGS = 0xC4000000L;
+
+    // .bss layout, sized here and handed to ELFMaker
+    private static final int OUT_BUFFER_SIZE = 0x1000;
+    private int bssSize = 0;
+    private int outLengthOffset;
+    private int outBufferOffset;
 
     private int mainMethodAddr = 0;
+    private int numPeepholeRemoved = 0;
 	
-	public CodeGenerator() {}
+	public CodeGenerator() {
+        this(new CompilerOptions());
+    }
+
+    public CodeGenerator(CompilerOptions options) {
+        this.options = options;
+    }
 	
 	public void parse(Package AST, MethodDecl mainMethodDecl, MethodDecl printlnMethodDecl, FieldDecl outFieldDecl) {
+        parse(AST, mainMethodDecl, printlnMethodDecl, outFieldDecl, "a.out");
+    }
+
+	public void parse(Package AST, MethodDecl mainMethodDecl, MethodDecl printlnMethodDecl, FieldDecl outFieldDecl, String outputPath) {
+        generate(AST, mainMethodDecl, printlnMethodDecl, outFieldDecl);
+
+		// Output the executable if no errors
+        if (errorMessages.isEmpty()) {
+			makeElf(outputPath);
+        }
+    }
+
+    // Generate and patch the code section without writing anything out
+	public void generate(Package AST, MethodDecl mainMethodDecl, MethodDecl printlnMethodDecl, FieldDecl outFieldDecl) {
+        emitCode(AST, mainMethodDecl, printlnMethodDecl, outFieldDecl);
+        optimize();
+        patchCalls();
+    }
+
+    // First half of generate, emits every method with calls left unresolved
+	public void emitCode(Package AST, MethodDecl mainMethodDecl, MethodDecl printlnMethodDecl, FieldDecl outFieldDecl) {
 		asm = new InstructionList();
+        operands = options.registerAllocation ? new RegisterOperandStack(asm) : new MachineOperandStack(asm);
         this.mainMethodDecl = mainMethodDecl;
         this.printlnMethodDecl = printlnMethodDecl;
         this.outFieldDecl = outFieldDecl;
@@ -73,8 +139,40 @@ public class CodeGenerator implements Visitor<Object, Object> {
 		
         // Generate code
 		AST.visit(this,null);
+    }
 
-        // Patch method calls
+    // Runs the peephole pass between emitCode and patchCalls, then moves call sites and method entries to their new indices
+    public void optimize() {
+        if (!options.peephole) {
+            return;
+        }
+        Map<Declaration, Integer> methods = new IdentityHashMap<Declaration, Integer>();
+        for (Declaration method : callMethodPatches.values()) {
+            methods.put(method, method.offset);
+        }
+        for (Declaration method : layout.getVtableMethods()) {
+            methods.put(method, method.offset);
+        }
+        PeepholeOptimizer peephole = new PeepholeOptimizer(asm, methods.values());
+        asm = peephole.optimize();
+        numPeepholeRemoved = peephole.getNumRemoved();
+
+        Map<Integer, Declaration> movedPatches = new HashMap<Integer, Declaration>();
+        for (Map.Entry<Integer, Declaration> entry : callMethodPatches.entrySet()) {
+            movedPatches.put(peephole.newIndex(entry.getKey()), entry.getValue());
+        }
+        callMethodPatches = movedPatches;
+        for (Map.Entry<Declaration, Integer> method : methods.entrySet()) {
+            method.getKey().offset = peephole.newIndex(method.getValue());
+        }
+    }
+
+    public int getNumPeepholeRemoved() {
+        return numPeepholeRemoved;
+    }
+
+    // Second half of generate, resolves method calls once every method has an address
+    public void patchCalls() {
         for (Map.Entry<Integer, Declaration> entry : callMethodPatches.entrySet()) {
             int currentIdx = entry.getKey();
             int currentAddr = asm.get(currentIdx).startAddress;
@@ -85,49 +183,267 @@ public class CodeGenerator implements Visitor<Object, Object> {
         }
         asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBX, Reg64.RCX, 8, 0, Reg64.RAX)));
 
+        // .rodata and .bss follow the code, so operands relative to RIP can be resolved once the code size is final
+        ELFMaker elf = new ELFMaker(errorMessages, asm.getSize(), layout.getRodataSize(), bssSize);
+        asm.resolveRipOperands((int) elf.getBssOffset(), (int) elf.getRodataOffset());
+        rodata = layout.makeRodata(asm, (int) elf.getRodataOffset());
+
         asm.markOutputStart();
         asm.outputFromMark(true);
+    }
 
-		// Output the file "a.out" if no errors
-        if (errorMessages.isEmpty()) {
-			makeElf("a.out");
-        }
+    public InstructionList getInstructionList() {
+        return asm;
     }
 	
 	public void makeElf(String fname) {
-		ELFMaker elf = new ELFMaker(errorMessages, asm.getSize(), 8); // bss ignored until PA5, set to 8
-		elf.outputELF(fname, asm.getBytes(), 0); // COMPLETED: set the location of the main method
+		ELFMaker elf = new ELFMaker(errorMessages, asm.getSize(), rodata.length, bssSize);
+		elf.outputELF(fname, asm.getBytes(), rodata, 0); // COMPLETED: set the location of the main method
+	}
+
+	// ELF file image, for callers that do not want it written to disk
+	public byte[] makeElfBytes() {
+		ELFMaker elf = new ELFMaker(errorMessages, asm.getSize(), rodata.length, bssSize);
+		return elf.makeELF(asm.getBytes(), rodata, 0);
 	}
 	
-	private int makeMalloc() {
-		int idxStart = asm.add( new Mov_rmi(new ModRMSIB(Reg64.RAX,true),0x09) ); // mmap
+	public int getBssSize() {
+		return bssSize;
+	}
+
+	// Vtables, filled in by patchCalls
+	public byte[] getRodata() {
+		return rodata;
+	}
+
+	public int getNumVirtualCalls() {
+		return numVirtualCalls;
+	}
+
+	// Reserves bytes in .bss, returns their offset from its start
+	private int allocateBss(int bytes) {
+		int offset = bssSize;
+		bssSize += bytes;
+		return offset;
+	}
+
+	private static MethodDecl runtimeRoutine(String name) {
+		return new MethodDecl(new FieldDecl(false, true, new BaseType(TypeKind.VOID, null), name, null), new ParameterDeclList(), new StatementList(), null);
+	}
+
+	// Call to a method or runtime routine, patched once every method has been placed
+	int makeCallTo(MethodDecl method) {
+		int idx = asm.add(new Call(0));
+		callMethodPatches.put(idx, method);
+		return idx;
+	}
+
+	// Call to a method whose arguments and receiver are already pushed, through the vtable of the receiver when
+	// class hierarchy analysis found overrides, clobbers RAX and RCX before the call
+	void makeMethodCall(MethodDecl method) {
+		if (!layout.isVirtual(method)) {
+			makeCallTo(method);
+			return;
+		}
+		asm.add( new Mov_rrm(	new ModRMSIB(Reg64.RSP, 0, Reg64.RAX)) ); // receiver
+		asm.add( new Mov_rrm(	new ModRMSIB(Reg64.RAX, 0, Reg64.RAX)) ); // its vtable
+		asm.add( new Mov_rrm(	new ModRMSIB(Reg64.RAX, 8*layout.getSlot(method), Reg64.RCX)) );
+		asm.add( new Add(		new ModRMSIB(Reg64.RAX, Reg64.RCX)) ); // entries are relative to the vtable
+		asm.add( new Call(		new ModRMSIB(Reg64.RAX, true)) );
+		numVirtualCalls++;
+	}
+
+	// Allocates an object of the class into RAX and points its header at the vtable, if it has one
+	void makeNewObject(ClassDecl cd) {
+		makeMalloc(layout.getObjectSize(cd));
+		if (layout.hasVtable(cd)) {
+			asm.add( new Lea(		new ModRMSIB(layout.getVtableOffset(cd), Reg64.RCX, true)) );
+			asm.add( new Mov_rmr(	new ModRMSIB(Reg64.RAX, 0, Reg64.RCX)) );
+		}
+	}
+	
+	int makeMalloc(int size) {
+		return makeMalloc(null, size);
+	}
+
+	// Bump allocation of 8*count + size bytes, count may be null
+	// Only RAX, RCX and count are used unless the chunk runs out and the refill routine is called
+	int makeMalloc(Reg64 count, int size) {
+		if (gc != null) {
+			return makeCollectedMalloc(count, size);
+		}
+		int idxStart = asm.add( new Mov_rrm(new ModRMSIB(heapNextOffset, Reg64.RAX)) ); // next free address
+		asm.add( new Lea(		allocationEnd(count, size)) );
+		asm.add( new Cmp(		new ModRMSIB(heapEndOffset, Reg64.RCX)) );
+		int jmpToBumpIdx = asm.add( new CondJmp(Condition.GTE, 0, 0, false) ); // fits in the current chunk
+
+		if (count != null) {
+			asm.add( new Push(count) );
+		}
+		asm.add( new Sub(		new ModRMSIB(Reg64.RCX, Reg64.RAX)) ); // bytes needed
+		asm.add( new Push(Reg64.RCX) );
+		makeCallTo(allocRoutine);
+		asm.add( new Add(		new ModRMSIB(Reg64.RSP, true), 8) );
+		if (count != null) {
+			asm.add( new Pop(count) );
+		}
+		asm.add( new Lea(		allocationEnd(count, size)) );
+
+		asm.patchJump(jmpToBumpIdx, asm.getNumInstructions());
+		asm.add( new Mov_rmr(	new ModRMSIB(heapNextOffset, Reg64.RCX)) );
 		
+		// pointer to newly allocated memory is in RAX
+		// return the index of the first instruction in this method, if needed
+		return idxStart;
+	}
+
+	// Calls the collector's allocation routine, which takes the byte count on the stack
+	private int makeCollectedMalloc(Reg64 count, int size) {
+		int idxStart;
+		if (count != null) {
+			idxStart = asm.add( new Push(count) );
+			asm.add( new Xor(	new ModRMSIB(Reg64.RCX, Reg64.RCX)) );
+			asm.add( new Lea(	new ModRMSIB(Reg64.RCX, count, 8, size, Reg64.RCX)) );
+			asm.add( new Push(Reg64.RCX) );
+		} else {
+			idxStart = asm.add( new Push(size) );
+		}
+		makeCallTo(allocRoutine);
+		asm.add( new Add(		new ModRMSIB(Reg64.RSP, true), 8) );
+		if (count != null) {
+			asm.add( new Pop(count) );
+		}
+		return idxStart;
+	}
+
+	// [rax + 8*count + size] into RCX
+	private static ModRMSIB allocationEnd(Reg64 count, int size) {
+		return count == null ? new ModRMSIB(Reg64.RAX, size, Reg64.RCX) : new ModRMSIB(Reg64.RAX, count, 8, size, Reg64.RCX);
+	}
+
+	// Maps a new chunk that fits the size passed on the stack and makes it the current one, returns its start in RAX
+	private int makeHeapRefill() {
+		int idxStart = asm.add( new Push(Reg64.RBP) );
+		asm.add( new Mov_rmr(	new ModRMSIB(Reg64.RBP, Reg64.RSP)) );
+		asm.add( new Mov_rrm(	new ModRMSIB(Reg64.RBP, 16, Reg64.RSI)) ); // requested size
+		asm.add( new Add(		new ModRMSIB(Reg64.RSI, true), HEAP_CHUNK_SIZE) );
+
+		asm.add( new Mov_rmi(	new ModRMSIB(Reg64.RAX,true),0x09) ); // mmap
 		asm.add( new Xor(		new ModRMSIB(Reg64.RDI,Reg64.RDI)) 	); // addr=0
-		asm.add( new Mov_rmi(	new ModRMSIB(Reg64.RSI,true),0x1000) ); // 4kb alloc
 		asm.add( new Mov_rmi(	new ModRMSIB(Reg64.RDX,true),0x03) 	); // prot read|write
-		asm.add( new Mov_rmi(	new ModRMSIB(Reg64.R10,true),0x22) 	); // flags= private, anonymous
+		asm.add( new Mov_rmi(	new ModRMSIB(Reg64.R10,true),0x4022) ); // flags= private, anonymous, noreserve
 		asm.add( new Mov_rmi(	new ModRMSIB(Reg64.R8, true),-1) 	); // fd= -1
 		asm.add( new Xor(		new ModRMSIB(Reg64.R9,Reg64.R9)) 	); // offset=0
 		asm.add( new Syscall() );
-		
-		// pointer to newly allocated memory is in RAX
-		// return the index of the first instruction in this method, if needed
+
+		// RSI still holds the length after the syscall
+		asm.add( new Mov_rmr(	new ModRMSIB(heapNextOffset, Reg64.RAX)) );
+		asm.add( new Lea(		new ModRMSIB(Reg64.RAX, Reg64.RSI, 1, 0, Reg64.RCX)) );
+		asm.add( new Mov_rmr(	new ModRMSIB(heapEndOffset, Reg64.RCX)) );
+
+		asm.add( new Mov_rmr(	new ModRMSIB(Reg64.RSP, Reg64.RBP)) );
+		asm.add( new Pop(Reg64.RBP) );
+		asm.add( new Ret() );
 		return idxStart;
 	}
 	
-    // print RBX value, then null byte
+    // print the low 7 bits of the argument as one byte, buffered until the buffer fills or the program exits
 	private int makePrintln() {
 		// COMPLETED: how can we generate the assembly to println?
-		int idxStart = asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX,true), 1));
-        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDI, true), 1));
-        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDX, true), 1));
+		int idxStart = asm.add(new Mov_rrm(new ModRMSIB(Reg64.RBP, 24, Reg64.RAX)));
+        asm.add(new And(new ModRMSIB(Reg64.RAX, true), 127));
+        makeBufferedWrite();
+		return idxStart;
+	}
 
-        asm.add(new Lea(new ModRMSIB(Reg64.RBP, 24, Reg64.RSI)));
-        asm.add(new And(new ModRMSIB(Reg64.RBP, 24), 127));
+    // Appends the byte in AL to the output buffer, writing the buffer out once it is full
+    void makeBufferedWrite() {
+        asm.add(new Mov_rrm(new ModRMSIB(outLengthOffset, Reg64.RCX)));
+        asm.add(new Lea(new ModRMSIB(outBufferOffset, Reg64.RDX)));
+        // Stores the whole word, the bytes after AL are overwritten by later appends
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDX, Reg64.RCX, 1, 0, Reg64.RAX)));
+        asm.add(new Add(new ModRMSIB(Reg64.RCX, true), 1));
+        asm.add(new Mov_rmr(new ModRMSIB(outLengthOffset, Reg64.RCX)));
+        asm.add(new Cmp(new ModRMSIB(Reg64.RCX, true), OUT_BUFFER_SIZE));
+        int jmpNotFullIdx = asm.add(new CondJmp(Condition.LT, 0, 0, false));
+        makeCallTo(flushRoutine);
+        asm.patchJump(jmpNotFullIdx, asm.getNumInstructions());
+    }
 
+    // Writes out and empties the output buffer
+    private int makeFlush() {
+		int idxStart = asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX,true), 1)); // write
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDI, true), 1)); // stdout
+        asm.add(new Lea(new ModRMSIB(outBufferOffset, Reg64.RSI)));
+        asm.add(new Mov_rrm(new ModRMSIB(outLengthOffset, Reg64.RDX)));
 		asm.add(new Syscall());
-		return idxStart;
-	}
+        asm.add(new Mov_rmi(new ModRMSIB(outLengthOffset), 0, true));
+        asm.add(new Ret());
+        return idxStart;
+    }
+
+    // Writes out what was printed so far, then exits with status 1
+    private int makeErrorExit() {
+        int idxStart = makeCallTo(flushRoutine);
+		asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX,true), 60));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDI, true), 1));
+		asm.add(new Syscall());
+        return idxStart;
+    }
+
+    // Leaves the program through the error exit unless 0 <= index < length, one unsigned compare covers both
+    // since a negative index compares above any length
+    void makeBoundsCheck(Reg64 array, Reg64 index) {
+        asm.add(new Cmp(new ModRMSIB(array, -8, index))); // length - index
+        asm.patchJump(asm.add(new CondJmp(Condition.BE, 0, 0, false)), errorExitIdx);
+    }
+
+    // Leaves the program through the error exit when a new array's length is negative, signed unlike the bounds check
+    void makeLengthCheck(Reg64 length) {
+        asm.add(new Cmp(new ModRMSIB(length, true), 0));
+        asm.patchJump(asm.add(new CondJmp(Condition.LT, 0, 0, false)), errorExitIdx);
+    }
+
+    // Installs a handler for the fault signals that writes out what was printed so far, then raises the signal again so
+    // the program still dies by it
+    // A stack overflow is not caught, the handler would need a stack of its own to run on
+    private int makeFaultSetup() {
+        // The call pushes the address of the handler right after it, the install routine pops it and returns to our caller
+        int idxStart = makeCallTo(faultInstallRoutine);
+
+        // Handler, the signal number is in RDI
+        asm.add(new Push(Reg64.RDI));
+        makeCallTo(flushRoutine);
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 39)); // getpid
+        asm.add(new Syscall());
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDI, Reg64.RAX)));
+        asm.add(new Pop(Reg64.RSI));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 62)); // kill
+        asm.add(new Syscall());
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 60));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDI, true), 1));
+        asm.add(new Syscall());
+
+        // Install routine, builds the kernel's sigaction (handler, flags, restorer, mask) on the stack
+        // x86-64 requires a restorer, it is never used since the handler does not return
+        faultInstallRoutine.offset = asm.add(new Pop(Reg64.RAX));
+        asm.add(new Push(0));
+        asm.add(new Push(Reg64.RAX));
+        asm.add(new Mov_ri64(Reg64.RCX, FAULT_HANDLER_FLAGS));
+        asm.add(new Push(Reg64.RCX));
+        asm.add(new Push(Reg64.RAX));
+        for (int signal : FAULT_SIGNALS) {
+            asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 13)); // rt_sigaction
+            asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDI, true), signal));
+            asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSI, Reg64.RSP)));
+            asm.add(new Xor(new ModRMSIB(Reg64.RDX, Reg64.RDX)));
+            asm.add(new Mov_rmi(new ModRMSIB(Reg64.R10, true), 8)); // size of the signal mask
+            asm.add(new Syscall());
+        }
+        asm.add(new Add(new ModRMSIB(Reg64.RSP, true), 32));
+        asm.add(new Ret());
+        return idxStart;
+    }
 
     private int makeSysExit() {
 		int idxStart = asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX,true), 60));
@@ -140,42 +456,59 @@ public class CodeGenerator implements Visitor<Object, Object> {
     int currentStackOffset = 1;
 	@Override
 	public Object visitPackage(Package prog, Object arg) {
-        // Add static variables at beginning of stack, set offsets for instance variables
-        asm.add(new Mov_rmr(new ModRMSIB(Reg64.R15, Reg64.RSP)));
-        int staticVarOffset = 1;
+        outLengthOffset = allocateBss(8);
+        outBufferOffset = allocateBss(OUT_BUFFER_SIZE + 8);
+
+        // Static variables get a zeroed .bss word each and keep its byte offset, the layout gives instance variables
+        // their word in the object
+        layout = new ClassLayout(prog);
+        int staticsStart = bssSize;
         for (ClassDecl classDecl : prog.classDeclList) {
-            int instanceVarOffset = 0;
             for (FieldDecl fieldDecl : classDecl.fieldDeclList) {
                 if (fieldDecl.isStatic) {
-                    asm.add(new Push(0));
-                    fieldDecl.offset = staticVarOffset++;
-                } else {
-                    fieldDecl.offset = instanceVarOffset++;
+                    fieldDecl.offset = allocateBss(8);
                 }
             }
         }
+        int staticsEnd = bssSize;
+        heapNextOffset = allocateBss(8);
+        heapEndOffset = allocateBss(8);
+        if (options.garbageCollection) {
+            int gcSlotOffset = allocateBss(8*GarbageCollector.getNumSlots());
+            gc = new GarbageCollector(asm, heapNextOffset, heapEndOffset, gcSlotOffset, staticsStart, staticsEnd);
+        }
+
+        // Flush the output buffer if the program faults
+        makeCallTo(faultSetupRoutine);
+
+        // Reserve the first heap chunk
+        if (gc != null) {
+            gc.makeSetup();
+        } else {
+            asm.add(new Push(0));
+            makeCallTo(allocRoutine);
+            asm.add(new Add(new ModRMSIB(Reg64.RSP, true), 8));
+        }
 
         // Init some memory for the out _PrintStream obj for System.out.println
         // Otherwise we have a null pointer and seg fault error
-        makeMalloc();
-        asm.add(new Mov_rmr(new ModRMSIB(Reg64.R15, outFieldDecl.offset*8, Reg64.RAX)));
+        makeMalloc(8); // _PrintStream has no fields
+        asm.add(new Mov_rmr(new ModRMSIB(outFieldDecl.offset, Reg64.RAX)));
 
         // Add main method call, exit afterwards
         int mainMethodCallIdx = asm.add(new Call(0));
 
-        // Output null byte
-        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX,true), 1));
-        asm.add(new Xor(new ModRMSIB(Reg64.RDI, Reg64.RDI)));
-        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDX, true), 1));
-
-        asm.add(new Push(0));
-        asm.add(new Lea(new ModRMSIB(Reg64.RBP, -8, Reg64.RSI)));
-
-		asm.add(new Syscall());
+        // Write out whatever is still buffered
+        makeCallTo(flushRoutine);
 
         // Exit
         makeSysExit();
 
+        errorExitIdx = makeErrorExit();
+        allocRoutine.offset = gc != null ? gc.makeAlloc(errorExitIdx) : makeHeapRefill();
+        flushRoutine.offset = makeFlush();
+        faultSetupRoutine.offset = makeFaultSetup();
+
         // Visit all classes
         for (ClassDecl classDecl : prog.classDeclList) {
             classDecl.visit(this, null);
@@ -223,6 +556,20 @@ public class CodeGenerator implements Visitor<Object, Object> {
             parameterDecl.visit(this, null);
         }
 
+        // With --ir the body is lowered to SSA and instructions are selected from that instead
+        if (options.intermediateRepresentation && md != printlnMethodDecl) {
+            Function function = new IRBuilder(printlnMethodDecl).build(md);
+            if (options.deadCodeElimination) {
+                new DeadCodeEliminator().eliminate(function);
+            }
+            // Reduced induction variables can leave the original one unused
+            if (options.loopOptimization && new LoopOptimizer().optimize(function) > 0 && options.deadCodeElimination) {
+                new DeadCodeEliminator().eliminate(function);
+            }
+            new InstructionSelector(this, asm).emit(function);
+            return null;
+        }
+
         // Init stack frame
         asm.add(new Push(Reg64.RBP));
         asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBP, Reg64.RSP)));
@@ -238,14 +585,20 @@ public class CodeGenerator implements Visitor<Object, Object> {
             statement.visit(this, null);
         }
 
-        // De init stack frame
-        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSP, Reg64.RBP)));
-        asm.add(new Pop(Reg64.RBP));
-        asm.add(new Ret());
+        // De init stack frame, unless the last statement returned and already did
+        if (!endsInReturn(md.statementList)) {
+            asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSP, Reg64.RBP)));
+            asm.add(new Pop(Reg64.RBP));
+            asm.add(new Ret());
+        }
 
         return null;
 	}
 
+	private static boolean endsInReturn(StatementList statements) {
+		return statements.size() > 0 && statements.get(statements.size() - 1) instanceof ReturnStmt;
+	}
+
 	@Override public Object visitParameterDecl(ParameterDecl pd, Object arg) { return null; }
 
 	@Override public Object visitVarDecl(VarDecl decl, Object arg) {
@@ -264,9 +617,9 @@ public class CodeGenerator implements Visitor<Object, Object> {
             statement.visit(this, null);
         }
 
-        // remove local vars from stack
+        // remove local vars from stack, not needed when the block returned
         int stackCount = currentStackOffset - offsetStart;
-        if (stackCount > 0) {
+        if (stackCount > 0 && !endsInReturn(stmt.sl)) {
             asm.add(new Add(new ModRMSIB(Reg64.RSP, true), 8*stackCount));
         }
         currentStackOffset = offsetStart;
@@ -277,8 +630,9 @@ public class CodeGenerator implements Visitor<Object, Object> {
 	public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
         stmt.varDecl.visit(this, null);
 
-        // Assume expression visit puts result on stack
+        // Expression result becomes the local's slot on the stack
         stmt.initExp.visit(this, null);
+        operands.commitToFrame();
 
         return null;
 	}
@@ -292,10 +646,17 @@ public class CodeGenerator implements Visitor<Object, Object> {
         // Assume reference visit puts on stack
         stmt.ref.visit(this, null);
 
-        // Move rax into [rbx]
-        asm.add(new Pop(Reg64.RBX));
-        asm.add(new Pop(Reg64.RAX));
-        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBX, 0, Reg64.RAX)));
+        // Move value into [target]
+        Address target = operands.popAddress(Reg64.RBX);
+        Integer constant = operands.popImmediate();
+        if (constant != null) {
+            asm.add(new Mov_rmi(target.mem(), constant, true));
+        } else {
+            Reg64 value = operands.pop(Reg64.RAX);
+            asm.add(new Mov_rmr(target.mem(value)));
+            operands.release(value);
+        }
+        operands.release(target.base);
 
         return null;
 	}
@@ -306,70 +667,78 @@ public class CodeGenerator implements Visitor<Object, Object> {
         stmt.ref.visit(this, null);
         stmt.exp.visit(this, null);
 
-        asm.add(new Pop(Reg64.RAX));
-        asm.add(new Pop(Reg64.RBX));
-        asm.add(new Pop(Reg64.RCX));
-        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RBX, 0, Reg64.RBX))); // dereference array pointer
+        Reg64 value = operands.pop(Reg64.RAX);
+        Address arrayRef = operands.popAddress(Reg64.RBX);
+        Reg64 index = operands.pop(Reg64.RCX);
+        Reg64 array = operands.load(arrayRef, Reg64.RBX); // dereference array pointer
+        if (stmt.needsBoundsCheck) {
+            makeBoundsCheck(array, index);
+        }
 
-        // RCX contains index, RBX base of array, RAX the value to be assigned
-        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBX, Reg64.RCX, 8, 0, Reg64.RAX)));
+        // index, base of array and the value to be assigned
+        asm.add(new Mov_rmr(new ModRMSIB(array, index, 8, 0, value)));
+        operands.release(value);
+        operands.release(index);
+        operands.release(array);
         return null;
 	}
 
 	@Override
 	public Object visitCallStmt(CallStmt stmt, Object arg) {
+        makeCall(stmt.methodRef, stmt.argList);
+        return null;
+    }
+
+    // Pushes the arguments and calls the method, result is left in RAX
+    private void makeCall(Reference methodRef, ExprList argList) {
         MethodDecl method = null;
-        if (stmt.methodRef instanceof IdRef) {
-            IdRef methodRef = (IdRef) stmt.methodRef;
-            method = (MethodDecl) methodRef.id.declaration;
+        if (methodRef instanceof IdRef) {
+            method = (MethodDecl) ((IdRef) methodRef).id.declaration;
         } else {
             // Cannot be ThisRef, context analysis should have caught that
             // Must be QualRef
-            QualRef methodRef = (QualRef) stmt.methodRef;
-            method = (MethodDecl) methodRef.id.declaration;
+            method = (MethodDecl) ((QualRef) methodRef).id.declaration;
         }
 
         // Push args in reverse order
-        int argCount = stmt.argList.size();
+        int argCount = argList.size();
         for (int i = argCount - 1; i >= 0; i--) {
-            Expression expr = stmt.argList.get(i);
+            Expression expr = argList.get(i);
             expr.visit(this, null);
         }
 
         // If instance method, instance is an arg too
         if (!method.isStatic) {
             argCount += 1;
-            if (stmt.methodRef instanceof IdRef) {
+            if (methodRef instanceof IdRef) {
                 // Method being called is instance method, is in the same class
                 // Therefore, we must currently be in an instance method
                 // Pass on the "this" to the called method
-                asm.add(new Push(new ModRMSIB(Reg64.RBP, 16))); // push [rbp + 16]
+                operands.pushValueAt(new Address(Reg64.RBP, 16)); // push [rbp + 16]
             } else {
                 // Instance is somewhere else
-                QualRef methodRef = (QualRef) stmt.methodRef;
-                Reference instanceRef = methodRef.ref;
+                Reference instanceRef = ((QualRef) methodRef).ref;
                 instanceRef.visit(this, null); // this will push *address of address of* instance of our QualRef (not the instance address itself!)
-                asm.add(new Pop(Reg64.RAX));
-                asm.add(new Push(new ModRMSIB(Reg64.RAX, 0))); // this is what we want, push the value at the reference address which is the instance address
+                operands.pushValueAt(operands.popAddress(Reg64.RAX)); // this is what we want, push the value at the reference address which is the instance address
             }
         }
 
+        // Arguments go on the machine stack, and the callee may clobber any register
+        operands.flush();
+
         // Add call instruction, patch in the location of the method afterwards
-        int callIdx = asm.add(new Call(0));
-        callMethodPatches.put(callIdx, method);
+        makeMethodCall(method);
 
         // Pop off the arguments
-        for (int i = 0; i < argCount; i++) {
-            asm.add(new Pop(Reg64.RBX));
-        }
-
-        return null;
+        operands.discard(argCount);
     }
 
 	@Override
 	public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
-        stmt.returnExpr.visit(this, null);
-        asm.add(new Pop(Reg64.RAX));
+        if (stmt.returnExpr != null) {
+            stmt.returnExpr.visit(this, null);
+            operands.popInto(Reg64.RAX);
+        }
 
         // De init stack frame
         asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSP, Reg64.RBP)));
@@ -381,122 +750,214 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
 	@Override
 	public Object visitIfStmt(IfStmt stmt, Object arg) {
-        stmt.cond.visit(this, null);
-        asm.add(new Pop(Reg64.RAX));
-        asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), 0));
-
-        // Jump if condition was false
-        int jmpAfterThenIdx = asm.add(new CondJmp(Condition.E, 0, 0, false));
-        int jmpAfterThenAddr = asm.get(jmpAfterThenIdx).startAddress;
+        // Jump past the then code if condition is false
+        List<Integer> jumpsToElse = new ArrayList<Integer>();
+        jumpIf(stmt.cond, false, jumpsToElse);
 
         // Generate then code
         stmt.thenStmt.visit(this, null);
 
         // Jump to end of else if there is else code
         int continueIdx = 0;
-        int continueJumpAddr = 0;
         if (stmt.elseStmt != null) {
             continueIdx = asm.add(new Jmp(0, 0, false));
-            continueJumpAddr = asm.get(continueIdx).startAddress;
         }
 
-        // Patch conditional jump
-        asm.patch(jmpAfterThenIdx, new CondJmp(Condition.E, jmpAfterThenAddr, asm.getSize(), false));
+        // Patch conditional jumps
+        patchJumps(jumpsToElse, asm.getNumInstructions());
 
         // Generate else code
         if (stmt.elseStmt != null) {
             stmt.elseStmt.visit(this, null);
 
             // Patch previous jump instructions in the then code that skips the else code
-            asm.patch(continueIdx, new Jmp(continueJumpAddr, asm.getSize(), false));
+            asm.patchJump(continueIdx, asm.getNumInstructions());
         }
         return null;
 	}
 
 	@Override
 	public Object visitWhileStmt(WhileStmt stmt, Object arg) {
-        int loopBeginAddr = asm.getSize();
-
-        // Evaluating condition
-        stmt.cond.visit(this, null);
-        asm.add(new Pop(Reg64.RAX));
-        asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), 0));
-
-        // End/skip loop if condition false
-        int jmpAfterLoopIdx = asm.add(new CondJmp(Condition.E, 0, 0, false));
-        int jmpAfterLoopAddr = asm.get(jmpAfterLoopIdx).startAddress;
+        // Condition is tested at the bottom so each iteration takes a single jump
+        int jmpToConditionIdx = asm.add(new Jmp(0, 0, false));
 
         // Generate loop code
+        int loopBeginIdx = asm.getNumInstructions();
         stmt.body.visit(this, null);
-        asm.add(new Jmp(asm.getSize(), loopBeginAddr, false));
 
-        // Patch jmp that skips the loop
-        asm.patch(jmpAfterLoopIdx, new CondJmp(Condition.E, jmpAfterLoopAddr, asm.getSize(), false));
+        // Loop again while the condition is true
+        asm.patchJump(jmpToConditionIdx, asm.getNumInstructions());
+        List<Integer> jumpsToBody = new ArrayList<Integer>();
+        jumpIf(stmt.cond, true, jumpsToBody);
+        patchJumps(jumpsToBody, loopBeginIdx);
 
         return null;
 	}
 
+    // Emits code that jumps when cond evaluates to jumpWhen and falls through otherwise
+    // The jumps are added to jumps for the caller to patch, no boolean value is materialised
+    private void jumpIf(Expression cond, boolean jumpWhen, List<Integer> jumps) {
+        if (cond instanceof LiteralExpr && ((LiteralExpr) cond).lit instanceof BooleanLiteral) {
+            if (((LiteralExpr) cond).lit.spelling.equals("true") == jumpWhen) {
+                jumps.add(asm.add(new Jmp(0, 0, false)));
+            }
+            return;
+        }
+        if (cond instanceof UnaryExpr && ((UnaryExpr) cond).operator.spelling.equals("!")) {
+            jumpIf(((UnaryExpr) cond).expr, !jumpWhen, jumps);
+            return;
+        }
+        if (cond instanceof BinaryExpr) {
+            BinaryExpr expr = (BinaryExpr) cond;
+            String op = expr.operator.spelling;
+            if (op.equals("&&") || op.equals("||")) {
+                // && decides early when the left side is false, || when it is true
+                boolean decidedBy = op.equals("||");
+                if (jumpWhen == decidedBy) {
+                    jumpIf(expr.left, jumpWhen, jumps);
+                    jumpIf(expr.right, jumpWhen, jumps);
+                } else {
+                    List<Integer> skipRight = new ArrayList<Integer>();
+                    jumpIf(expr.left, decidedBy, skipRight);
+                    jumpIf(expr.right, jumpWhen, jumps);
+                    patchJumps(skipRight, asm.getNumInstructions());
+                }
+                return;
+            }
+            Condition condition = comparison(op);
+            if (condition != null) {
+                expr.left.visit(this, null);
+                expr.right.visit(this, null);
+                Integer constant = operands.popImmediate();
+                Reg64 right = constant == null ? operands.pop(Reg64.RBX) : null;
+                Reg64 left = operands.pop(Reg64.RAX);
+                asm.add(constant != null ? new Cmp(new ModRMSIB(left, true), constant) : new Cmp(new ModRMSIB(left, right)));
+                operands.release(left);
+                operands.release(right);
+                jumps.add(asm.add(new CondJmp(jumpWhen ? condition : negate(condition), 0, 0, false)));
+                return;
+            }
+        }
+
+        cond.visit(this, null);
+        Reg64 value = operands.pop(Reg64.RAX);
+        asm.add(new Cmp(new ModRMSIB(value, true), 0));
+        operands.release(value);
+        jumps.add(asm.add(new CondJmp(jumpWhen ? Condition.NE : Condition.E, 0, 0, false)));
+    }
+
+    private void patchJumps(List<Integer> jumps, int targetIdx) {
+        for (int jumpIdx : jumps) {
+            asm.patchJump(jumpIdx, targetIdx);
+        }
+    }
+
+    // Condition under which a relational operator is true, null for other operators
+    private static Condition comparison(String op) {
+        switch (op) {
+            case ">": return Condition.GT;
+            case "<": return Condition.LT;
+            case "==": return Condition.E;
+            case "<=": return Condition.LTE;
+            case ">=": return Condition.GTE;
+            case "!=": return Condition.NE;
+            default: return null;
+        }
+    }
+
+    private static Condition negate(Condition condition) {
+        switch (condition) {
+            case GT: return Condition.LTE;
+            case LT: return Condition.GTE;
+            case E: return Condition.NE;
+            case LTE: return Condition.GT;
+            case GTE: return Condition.LT;
+            default: return Condition.E;
+        }
+    }
+
     // Visiting an expression should put its value on the stack
 	@Override
 	public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
         expr.expr.visit(this, null);
-        asm.add(new Pop(Reg64.RAX));
+        Reg64 value = operands.pop(Reg64.RAX);
         if (expr.operator.spelling.equals("-")) {
-            asm.add(new Neg(new ModRMSIB(Reg64.RAX, true)));
+            asm.add(new Neg(new ModRMSIB(value, true)));
         } else if (expr.operator.spelling.equals("!"))  {
-            asm.add(new Not(new ModRMSIB(Reg64.RAX, true)));
+            // booleans are 0 or 1
+            asm.add(new Xor(new ModRMSIB(value, true), 1));
         }
-        asm.add(new Push(Reg64.RAX));
+        operands.push(value);
         return null;
 	}
 
 	@Override
 	public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        String op = expr.operator.spelling;
+        if (op.equals("&&") || op.equals("||")) {
+            // Short circuit through branches, values are flushed first so every path leaves the operand stack alike
+            operands.flush();
+            List<Integer> jumpsToFalse = new ArrayList<Integer>();
+            jumpIf(expr, false, jumpsToFalse);
+            asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 1));
+            int jmpToEndIdx = asm.add(new Jmp(0, 0, false));
+            patchJumps(jumpsToFalse, asm.getNumInstructions());
+            asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 0));
+            asm.patchJump(jmpToEndIdx, asm.getNumInstructions());
+            operands.push(Reg64.RAX);
+            return null;
+        }
+
         expr.left.visit(this, null);
         expr.right.visit(this, null);
-        asm.add(new Pop(Reg64.RBX));
-        asm.add(new Pop(Reg64.RAX));
-        if (expr.operator.spelling.equals("+")) {
-            asm.add(new Add(new ModRMSIB(Reg64.RAX, Reg64.RBX)));
-        } else if (expr.operator.spelling.equals("-")) {
-            asm.add(new Sub(new ModRMSIB(Reg64.RAX, Reg64.RBX)));
-        } else if (expr.operator.spelling.equals("*")) {
-            asm.add(new Imul(Reg64.RAX, new ModRMSIB(Reg64.RBX, true)));
-        } else if (expr.operator.spelling.equals("/")) {
-            asm.add(new Xor(new ModRMSIB(Reg64.RDX, Reg64.RDX)));
-            asm.add(new Idiv(new ModRMSIB(Reg64.RBX, true)));
-        } else if (expr.operator.spelling.equals("&&")) {
-            asm.add(new And(new ModRMSIB(Reg64.RAX, Reg64.RBX)));
-        } else if (expr.operator.spelling.equals("||")) {
-            asm.add(new Or(new ModRMSIB(Reg64.RAX, Reg64.RBX)));
+
+        // A constant right operand is used as an immediate, except by idiv which has no such form
+        Integer constant = op.equals("/") ? null : operands.popImmediate();
+        Reg64 right = constant == null ? operands.pop(Reg64.RBX) : null;
+        Reg64 left = operands.pop(Reg64.RAX);
+        if (op.equals("+")) {
+            asm.add(constant != null ? new Add(new ModRMSIB(left, true), constant) : new Add(new ModRMSIB(left, right)));
+        } else if (op.equals("-")) {
+            asm.add(constant != null ? new Sub(new ModRMSIB(left, true), constant) : new Sub(new ModRMSIB(left, right)));
+        } else if (op.equals("*")) {
+            asm.add(constant != null ? new Imul(left, new ModRMSIB(left, true), constant) : new Imul(left, new ModRMSIB(right, true)));
+        } else if (op.equals("/")) {
+            // Dividend must be in RAX, quotient comes back in RAX
+            if (left != Reg64.RAX) {
+                asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, left)));
+            }
+            asm.add(new Cqo());
+            asm.add(new Idiv(new ModRMSIB(right, true)));
+            if (left != Reg64.RAX) {
+                asm.add(new Mov_rmr(new ModRMSIB(left, Reg64.RAX)));
+            }
         } else {
             asm.add(new Xor(new ModRMSIB(Reg64.RCX, Reg64.RCX)));
-            asm.add(new Cmp(new ModRMSIB(Reg64.RAX, Reg64.RBX)));
-            if (expr.operator.spelling.equals(">")) {
+            asm.add(constant != null ? new Cmp(new ModRMSIB(left, true), constant) : new Cmp(new ModRMSIB(left, right)));
+            if (op.equals(">")) {
                 asm.add(new SetCond(Condition.GT, Reg8.CL));
-            } else if (expr.operator.spelling.equals("<")) {
+            } else if (op.equals("<")) {
                 asm.add(new SetCond(Condition.LT, Reg8.CL));
-            } else if (expr.operator.spelling.equals("==")) {
+            } else if (op.equals("==")) {
                 asm.add(new SetCond(Condition.E, Reg8.CL));
-            } else if (expr.operator.spelling.equals("<=")) {
+            } else if (op.equals("<=")) {
                 asm.add(new SetCond(Condition.LTE, Reg8.CL));
-            } else if (expr.operator.spelling.equals(">=")) {
+            } else if (op.equals(">=")) {
                 asm.add(new SetCond(Condition.GTE, Reg8.CL));
-            } else if (expr.operator.spelling.equals("!=")) {
+            } else if (op.equals("!=")) {
                 asm.add(new SetCond(Condition.NE, Reg8.CL));
             }
-            asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, Reg64.RCX)));
+            asm.add(new Mov_rmr(new ModRMSIB(left, Reg64.RCX)));
         }
-        asm.add(new Push(Reg64.RAX));
+        operands.release(right);
+        operands.push(left);
         return null;
 	}
 
 	@Override
 	public Object visitRefExpr(RefExpr expr, Object arg) {
         expr.ref.visit(this, null);
-        asm.add(new Pop(Reg64.RAX));
-        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 0, Reg64.RAX)));
-        asm.add(new Push(Reg64.RAX));
+        operands.pushValueAt(operands.popAddress(Reg64.RAX));
         return null;
 	}
 
@@ -504,64 +965,24 @@ public class CodeGenerator implements Visitor<Object, Object> {
 	public Object visitIxExpr(IxExpr expr, Object arg) {
         expr.ixExpr.visit(this, null);
         expr.ref.visit(this, null);
-        asm.add(new Pop(Reg64.RAX));
-        asm.add(new Pop(Reg64.RBX));
-        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 0, Reg64.RAX)));
-        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, Reg64.RBX, 8, 0, Reg64.RAX)));
-        asm.add(new Push(Reg64.RAX));
+        Address arrayRef = operands.popAddress(Reg64.RAX);
+        Reg64 index = operands.pop(Reg64.RBX);
+        Reg64 array = operands.load(arrayRef, Reg64.RAX);
+        if (expr.needsBoundsCheck) {
+            makeBoundsCheck(array, index);
+        }
+        asm.add(new Mov_rrm(new ModRMSIB(array, index, 8, 0, array)));
+        operands.release(index);
+        operands.push(array);
         return null;
 	}
 
 	@Override
 	public Object visitCallExpr(CallExpr expr, Object arg) {
-
-        MethodDecl method = null;
-        if (expr.functionRef instanceof IdRef) {
-            IdRef methodRef = (IdRef) expr.functionRef;
-            method = (MethodDecl) methodRef.id.declaration;
-        } else {
-            // Cannot be ThisRef, context analysis should have caught that
-            // Must be QualRef
-            QualRef methodRef = (QualRef) expr.functionRef;
-            method = (MethodDecl) methodRef.id.declaration;
-        }
-
-        // Push args in reverse order
-        int argCount = expr.argList.size();
-        for (int i = argCount - 1; i >= 0; i--) {
-            Expression argExpr = expr.argList.get(i);
-            argExpr.visit(this, null);
-        }
-
-        // If instance method, instance "this" is an arg too
-        if (!method.isStatic) {
-            argCount += 1;
-            if (expr.functionRef instanceof IdRef) {
-                // Method being called is instance method, is in the same class
-                // Therefore, we must currently be in an instance method
-                // Pass on the "this" to the called method
-                asm.add(new Push(new ModRMSIB(Reg64.RBP, 16))); // push [rbp + 16]
-            } else {
-                // Instance is somewhere else
-                QualRef methodRef = (QualRef) expr.functionRef;
-                Reference instanceRef = methodRef.ref;
-                instanceRef.visit(this, null); // this will push *address of address of* instance of our QualRef (not the instance address itself!)
-                asm.add(new Pop(Reg64.RAX));
-                asm.add(new Push(new ModRMSIB(Reg64.RAX, 0))); // this is what we want, push the value at the reference address which is the instance address
-            }
-        }
-
-        // Add call instruction, patch in the location of the method afterwards
-        int callIdx = asm.add(new Call(0));
-        callMethodPatches.put(callIdx, method);
-
-        // Pop off the arguments
-        for (int i = 0; i < argCount; i++) {
-            asm.add(new Pop(Reg64.RBX));
-        }
+        makeCall(expr.functionRef, expr.argList);
 
         // Push return value
-        asm.add(new Push(Reg64.RAX));
+        operands.push(Reg64.RAX);
 
         return null;
 	}
@@ -574,23 +995,30 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
 	@Override
 	public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
-        makeMalloc();
-        asm.add(new Push(Reg64.RAX));
+        operands.flush(); // refilling the heap clobbers registers
+        makeNewObject((ClassDecl) expr.classtype.className.declaration);
+        operands.push(Reg64.RAX);
         return null;
 	}
 
 	@Override
 	public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
-        makeMalloc();
-        asm.add(new Push(Reg64.RAX));
+        // Length is stored in the word before the first element
+        expr.sizeExpr.visit(this, null);
+        operands.popInto(Reg64.RDX);
+        operands.flush();
+        makeLengthCheck(Reg64.RDX);
+        makeMalloc(Reg64.RDX, 8);
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, 0, Reg64.RDX)));
+        asm.add(new Add(new ModRMSIB(Reg64.RAX, true), 8));
+        operands.push(Reg64.RAX);
         return null;
 	}
 
     // Visting a reference should result in the address of whatever is being referenced to be put on the stack
 	@Override
 	public Object visitThisRef(ThisRef ref, Object arg) {
-        asm.add(new Lea(new ModRMSIB(Reg64.RBP, 16, Reg64.RAX)));
-        asm.add(new Push(Reg64.RAX));
+        operands.pushAddress(Reg64.RBP, 16);
         return null;
 	}
 
@@ -598,50 +1026,51 @@ public class CodeGenerator implements Visitor<Object, Object> {
 	public Object visitIdRef(IdRef ref, Object arg) {
         if (ref.id.declaration instanceof VarDecl) {
             // On the stack, decl offset tells negative offset from RBP
-            int offset = -8*ref.id.declaration.offset;
-            asm.add(new Lea(new ModRMSIB(Reg64.RBP, offset, Reg64.RAX)));
-            asm.add(new Push(Reg64.RAX));
+            operands.pushAddress(Reg64.RBP, -8*ref.id.declaration.offset);
         } else if (ref.id.declaration instanceof ParameterDecl) {
             // On the stack, is an argument, decl offset tells positive offset from RBP
-            int offset = 8*ref.id.declaration.offset;
-            asm.add(new Lea(new ModRMSIB(Reg64.RBP, offset, Reg64.RAX)));
-            asm.add(new Push(Reg64.RAX));
+            operands.pushAddress(Reg64.RBP, 8*ref.id.declaration.offset);
+        } else if (ref.id.declaration instanceof FieldDecl && ((FieldDecl) ref.id.declaration).isStatic) {
+            // Static variable, decl offset is its place in .bss
+            operands.pushAddress(null, ref.id.declaration.offset);
         } else if (ref.id.declaration instanceof FieldDecl) {
             // Instance variable, offset from "this" which is first argument (RBP + 16)
             int offset = 8*ref.id.declaration.offset;
-            asm.add(new Mov_rrm(new ModRMSIB(Reg64.RBP, 16, Reg64.RAX)));
-            asm.add(new Lea(new ModRMSIB(Reg64.RAX, offset, Reg64.RAX)));
-            asm.add(new Push(Reg64.RAX));
+            Reg64 self = operands.allocate(Reg64.RAX);
+            asm.add(new Mov_rrm(new ModRMSIB(Reg64.RBP, 16, self)));
+            operands.pushAddress(self, offset);
         } else {
             // It's a class decl
             // Must be in a qual ref, next id is a static member
             // Therefore, the result of this visit is not actually needed
             // (we know the location of static members on the stack already, know the location of static methods in the code)
             // Push some junk value anyways since the caller will pop something off the stack assuming that this visit pushed something
-            int offset = -8*ref.id.declaration.offset;
-            asm.add(new Lea(new ModRMSIB(Reg64.RBP, offset, Reg64.RAX)));
-            asm.add(new Push(Reg64.RAX));
+            operands.pushAddress(Reg64.RBP, -8*ref.id.declaration.offset);
         }
         return null;
 	}
 
 	@Override
 	public Object visitQRef(QualRef ref, Object arg) {
+        // A class name in front of a static member is not evaluated
+        if (ref.ref instanceof IdRef && ((IdRef) ref.ref).id.declaration instanceof ClassDecl
+                && ref.id.declaration instanceof FieldDecl && ((FieldDecl) ref.id.declaration).isStatic) {
+            operands.pushAddress(null, ref.id.declaration.offset);
+            return null;
+        }
         ref.ref.visit(this, null);
-        asm.add(new Pop(Reg64.RAX));
-        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 0, Reg64.RAX)));
+        Reg64 instance = operands.load(operands.popAddress(Reg64.RAX), Reg64.RAX);
 
         if (ref.id.declaration instanceof FieldDecl) {
             FieldDecl field = (FieldDecl) ref.id.declaration;
             if (!field.isStatic) {
-                int offset = 8*field.offset;
-                asm.add(new Lea(new ModRMSIB(Reg64.RAX, offset, Reg64.RAX)));
-                asm.add(new Push(Reg64.RAX));
+                operands.pushAddress(instance, 8*field.offset);
             } else {
-                int offset = 8*field.offset;
-                asm.add(new Lea(new ModRMSIB(Reg64.R15, offset, Reg64.RAX)));
-                asm.add(new Push(Reg64.RAX));
+                operands.release(instance);
+                operands.pushAddress(null, field.offset);
             }
+        } else {
+            operands.release(instance);
         }
         return null;
 	}
@@ -652,24 +1081,19 @@ public class CodeGenerator implements Visitor<Object, Object> {
 
 	@Override
 	public Object visitIntLiteral(IntLiteral num, Object arg) {
-        int n = Integer.parseInt(num.spelling);
-        asm.add(new Push(n));
+        operands.pushImmediate(Integer.parseInt(num.spelling));
         return null;
 	}
 
 	@Override
 	public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) {
-        if (bool.spelling.equals("true")) {
-            asm.add(new Push(1));
-        } else {
-            asm.add(new Push(0));
-        }
+        operands.pushImmediate(bool.spelling.equals("true") ? 1 : 0);
         return null;
 	}
 
 	@Override
 	public Object visitNullLiteral(NullLiteral num, Object arg) {
-        asm.add(new Push(0));
+        operands.pushImmediate(0);
         return null;
 	}
 }
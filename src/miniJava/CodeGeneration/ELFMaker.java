@@ -17,16 +17,25 @@ public class ELFMaker {
 	private ArrayList<ELFSection> sections = new ArrayList<ELFSection>();
 	private ArrayList<ELFSegment> segments = new ArrayList<ELFSegment>();
 	private ELFSection text = new ELFSection();
+	private ELFSection rodata = new ELFSection();
 	private ELFSection bss = new ELFSection();
 	private ELFSection shstrtab = new ELFSection();
 	private ELFSegment phdr = new ELFSegment();
 	private ELFSegment textSeg = new ELFSegment();
+	private ELFSegment rodataSeg = new ELFSegment();
+	private ELFSegment bssSeg = new ELFSegment();
 	private long phStartAddress = 0x40;
 	private long shStartAddress;
 	private long sdataStartAddress;
 	private long bssOffset;
+	private long rodataOffset;
 	
 	public ELFMaker(List<String> errors, long textSize, long bssSize) {
+		this(errors, textSize, 0, bssSize);
+	}
+	
+	// .rodata only gets a section and segment when there is something in it
+	public ELFMaker(List<String> errors, long textSize, long rodataSize, long bssSize) {
         errorMessages = errors;
 		
 		// first section is the null section
@@ -34,6 +43,9 @@ public class ELFMaker {
 		
 		segments.add(phdr);
 		segments.add(textSeg);
+		if( rodataSize > 0 )
+			segments.add(rodataSeg);
+		segments.add(bssSeg);
 		
 		// next is the .text
 		text.sectionName = ".text";
@@ -43,6 +55,15 @@ public class ELFMaker {
 		text.data = new byte[1]; // placeholder, do not change
 		sections.add( text );
 		
+		// make .rodata, read only data that follows the code in the file
+		rodata.sectionName = ".rodata";
+		rodata.sh_size = rodataSize;
+		rodata.sh_flags = 2; // SHF_ALLOC
+		rodata.sh_type = 1;
+		rodata.data = new byte[1]; // placeholder, like .text
+		if( rodataSize > 0 )
+			sections.add( rodata );
+		
 		// make .bss
 		bss.sectionName = ".bss";
 		bss.data = null;
@@ -78,6 +99,16 @@ public class ELFMaker {
 			vSectionSizes += sh.sh_size;
 		}
 		
+		// .rodata and .bss each start on a page after the segment before them so no mapping
+		// changes the permissions of another, and keep the page offset of their file position as the loader expects
+		long segmentEnd = text.sh_addr + text.sh_size;
+		if( rodataSize > 0 ) {
+			rodata.sh_addr = pageAlign(segmentEnd) + rodata.sh_offset % PAGE_SIZE;
+			segmentEnd = rodata.sh_addr + rodata.sh_size;
+		}
+		bss.sh_addr = pageAlign(segmentEnd) + bss.sh_offset % PAGE_SIZE;
+		rodataOffset = rodata.sh_addr - text.sh_addr;
+		
 		// I mean, it isn't really bss, it's got/plt, but it will eventually
 		// resolve to bss when we check RIP+(entry-textStart+textSize)
 		bssOffset = bss.sh_addr - text.sh_addr;
@@ -85,14 +116,39 @@ public class ELFMaker {
 	
 	// entrypoint offset from start of text section
 	public void outputELF(String fname, byte[] textSection, long entrypoint) {
+		outputELF(fname, textSection, new byte[0], entrypoint);
+	}
+	
+	public void outputELF(String fname, byte[] textSection, byte[] rodataSection, long entrypoint) {
+		byte[] image = makeELF(textSection, rodataSection, entrypoint);
+		try {
+			FileOutputStream f = new FileOutputStream(fname);
+			f.write( image );
+			f.close();
+		} catch( FileNotFoundException e) {
+			errorMessages.add("FileNotFoundException: " + e);
+		} catch (IOException e) {
+			errorMessages.add("IOException: " + e);
+		}
+	}
+	
+	// Same as outputELF but returns the file image instead of writing it
+	public byte[] makeELF(byte[] textSection, long entrypoint) {
+		return makeELF(textSection, new byte[0], entrypoint);
+	}
+	
+	public byte[] makeELF(byte[] textSection, byte[] rodataSection, long entrypoint) {
 		if( textSection.length != text.sh_size )
 			throw new IllegalArgumentException("Passed text section does not match earlier sh_size");
+		if( rodataSection.length != rodata.sh_size )
+			throw new IllegalArgumentException("Passed rodata section does not match earlier sh_size");
 		
 		// -=-=-=-=-=-=-=-=-=-=-
 		//    NO MORE CHANGES BEYOND THIS POINT
 		// -=-=-=-=-=-=-=-=-=-=-
 		
 		text.data = textSection;
+		rodata.data = rodataSection;
 		
 		phdr.p_type = 6; // COMPLETED: what is the type of the program header segment?
 		phdr.p_flags = 4; // COMPLETED: what are the flags of the program header segment?
@@ -110,6 +166,22 @@ public class ELFMaker {
 		textSeg.p_filesz = text.sh_size;
 		textSeg.p_memsz = text.sh_size;
 		
+		rodataSeg.p_type = PT_LOAD;
+		rodataSeg.p_flags = PF_R;
+		rodataSeg.p_offset = rodata.sh_offset;
+		rodataSeg.p_vaddr = rodata.sh_addr;
+		rodataSeg.p_paddr = rodata.sh_addr;
+		rodataSeg.p_filesz = rodata.sh_size;
+		rodataSeg.p_memsz = rodata.sh_size;
+		
+		bssSeg.p_type = PT_LOAD;
+		bssSeg.p_flags = PF_R | PF_W;
+		bssSeg.p_offset = bss.sh_offset;
+		bssSeg.p_vaddr = bss.sh_addr;
+		bssSeg.p_paddr = bss.sh_addr;
+		bssSeg.p_filesz = 0;
+		bssSeg.p_memsz = bss.sh_size;
+		
 		elf.e_entry = text.sh_addr + entrypoint;
 		elf.e_shoff = shStartAddress;
 		elf.e_phnum = (short)segments.size();
@@ -130,21 +202,18 @@ public class ELFMaker {
 			write(out,sh.data);
 		}
 		
-		try {
-			FileOutputStream f = new FileOutputStream(fname);
-			f.write( out.toByteArray() );
-			f.close();
-		} catch( FileNotFoundException e) {
-			errorMessages.add("FileNotFoundException: " + e);
-		} catch (IOException e) {
-			errorMessages.add("IOException: " + e);
-		}
+		return out.toByteArray();
 	}
 	
 	public long getBssOffset() {
 		return bssOffset;
 	}
 	
+	// Where .rodata starts relative to the start of .text
+	public long getRodataOffset() {
+		return rodataOffset;
+	}
+	
 	private byte[] makeSectionStrings(ArrayList<ELFSection> sections) {
 		ByteArrayOutputStream b = new ByteArrayOutputStream();
 		_b = b;
@@ -333,6 +402,12 @@ public class ELFMaker {
 	private static final long SHF_INFO_LINK = 0x40;
 	private static final long SHF_LINK_ORDER = 0x80;
 	
+	private static final long PAGE_SIZE = 0x1000;
+	
+	private static long pageAlign(long address) {
+		return (address + PAGE_SIZE - 1) & ~(PAGE_SIZE - 1);
+	}
+	
 	private ELFSection makeNullSection() {
 		ELFSection e = new ELFSection();
 		e.sectionName = null;
@@ -0,0 +1,273 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.Condition;
+import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.ModRMSIB;
+import miniJava.CodeGeneration.x64.Reg64;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+// Runtime for --gc: a non moving mark-sweep collector with conservative roots, emitted into the code section
+// One mapping holds three regions of HEAP_RESERVE bytes each, none of them backed until touched:
+//   heap         blocks of [size word][payload], size includes the header, allocated by bump or from a free list
+//   side table   one word per heap word at the same offset, tells block starts apart from interior words
+//   mark stack   (start, end) ranges still to be scanned
+// The machine stack from RSP up to where it was at startup, and the static fields in .bss, are the roots
+// Every word in a root or a reachable block that points into a block keeps that block alive, interior pointers included
+// Callers flush the operand stack before allocating, so no pointer is held only in a register
+public class GarbageCollector {
+    private static final int HEAP_RESERVE = 0x20000000; // 512mb of address space per region
+    private static final int SIDE = HEAP_RESERVE; // displacement from a heap word to its side table word
+    // Collect once this many bytes were allocated since the last collection, or the live size if that is larger
+    private static final int MIN_THRESHOLD = 0x400000;
+
+    // Side table values
+    private static final int ALLOCATED = 1;
+    private static final int MARKED = 2;
+    private static final int FREE = 3;
+
+    private InstructionList asm;
+    // Runtime state, as byte offsets into .bss
+    private int heapNextOffset; // top of the bumped part of the heap
+    private int heapEndOffset;
+    private int heapStartOffset;
+    private int freeListOffset; // free blocks in address order, linked through their first payload word
+    private int cursorOffset; // link the next search starts from, blocks before it were too small when last visited
+    private int allocatedOffset;
+    private int thresholdOffset;
+    private int stackTopOffset; // RSP at startup
+    // Static fields span [staticsStart, staticsEnd) in .bss
+    private int staticsStart;
+    private int staticsEnd;
+
+    public GarbageCollector(InstructionList asm, int heapNextOffset, int heapEndOffset, int firstSlotOffset, int staticsStart, int staticsEnd) {
+        this.asm = asm;
+        this.heapNextOffset = heapNextOffset;
+        this.heapEndOffset = heapEndOffset;
+        this.heapStartOffset = firstSlotOffset;
+        this.freeListOffset = firstSlotOffset + 8;
+        this.allocatedOffset = firstSlotOffset + 16;
+        this.thresholdOffset = firstSlotOffset + 24;
+        this.cursorOffset = firstSlotOffset + 32;
+        this.stackTopOffset = firstSlotOffset + 40;
+        this.staticsStart = staticsStart;
+        this.staticsEnd = staticsEnd;
+    }
+
+    // .bss words used besides the heap next and end words
+    public static int getNumSlots() {
+        return 6;
+    }
+
+    // Maps the regions and sets up an empty heap, run once at startup before anything is pushed
+    public int makeSetup() {
+        int idxStart = asm.add(new Mov_rmr(slot(stackTopOffset, Reg64.RSP)));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, true), 0x09)); // mmap
+        asm.add(new Xor(new ModRMSIB(Reg64.RDI, Reg64.RDI))); // addr=0
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RSI, true), 3*HEAP_RESERVE));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDX, true), 0x03)); // prot read|write
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.R10, true), 0x4022)); // flags= private, anonymous, noreserve
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.R8, true), -1)); // fd= -1
+        asm.add(new Xor(new ModRMSIB(Reg64.R9, Reg64.R9))); // offset=0
+        asm.add(new Syscall());
+
+        asm.add(new Mov_rmr(slot(heapStartOffset, Reg64.RAX)));
+        asm.add(new Mov_rmr(slot(heapNextOffset, Reg64.RAX)));
+        asm.add(new Add(new ModRMSIB(Reg64.RAX, true), HEAP_RESERVE));
+        asm.add(new Mov_rmr(slot(heapEndOffset, Reg64.RAX)));
+        asm.add(new Mov_rmi(slot(freeListOffset), 0, true));
+        asm.add(new Lea(slot(freeListOffset, Reg64.RCX)));
+        asm.add(new Mov_rmr(slot(cursorOffset, Reg64.RCX)));
+        asm.add(new Mov_rmi(slot(allocatedOffset), 0, true));
+        asm.add(new Mov_rmi(slot(thresholdOffset), MIN_THRESHOLD, true));
+        return idxStart;
+    }
+
+    // Allocation routine, takes the payload size in bytes on the stack and returns zeroed memory in RAX
+    // Clobbers every register except RBP and RSP
+    // Running out of memory jumps to errorExitIdx, which flushes the output and exits with status 1
+    public int makeAlloc(int errorExitIdx) {
+        int idxStart = asm.add(new Push(Reg64.RBP));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBP, Reg64.RSP)));
+        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RBP, 16, Reg64.RSI)));
+        asm.add(new Add(new ModRMSIB(Reg64.RSI, true), 8)); // RSI = block size
+        asm.add(new Mov_rrm(slot(allocatedOffset, Reg64.RAX)));
+        asm.add(new Add(new ModRMSIB(Reg64.RAX, Reg64.RSI)));
+        asm.add(new Mov_rmr(slot(allocatedOffset, Reg64.RAX)));
+        asm.add(new Cmp(slot(thresholdOffset, Reg64.RAX)));
+        int jmpNoCollectIdx = asm.add(new CondJmp(Condition.GTE, 0, 0, false));
+        makeCollect();
+        asm.patchJump(jmpNoCollectIdx, asm.getNumInstructions());
+
+        // Next fit from the free list, RDI is the address of the link to the block in RAX
+        // Skipped blocks are not searched again until the next collection, so a run of small leftovers is walked once
+        asm.add(new Mov_rrm(slot(cursorOffset, Reg64.RDI)));
+        int searchIdx = asm.add(new Mov_rrm(new ModRMSIB(Reg64.RDI, 0, Reg64.RAX)));
+        asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), 0));
+        int jmpToEndOfListIdx = asm.add(new CondJmp(Condition.E, 0, 0, false));
+        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 0, Reg64.RCX)));
+        asm.add(new Cmp(new ModRMSIB(Reg64.RCX, Reg64.RSI)));
+        int jmpToFoundIdx = asm.add(new CondJmp(Condition.GTE, 0, 0, false));
+        asm.add(new Lea(new ModRMSIB(Reg64.RAX, 8, Reg64.RDI)));
+        asm.patchJump(asm.add(new Jmp(0, 0, false)), searchIdx);
+
+        // Split off the rest of the block if it can hold a free block of its own
+        asm.patchJump(jmpToFoundIdx, asm.getNumInstructions());
+        asm.add(new Mov_rmr(slot(cursorOffset, Reg64.RDI)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDX, Reg64.RCX)));
+        asm.add(new Sub(new ModRMSIB(Reg64.RDX, Reg64.RSI)));
+        asm.add(new Cmp(new ModRMSIB(Reg64.RDX, true), 16));
+        int jmpToTakeAllIdx = asm.add(new CondJmp(Condition.LT, 0, 0, false));
+        asm.add(new Lea(new ModRMSIB(Reg64.RAX, Reg64.RSI, 1, 0, Reg64.R8)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.R8, 0, Reg64.RDX)));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.R8, SIDE), FREE, true));
+        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 8, Reg64.RDX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.R8, 8, Reg64.RDX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDI, 0, Reg64.R8)));
+        int jmpToClaimIdx = asm.add(new Jmp(0, 0, false));
+
+        asm.patchJump(jmpToTakeAllIdx, asm.getNumInstructions());
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSI, Reg64.RCX)));
+        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 8, Reg64.RDX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDI, 0, Reg64.RDX)));
+
+        // Reused blocks hold old data, zero the payload
+        asm.patchJump(jmpToClaimIdx, asm.getNumInstructions());
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, 0, Reg64.RSI)));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, SIDE), ALLOCATED, true));
+        asm.add(new Lea(new ModRMSIB(Reg64.RAX, 8, Reg64.RCX)));
+        asm.add(new Lea(new ModRMSIB(Reg64.RAX, Reg64.RSI, 1, 0, Reg64.RDX)));
+        int zeroIdx = asm.add(new Cmp(new ModRMSIB(Reg64.RCX, Reg64.RDX)));
+        int jmpZeroedIdx = asm.add(new CondJmp(Condition.GTE, 0, 0, false));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RCX, 0), 0, true));
+        asm.add(new Add(new ModRMSIB(Reg64.RCX, true), 8));
+        asm.patchJump(asm.add(new Jmp(0, 0, false)), zeroIdx);
+
+        // Nothing free fits, take untouched memory from the top of the heap
+        asm.patchJump(jmpToEndOfListIdx, asm.getNumInstructions());
+        asm.add(new Mov_rmr(slot(cursorOffset, Reg64.RDI)));
+        asm.add(new Mov_rrm(slot(heapNextOffset, Reg64.RAX)));
+        asm.add(new Lea(new ModRMSIB(Reg64.RAX, Reg64.RSI, 1, 0, Reg64.RCX)));
+        asm.add(new Cmp(slot(heapEndOffset, Reg64.RCX)));
+        asm.patchJump(asm.add(new CondJmp(Condition.LT, 0, 0, false)), errorExitIdx); // live data outgrew the heap
+        asm.add(new Mov_rmr(slot(heapNextOffset, Reg64.RCX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, 0, Reg64.RSI)));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, SIDE), ALLOCATED, true));
+        int jmpBumpedIdx = asm.add(new Jmp(0, 0, false));
+
+        asm.patchJump(jmpZeroedIdx, asm.getNumInstructions());
+        asm.patchJump(jmpBumpedIdx, asm.getNumInstructions());
+        asm.add(new Add(new ModRMSIB(Reg64.RAX, true), 8));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSP, Reg64.RBP)));
+        asm.add(new Pop(Reg64.RBP));
+        asm.add(new Ret());
+        return idxStart;
+    }
+
+    // Mark from the roots then sweep, leaves RSI alone
+    private void makeCollect() {
+        // RBX is the mark stack pointer, R10 its base, the first ranges are the stack and the static fields
+        asm.add(new Mov_rrm(slot(heapStartOffset, Reg64.RBX)));
+        asm.add(new Add(new ModRMSIB(Reg64.RBX, true), 2*HEAP_RESERVE));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.R10, Reg64.RBX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBX, 0, Reg64.RSP)));
+        asm.add(new Mov_rrm(slot(stackTopOffset, Reg64.RCX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBX, 8, Reg64.RCX)));
+        asm.add(new Lea(slot(staticsStart, Reg64.RCX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBX, 16, Reg64.RCX)));
+        asm.add(new Lea(slot(staticsEnd, Reg64.RCX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBX, 24, Reg64.RCX)));
+        asm.add(new Add(new ModRMSIB(Reg64.RBX, true), 32));
+
+        // Pop a range into R8..R9
+        int nextRangeIdx = asm.add(new Cmp(new ModRMSIB(Reg64.RBX, Reg64.R10)));
+        int jmpToSweepIdx = asm.add(new CondJmp(Condition.E, 0, 0, false));
+        asm.add(new Sub(new ModRMSIB(Reg64.RBX, true), 16));
+        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RBX, 0, Reg64.R8)));
+        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RBX, 8, Reg64.R9)));
+
+        // Skip words that do not point between the heap start and top
+        int scanIdx = asm.add(new Cmp(new ModRMSIB(Reg64.R8, Reg64.R9)));
+        asm.patchJump(asm.add(new CondJmp(Condition.GTE, 0, 0, false)), nextRangeIdx);
+        asm.add(new Mov_rrm(new ModRMSIB(Reg64.R8, 0, Reg64.RAX)));
+        asm.add(new Add(new ModRMSIB(Reg64.R8, true), 8));
+        asm.add(new Cmp(slot(heapStartOffset, Reg64.RAX)));
+        asm.patchJump(asm.add(new CondJmp(Condition.GT, 0, 0, false)), scanIdx);
+        asm.add(new Cmp(slot(heapNextOffset, Reg64.RAX)));
+        asm.patchJump(asm.add(new CondJmp(Condition.LTE, 0, 0, false)), scanIdx);
+
+        // Walk back to the start of the block, the first heap word always starts one
+        asm.add(new And(new ModRMSIB(Reg64.RAX, true), -8));
+        int findStartIdx = asm.add(new Cmp(new ModRMSIB(Reg64.RAX, SIDE), 0));
+        int jmpFoundStartIdx = asm.add(new CondJmp(Condition.NE, 0, 0, false));
+        asm.add(new Sub(new ModRMSIB(Reg64.RAX, true), 8));
+        asm.patchJump(asm.add(new Jmp(0, 0, false)), findStartIdx);
+
+        // Mark an allocated block once and queue its payload
+        asm.patchJump(jmpFoundStartIdx, asm.getNumInstructions());
+        asm.add(new Cmp(new ModRMSIB(Reg64.RAX, SIDE), ALLOCATED));
+        asm.patchJump(asm.add(new CondJmp(Condition.NE, 0, 0, false)), scanIdx);
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, SIDE), MARKED, true));
+        asm.add(new Lea(new ModRMSIB(Reg64.RAX, 8, Reg64.RCX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBX, 0, Reg64.RCX)));
+        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 0, Reg64.RCX)));
+        asm.add(new Add(new ModRMSIB(Reg64.RCX, Reg64.RAX)));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBX, 8, Reg64.RCX)));
+        asm.add(new Add(new ModRMSIB(Reg64.RBX, true), 16));
+        asm.patchJump(asm.add(new Jmp(0, 0, false)), scanIdx);
+
+        // Sweep every block in address order, RAX is the block, RCX its size, RDI the link to append free blocks to,
+        // R9 the free block being grown by coalescing or 0, R10 the live byte count
+        asm.patchJump(jmpToSweepIdx, asm.getNumInstructions());
+        asm.add(new Mov_rrm(slot(heapStartOffset, Reg64.RAX)));
+        asm.add(new Lea(slot(freeListOffset, Reg64.RDI)));
+        asm.add(new Xor(new ModRMSIB(Reg64.R9, Reg64.R9)));
+        asm.add(new Xor(new ModRMSIB(Reg64.R10, Reg64.R10)));
+        int sweepIdx = asm.add(new Cmp(slot(heapNextOffset, Reg64.RAX)));
+        int jmpSweptIdx = asm.add(new CondJmp(Condition.LTE, 0, 0, false));
+        asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 0, Reg64.RCX)));
+        asm.add(new Cmp(new ModRMSIB(Reg64.RAX, SIDE), MARKED));
+        int jmpToDeadIdx = asm.add(new CondJmp(Condition.NE, 0, 0, false));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, SIDE), ALLOCATED, true));
+        asm.add(new Add(new ModRMSIB(Reg64.R10, Reg64.RCX)));
+        asm.add(new Xor(new ModRMSIB(Reg64.R9, Reg64.R9)));
+        int jmpToNextBlockIdx = asm.add(new Jmp(0, 0, false));
+
+        asm.patchJump(jmpToDeadIdx, asm.getNumInstructions());
+        asm.add(new Cmp(new ModRMSIB(Reg64.R9, true), 0));
+        int jmpToNewFreeIdx = asm.add(new CondJmp(Condition.E, 0, 0, false));
+        asm.add(new Add(new ModRMSIB(Reg64.R9, 0, Reg64.RCX)));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, SIDE), 0, true));
+        int jmpCoalescedIdx = asm.add(new Jmp(0, 0, false));
+
+        asm.patchJump(jmpToNewFreeIdx, asm.getNumInstructions());
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.R9, Reg64.RAX)));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, SIDE), FREE, true));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RDI, 0, Reg64.RAX)));
+        asm.add(new Lea(new ModRMSIB(Reg64.RAX, 8, Reg64.RDI)));
+
+        asm.patchJump(jmpToNextBlockIdx, asm.getNumInstructions());
+        asm.patchJump(jmpCoalescedIdx, asm.getNumInstructions());
+        asm.add(new Add(new ModRMSIB(Reg64.RAX, Reg64.RCX)));
+        asm.patchJump(asm.add(new Jmp(0, 0, false)), sweepIdx);
+
+        // Next collection once as much as is live now, or the minimum, has been allocated
+        asm.patchJump(jmpSweptIdx, asm.getNumInstructions());
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.RDI, 0), 0, true));
+        asm.add(new Lea(slot(freeListOffset, Reg64.RCX)));
+        asm.add(new Mov_rmr(slot(cursorOffset, Reg64.RCX)));
+        asm.add(new Mov_rmi(slot(allocatedOffset), 0, true));
+        asm.add(new Cmp(new ModRMSIB(Reg64.R10, true), MIN_THRESHOLD));
+        int jmpKeepLiveIdx = asm.add(new CondJmp(Condition.GTE, 0, 0, false));
+        asm.add(new Mov_rmi(new ModRMSIB(Reg64.R10, true), MIN_THRESHOLD));
+        asm.patchJump(jmpKeepLiveIdx, asm.getNumInstructions());
+        asm.add(new Mov_rmr(slot(thresholdOffset, Reg64.R10)));
+    }
+
+    private static ModRMSIB slot(int offset) {
+        return new ModRMSIB(offset);
+    }
+
+    private static ModRMSIB slot(int offset, Reg64 r) {
+        return new ModRMSIB(offset, r);
+    }
+}
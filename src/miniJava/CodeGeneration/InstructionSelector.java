@@ -0,0 +1,411 @@
+package miniJava.CodeGeneration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.FieldDecl;
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.AbstractSyntaxTrees.ParameterDecl;
+import miniJava.CodeGeneration.x64.*;
+import miniJava.CodeGeneration.x64.ISA.*;
+import miniJava.IR.BasicBlock;
+import miniJava.IR.Constant;
+import miniJava.IR.Function;
+import miniJava.IR.Instr;
+import miniJava.IR.Op;
+import miniJava.IR.Value;
+
+// Emits x64 for a method lowered to the IR, used by --ir in place of visiting its statements
+// Every instruction with a result gets a slot in the frame below RBP, parameters and this are read where the caller
+// pushed them, so an instruction loads its operands into RAX/RCX/RDX and stores its result back
+// Nothing stays in a register between instructions, which keeps calls and the collector's stack scan simple
+// A comparison used only by the branch ending its block becomes a cmp and a conditional jump
+// Phis are written by copies at the end of each predecessor, critical edges are split first so there is one to use
+class InstructionSelector {
+    private CodeGenerator gen;
+    private InstructionList asm;
+
+    private Map<Instr, Integer> slots = new HashMap<Instr, Integer>();
+    private Map<BasicBlock, Integer> blockStarts = new HashMap<BasicBlock, Integer>();
+    private List<Integer> jumpIdxs = new ArrayList<Integer>();
+    private List<BasicBlock> jumpTargets = new ArrayList<BasicBlock>();
+
+    InstructionSelector(CodeGenerator gen, InstructionList asm) {
+        this.gen = gen;
+        this.asm = asm;
+    }
+
+    void emit(Function function) {
+        function.splitCriticalEdges();
+        List<BasicBlock> order = function.reversePostorder();
+
+        int numSlots = 0;
+        for (BasicBlock block : order) {
+            for (Instr instr : block.instrs) {
+                if (instr.hasResult() && instr.op != Op.PARAM && instr.op != Op.THIS) {
+                    slots.put(instr, ++numSlots);
+                }
+            }
+        }
+
+        asm.add(new Push(Reg64.RBP));
+        asm.add(new Mov_rmr(new ModRMSIB(Reg64.RBP, Reg64.RSP)));
+        if (numSlots > 0) {
+            asm.add(new Sub(new ModRMSIB(Reg64.RSP, true), 8*numSlots));
+        }
+
+        for (int i = 0; i < order.size(); i++) {
+            BasicBlock block = order.get(i);
+            BasicBlock next = i + 1 < order.size() ? order.get(i + 1) : null;
+            blockStarts.put(block, asm.getNumInstructions());
+            for (Instr instr : block.instrs) {
+                if (!isFused(instr)) {
+                    select(instr, next);
+                }
+            }
+        }
+
+        for (int i = 0; i < jumpIdxs.size(); i++) {
+            asm.patchJump(jumpIdxs.get(i), blockStarts.get(jumpTargets.get(i)));
+        }
+    }
+
+    // Where the value of instr lives, as the memory operand of an instruction using r
+    private ModRMSIB mem(Instr instr, Reg r) {
+        return new ModRMSIB(Reg64.RBP, disp(instr), r);
+    }
+
+    private ModRMSIB mem(Instr instr) {
+        return new ModRMSIB(Reg64.RBP, disp(instr));
+    }
+
+    private int disp(Instr instr) {
+        if (instr.op == Op.PARAM) {
+            return 8*((ParameterDecl) instr.decl).offset;
+        }
+        if (instr.op == Op.THIS) {
+            return 16;
+        }
+        return -8*slots.get(instr);
+    }
+
+    // A constant that fits in a 32-bit immediate, otherwise null
+    private static Integer immediate(Value value) {
+        if (value instanceof Constant) {
+            long constant = ((Constant) value).value;
+            if (constant == (int) constant) {
+                return (int) constant;
+            }
+        }
+        return null;
+    }
+
+    private void load(Value value, Reg64 r) {
+        if (value instanceof Constant) {
+            long constant = ((Constant) value).value;
+            if (constant == (int) constant) {
+                asm.add(new Mov_rmi(new ModRMSIB(r, true), (int) constant));
+            } else {
+                asm.add(new Mov_ri64(r, constant));
+            }
+        } else {
+            asm.add(new Mov_rrm(mem((Instr) value, r)));
+        }
+    }
+
+    private void store(Instr instr, Reg64 r) {
+        asm.add(new Mov_rmr(mem(instr, r)));
+    }
+
+    private void push(Value value) {
+        Integer constant = immediate(value);
+        if (constant != null) {
+            asm.add(new Push(constant));
+        } else if (value instanceof Constant) {
+            load(value, Reg64.RAX);
+            asm.add(new Push(Reg64.RAX));
+        } else {
+            asm.add(new Push(mem((Instr) value)));
+        }
+    }
+
+    private boolean isFused(Instr instr) {
+        if (!instr.op.isComparison() || instr.users.size() != 1) {
+            return false;
+        }
+        Instr user = instr.users.get(0);
+        return user.op == Op.BRANCH && user.block == instr.block;
+    }
+
+    // cmp of the operands of a comparison, the result is in the flags
+    private void compare(Instr instr) {
+        load(instr.getOperand(0), Reg64.RAX);
+        Integer constant = immediate(instr.getOperand(1));
+        if (constant != null) {
+            asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), constant));
+        } else {
+            load(instr.getOperand(1), Reg64.RCX);
+            asm.add(new Cmp(new ModRMSIB(Reg64.RAX, Reg64.RCX)));
+        }
+    }
+
+    private static Condition condition(Op op) {
+        switch (op) {
+            case LT: return Condition.LT;
+            case LTE: return Condition.LTE;
+            case GT: return Condition.GT;
+            case GTE: return Condition.GTE;
+            case EQ: return Condition.E;
+            default: return Condition.NE;
+        }
+    }
+
+    private static Condition negate(Condition cond) {
+        switch (cond) {
+            case LT: return Condition.GTE;
+            case LTE: return Condition.GT;
+            case GT: return Condition.LTE;
+            case GTE: return Condition.LT;
+            case E: return Condition.NE;
+            default: return Condition.E;
+        }
+    }
+
+    private void jumpTo(BasicBlock target, BasicBlock next) {
+        if (target != next) {
+            jumpIdxs.add(asm.add(new Jmp(0, 0, false)));
+            jumpTargets.add(target);
+        }
+    }
+
+    // Parallel copy into the phis of succ for the edge from block
+    // Copied one at a time unless a phi reads another one, then through the machine stack
+    private void copyPhis(BasicBlock block, BasicBlock succ) {
+        List<Instr> phis = succ.getPhis();
+        int predIdx = succ.preds.indexOf(block);
+        boolean readsPhi = false;
+        for (Instr phi : phis) {
+            Value value = phi.getOperand(predIdx);
+            readsPhi = readsPhi || (value != phi && phis.contains(value));
+        }
+        if (!readsPhi) {
+            for (Instr phi : phis) {
+                Value value = phi.getOperand(predIdx);
+                Integer constant = immediate(value);
+                if (constant != null) {
+                    asm.add(new Mov_rmi(mem(phi), constant, true));
+                } else if (value != phi) {
+                    load(value, Reg64.RAX);
+                    store(phi, Reg64.RAX);
+                }
+            }
+            return;
+        }
+        for (Instr phi : phis) {
+            push(phi.getOperand(predIdx));
+        }
+        for (int i = phis.size() - 1; i >= 0; i--) {
+            asm.add(new Pop(mem(phis.get(i))));
+        }
+    }
+
+    private void select(Instr instr, BasicBlock next) {
+        switch (instr.op) {
+            case PARAM:
+            case THIS:
+            case PHI:
+                break;
+
+            case ADD:
+            case SUB: {
+                load(instr.getOperand(0), Reg64.RAX);
+                Integer constant = immediate(instr.getOperand(1));
+                if (constant != null) {
+                    ModRMSIB rax = new ModRMSIB(Reg64.RAX, true);
+                    asm.add(instr.op == Op.ADD ? new Add(rax, constant) : new Sub(rax, constant));
+                } else {
+                    load(instr.getOperand(1), Reg64.RCX);
+                    ModRMSIB raxRcx = new ModRMSIB(Reg64.RAX, Reg64.RCX);
+                    asm.add(instr.op == Op.ADD ? new Add(raxRcx) : new Sub(raxRcx));
+                }
+                store(instr, Reg64.RAX);
+                break;
+            }
+            case MUL: {
+                Integer constant = immediate(instr.getOperand(1));
+                if (constant != null) {
+                    load(instr.getOperand(0), Reg64.RCX);
+                    asm.add(new Imul(Reg64.RAX, new ModRMSIB(Reg64.RCX, true), constant));
+                } else {
+                    load(instr.getOperand(0), Reg64.RAX);
+                    load(instr.getOperand(1), Reg64.RCX);
+                    asm.add(new Imul(Reg64.RAX, new ModRMSIB(Reg64.RCX, true)));
+                }
+                store(instr, Reg64.RAX);
+                break;
+            }
+            case DIV:
+                load(instr.getOperand(0), Reg64.RAX);
+                load(instr.getOperand(1), Reg64.RCX);
+                asm.add(new Cqo());
+                asm.add(new Idiv(new ModRMSIB(Reg64.RCX, true)));
+                store(instr, Reg64.RAX);
+                break;
+            case NEG:
+                load(instr.getOperand(0), Reg64.RAX);
+                asm.add(new Neg(new ModRMSIB(Reg64.RAX, true)));
+                store(instr, Reg64.RAX);
+                break;
+            case NOT:
+                load(instr.getOperand(0), Reg64.RAX);
+                asm.add(new Xor(new ModRMSIB(Reg64.RAX, true), 1));
+                store(instr, Reg64.RAX);
+                break;
+            case LT:
+            case LTE:
+            case GT:
+            case GTE:
+            case EQ:
+            case NE:
+                // RDX is cleared before the cmp, xor would clobber the flags after it
+                asm.add(new Xor(new ModRMSIB(Reg64.RDX, Reg64.RDX)));
+                compare(instr);
+                asm.add(new SetCond(condition(instr.op), Reg8.DL));
+                store(instr, Reg64.RDX);
+                break;
+
+            case LOAD_FIELD:
+                load(instr.getOperand(0), Reg64.RAX);
+                asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, 8*((FieldDecl) instr.decl).offset, Reg64.RAX)));
+                store(instr, Reg64.RAX);
+                break;
+            case STORE_FIELD: {
+                load(instr.getOperand(0), Reg64.RAX);
+                int disp = 8*((FieldDecl) instr.decl).offset;
+                Integer constant = immediate(instr.getOperand(1));
+                if (constant != null) {
+                    asm.add(new Mov_rmi(new ModRMSIB(Reg64.RAX, disp), constant, true));
+                } else {
+                    load(instr.getOperand(1), Reg64.RCX);
+                    asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, disp, Reg64.RCX)));
+                }
+                break;
+            }
+            case LOAD_STATIC:
+                asm.add(new Mov_rrm(new ModRMSIB(((FieldDecl) instr.decl).offset, Reg64.RAX)));
+                store(instr, Reg64.RAX);
+                break;
+            case STORE_STATIC: {
+                int offset = ((FieldDecl) instr.decl).offset;
+                Integer constant = immediate(instr.getOperand(0));
+                if (constant != null) {
+                    asm.add(new Mov_rmi(new ModRMSIB(offset), constant, true));
+                } else {
+                    load(instr.getOperand(0), Reg64.RCX);
+                    asm.add(new Mov_rmr(new ModRMSIB(offset, Reg64.RCX)));
+                }
+                break;
+            }
+            case LOAD_ELEM:
+                load(instr.getOperand(0), Reg64.RAX);
+                load(instr.getOperand(1), Reg64.RCX);
+                if (instr.needsBoundsCheck) {
+                    gen.makeBoundsCheck(Reg64.RAX, Reg64.RCX);
+                }
+                asm.add(new Mov_rrm(new ModRMSIB(Reg64.RAX, Reg64.RCX, 8, 0, Reg64.RAX)));
+                store(instr, Reg64.RAX);
+                break;
+            case STORE_ELEM:
+                load(instr.getOperand(0), Reg64.RAX);
+                load(instr.getOperand(1), Reg64.RCX);
+                load(instr.getOperand(2), Reg64.RDX);
+                if (instr.needsBoundsCheck) {
+                    gen.makeBoundsCheck(Reg64.RAX, Reg64.RCX);
+                }
+                asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, Reg64.RCX, 8, 0, Reg64.RDX)));
+                break;
+
+            case NEW_OBJECT:
+                gen.makeNewObject((ClassDecl) instr.decl);
+                store(instr, Reg64.RAX);
+                break;
+            case NEW_ARRAY:
+                // Length in the word before the elements, as CodeGenerator lays arrays out
+                load(instr.getOperand(0), Reg64.RDX);
+                gen.makeLengthCheck(Reg64.RDX);
+                gen.makeMalloc(Reg64.RDX, 8);
+                asm.add(new Mov_rmr(new ModRMSIB(Reg64.RAX, 0, Reg64.RDX)));
+                asm.add(new Add(new ModRMSIB(Reg64.RAX, true), 8));
+                store(instr, Reg64.RAX);
+                break;
+            case CALL: {
+                // Arguments last to first, then the receiver which is the last operand
+                int argCount = ((MethodDecl) instr.decl).parameterDeclList.size();
+                for (int i = argCount - 1; i >= 0; i--) {
+                    push(instr.getOperand(i));
+                }
+                if (instr.operands.size() > argCount) {
+                    push(instr.getOperand(argCount));
+                }
+                gen.makeMethodCall((MethodDecl) instr.decl);
+                asm.add(new Add(new ModRMSIB(Reg64.RSP, true), 8*instr.operands.size()));
+                if (instr.hasResult()) {
+                    store(instr, Reg64.RAX);
+                }
+                break;
+            }
+            case PRINT:
+                load(instr.getOperand(0), Reg64.RAX);
+                asm.add(new And(new ModRMSIB(Reg64.RAX, true), 127));
+                gen.makeBufferedWrite();
+                break;
+
+            case JUMP: {
+                BasicBlock target = instr.targets.get(0);
+                if (!target.getPhis().isEmpty()) {
+                    copyPhis(instr.block, target);
+                }
+                jumpTo(target, next);
+                break;
+            }
+            case BRANCH: {
+                Value cond = instr.getOperand(0);
+                BasicBlock ifTrue = instr.targets.get(0);
+                BasicBlock ifFalse = instr.targets.get(1);
+                if (cond instanceof Constant) {
+                    jumpTo(((Constant) cond).value != 0 ? ifTrue : ifFalse, next);
+                    break;
+                }
+                Condition condition;
+                if (isFused((Instr) cond)) {
+                    compare((Instr) cond);
+                    condition = condition(((Instr) cond).op);
+                } else {
+                    load(cond, Reg64.RAX);
+                    asm.add(new Cmp(new ModRMSIB(Reg64.RAX, true), 0));
+                    condition = Condition.NE;
+                }
+                if (ifTrue == next) {
+                    jumpIdxs.add(asm.add(new CondJmp(negate(condition), 0, 0, false)));
+                    jumpTargets.add(ifFalse);
+                } else {
+                    jumpIdxs.add(asm.add(new CondJmp(condition, 0, 0, false)));
+                    jumpTargets.add(ifTrue);
+                    jumpTo(ifFalse, next);
+                }
+                break;
+            }
+            case RETURN:
+                if (!instr.operands.isEmpty()) {
+                    load(instr.getOperand(0), Reg64.RAX);
+                }
+                asm.add(new Mov_rmr(new ModRMSIB(Reg64.RSP, Reg64.RBP)));
+                asm.add(new Pop(Reg64.RBP));
+                asm.add(new Ret());
+                break;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.ModRMSIB;
+import miniJava.CodeGeneration.x64.Reg64;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+// Plain stack machine, every value lives on the machine stack and registers are only used in between
+public class MachineOperandStack extends OperandStack {
+    public MachineOperandStack(InstructionList asm) {
+        super(asm);
+    }
+
+    @Override
+    public void push(Reg64 reg) {
+        asm.add(new Push(reg));
+    }
+
+    @Override
+    public void pushImmediate(int value) {
+        asm.add(new Push(value));
+    }
+
+    @Override
+    public void pushAddress(Reg64 base, int disp) {
+        asm.add(new Lea(new Address(base, disp).mem(Reg64.RAX)));
+        asm.add(new Push(Reg64.RAX));
+    }
+
+    @Override
+    public void pushValueAt(Address address) {
+        asm.add(new Push(address.mem()));
+    }
+
+    @Override
+    public Reg64 pop(Reg64 preferred) {
+        asm.add(new Pop(preferred));
+        return preferred;
+    }
+
+    @Override
+    public void popInto(Reg64 target) {
+        asm.add(new Pop(target));
+    }
+
+    @Override
+    public Integer popImmediate() {
+        return null;
+    }
+
+    @Override
+    public Address popAddress(Reg64 preferred) {
+        asm.add(new Pop(preferred));
+        return new Address(preferred, 0);
+    }
+
+    @Override
+    public Reg64 load(Address address, Reg64 preferred) {
+        asm.add(new Mov_rrm(address.mem(preferred)));
+        return preferred;
+    }
+
+    @Override
+    public Reg64 allocate(Reg64 preferred) {
+        return preferred;
+    }
+
+    @Override public void release(Reg64 reg) {}
+
+    @Override public void flush() {}
+
+    @Override
+    public void discard(int count) {
+        for (int i = 0; i < count; i++) {
+            asm.add(new Pop(Reg64.RBX));
+        }
+    }
+
+    @Override public void commitToFrame() {}
+}
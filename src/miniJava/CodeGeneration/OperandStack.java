@@ -0,0 +1,46 @@
+package miniJava.CodeGeneration;
+
+import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.Reg64;
+
+// Where the code generator keeps intermediate values while evaluating expressions
+// Visiting an expression pushes its value, visiting a reference pushes the address it refers to
+// Registers returned by pop/popAddress/load/allocate belong to the caller until pushed back or released
+// Between statements the stack is empty, so nothing is live across jumps
+public abstract class OperandStack {
+    protected final InstructionList asm;
+
+    protected OperandStack(InstructionList asm) {
+        this.asm = asm;
+    }
+
+    // Value in reg becomes the top of the stack
+    public abstract void push(Reg64 reg);
+    public abstract void pushImmediate(int value);
+    // Address base+disp becomes the top of the stack, a null base is an offset into .bss
+    public abstract void pushAddress(Reg64 base, int disp);
+    // Value stored at address becomes the top of the stack, releases the address
+    public abstract void pushValueAt(Address address);
+
+    // Removes the top value and returns a register holding it, preferred is only a hint
+    public abstract Reg64 pop(Reg64 preferred);
+    // Removes the top value into exactly the target register
+    public abstract void popInto(Reg64 target);
+    // Removes and returns the top value if it is a known constant, otherwise leaves the stack alone
+    public abstract Integer popImmediate();
+    // Removes the top address
+    public abstract Address popAddress(Reg64 preferred);
+
+    // Loads the value at address into a register, releases the address
+    public abstract Reg64 load(Address address, Reg64 preferred);
+    // A register the caller may use as a temporary
+    public abstract Reg64 allocate(Reg64 preferred);
+    public abstract void release(Reg64 reg);
+
+    // Puts every value on the machine stack in order, needed before calls and syscalls which clobber registers
+    public abstract void flush();
+    // Drops count values that a call consumed from the machine stack
+    public abstract void discard(int count);
+    // The single value on the stack becomes a local variable slot on the machine stack
+    public abstract void commitToFrame();
+}
@@ -0,0 +1,504 @@
+package miniJava.CodeGeneration;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import miniJava.CodeGeneration.x64.Instruction;
+import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.ModRMSIB;
+import miniJava.CodeGeneration.x64.Reg;
+import miniJava.CodeGeneration.x64.Reg64;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+// Rewrites short windows of generated code before calls are patched and addresses become final
+// Mostly removes the stack traffic of the expression stack machine:
+//   push X; pop R                   ->  mov R,X            (or nothing when X is R)
+//   push X; <moves>; pop R          ->  mov R,X; <moves>   when the moves do not touch R or X
+//   lea R,[m]; mov S,[R+d]          ->  mov S,[m+d]        when R is dead afterwards (same for push/store/lea)
+//   lea R,[m]; mov S,R              ->  lea S,[m]          when R is dead afterwards
+//   pop R; pop R                    ->  add rsp,16         when R and the flags are dead afterwards
+//   jmp next                        ->  nothing
+// Instructions are replaced in place and deleted ones left as holes, so jump targets and method entries
+// keep their original index until the code is rebuilt and every jump is resolved again
+public class PeepholeOptimizer {
+    // How far ahead liveness is checked before giving up
+    private static final int SCAN_LIMIT = 16;
+    // Most moves allowed between a push and the pop it is paired with
+    private static final int MAX_MOVES_BETWEEN = 3;
+
+    private Instruction[] code;
+    private boolean[] label; // control can arrive here other than from the previous instruction
+    private Map<Integer, Integer> jumpTargets;
+    private int[] newIndex;
+
+    public PeepholeOptimizer(InstructionList asm, Collection<Integer> entryPoints) {
+        code = new Instruction[asm.getNumInstructions()];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = asm.get(i);
+        }
+        label = new boolean[code.length + 1];
+        jumpTargets = new HashMap<Integer, Integer>(asm.getJumpTargets());
+        for (int target : jumpTargets.values()) {
+            label[target] = true;
+        }
+        for (int entry : entryPoints) {
+            label[entry] = true;
+        }
+    }
+
+    // Returns the rewritten code as a new list, jumps resolved against the new addresses
+    public InstructionList optimize() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = next(-1); i < code.length; i = next(i)) {
+                changed |= rewrite(i);
+            }
+        }
+        return rebuild();
+    }
+
+    // Index in the optimized list of the instruction at oldIdx, or of the first one after it if it was removed
+    public int newIndex(int oldIdx) {
+        return newIndex[oldIdx];
+    }
+
+    public int getNumRemoved() {
+        return newIndex.length - 1 - newIndex[newIndex.length - 1];
+    }
+
+    private InstructionList rebuild() {
+        InstructionList result = new InstructionList();
+        newIndex = new int[code.length + 1];
+        int count = 0;
+        for (int i = 0; i < code.length; i++) {
+            newIndex[i] = count;
+            if (code[i] != null) {
+                result.add(code[i]);
+                count++;
+            }
+        }
+        newIndex[code.length] = count;
+
+        for (Map.Entry<Integer, Integer> jump : jumpTargets.entrySet()) {
+            result.patchJump(newIndex[jump.getKey()], newIndex[jump.getValue()]);
+        }
+        return result;
+    }
+
+    private int next(int i) {
+        i++;
+        while (i < code.length && code[i] == null) {
+            i++;
+        }
+        return i;
+    }
+
+    private void delete(int i) {
+        code[i] = null;
+        if (label[i]) {
+            // whoever jumped here now lands on the next instruction
+            label[i] = false;
+            label[next(i)] = true;
+        }
+    }
+
+    private boolean rewrite(int i) {
+        Instruction ins = code[i];
+        int j = next(i);
+        Instruction following = j < code.length && !label[j] ? code[j] : null;
+
+        if (ins instanceof Push && following instanceof Pop) {
+            return rewritePushPop(i, (Push) ins, j, (Pop) following);
+        }
+        if (ins instanceof Push) {
+            return rewritePushMovesPop(i, (Push) ins);
+        }
+        if (ins instanceof Lea && following != null) {
+            return rewriteLea(i, (Lea) ins, j, following);
+        }
+        if (ins instanceof Mov_rmr && isRegister(((Mov_rmr) ins).modrmsib)) {
+            // mov R,R
+            ModRMSIB m = ((Mov_rmr) ins).modrmsib;
+            if (m.getRegRM() == m.getRegR()) {
+                delete(i);
+                return true;
+            }
+        }
+        if (ins instanceof Pop && following instanceof Pop) {
+            Reg64 reg = ((Pop) ins).reg;
+            if (reg != null && reg != Reg64.RSP && reg == ((Pop) following).reg && isDead(j, reg) && flagsDead(j)) {
+                code[i] = new Add(new ModRMSIB(Reg64.RSP, true), 16);
+                delete(j);
+                return true;
+            }
+        }
+        if (isStackAdjust(ins) && following != null) {
+            int amount = ((Add) ins).imm;
+            if (following instanceof Pop) {
+                Reg64 reg = ((Pop) following).reg;
+                if (reg != null && reg != Reg64.RSP && isDead(j, reg) && flagsDead(j)) {
+                    code[i] = new Add(new ModRMSIB(Reg64.RSP, true), amount + 8);
+                    delete(j);
+                    return true;
+                }
+            } else if (isStackAdjust(following) && flagsDead(j)) {
+                code[i] = new Add(new ModRMSIB(Reg64.RSP, true), amount + ((Add) following).imm);
+                delete(j);
+                return true;
+            }
+        }
+        if ((ins instanceof Jmp || ins instanceof CondJmp) && jumpTargets.containsKey(i)) {
+            // jump to the instruction right after it
+            int target = jumpTargets.get(i);
+            if (code[target] == null) {
+                target = next(target);
+            }
+            if (target == j) {
+                jumpTargets.remove(i);
+                delete(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean rewritePushPop(int i, Push push, int j, Pop pop) {
+        if (pop.reg != null && pop.reg != Reg64.RSP) {
+            if (push.reg == pop.reg) {
+                delete(j);
+                delete(i);
+                return true;
+            }
+            Instruction move = moveInto(pop.reg, push);
+            if (move != null) {
+                code[i] = move;
+                delete(j);
+                return true;
+            }
+        } else if (pop.modrmsib != null && !usesRegister(pop.modrmsib, Reg64.RSP)) {
+            if (push.reg != null && push.reg != Reg64.RSP) {
+                code[i] = new Mov_rmr(withR(pop.modrmsib, 0, push.reg));
+                delete(j);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // push X; <moves>; pop R  ->  mov R,X; <moves>
+    private boolean rewritePushMovesPop(int i, Push push) {
+        EnumSet<Reg64> pushedRegs = EnumSet.noneOf(Reg64.class);
+        if (push.reg != null) {
+            pushedRegs.add(push.reg);
+        } else if (push.modrmsib != null) {
+            addMemoryRegisters(pushedRegs, push.modrmsib);
+        }
+
+        EnumSet<Reg64> movesUse = EnumSet.noneOf(Reg64.class);
+        EnumSet<Reg64> movesDefine = EnumSet.noneOf(Reg64.class);
+        int k = next(i);
+        for (int moves = 0; moves < MAX_MOVES_BETWEEN; moves++) {
+            if (k >= code.length || label[k]) {
+                return false;
+            }
+            Instruction ins = code[k];
+            Effect effect = effect(ins);
+            if (effect == null || ins instanceof Push || ins instanceof Pop || effect.writesMemory || effect.flags
+                    || effect.uses.contains(Reg64.RSP) || effect.defines.contains(Reg64.RSP)) {
+                return false;
+            }
+            movesUse.addAll(effect.uses);
+            movesDefine.addAll(effect.defines);
+            for (Reg64 reg : pushedRegs) {
+                if (movesDefine.contains(reg)) {
+                    return false;
+                }
+            }
+
+            k = next(k);
+            if (k < code.length && !label[k] && code[k] instanceof Pop && ((Pop) code[k]).reg != null) {
+                Reg64 target = ((Pop) code[k]).reg;
+                if (target == Reg64.RSP || movesUse.contains(target) || movesDefine.contains(target)) {
+                    return false;
+                }
+                Instruction move = moveInto(target, push);
+                if (move == null) {
+                    return false;
+                }
+                code[i] = move;
+                delete(k);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean rewriteLea(int i, Lea lea, int j, Instruction following) {
+        ModRMSIB address = lea.modrmsib;
+        Reg64 reg = (Reg64) address.getRegR();
+        if ((address.getRegDisp() == null && !address.isRipRelative()) || address.getRegIdx() != null) {
+            return false;
+        }
+
+        if (following instanceof Mov_rmr && isRegister(((Mov_rmr) following).modrmsib)) {
+            // lea R,[m]; mov S,R
+            ModRMSIB m = ((Mov_rmr) following).modrmsib;
+            Reg64 target = (Reg64) m.getRegRM();
+            if (m.getRegR() == reg && (target == reg || isDead(j, reg))) {
+                code[i] = new Lea(withR(address, 0, target));
+                delete(j);
+                return true;
+            }
+            return false;
+        }
+
+        ModRMSIB m = memoryOperand(following);
+        if (m == null || m.getRegDisp() != reg || m.getRegIdx() == reg) {
+            return false;
+        }
+        if (address.isRipRelative() && m.getRegIdx() != null) {
+            // [rip+disp] takes no index register
+            return false;
+        }
+        if (following instanceof Mov_rrm || following instanceof Lea) {
+            Reg64 target = (Reg64) m.getRegR();
+            if (target != reg && !isDead(j, reg)) {
+                return false;
+            }
+            ModRMSIB combined = combine(address, m, target);
+            code[i] = following instanceof Mov_rrm ? new Mov_rrm(combined) : new Lea(combined);
+        } else if (following instanceof Push) {
+            if (!isDead(j, reg)) {
+                return false;
+            }
+            code[i] = new Push(combine(address, m, null));
+        } else if (following instanceof Mov_rmr) {
+            Reg64 value = (Reg64) m.getRegR();
+            if (value == reg || !isDead(j, reg)) {
+                return false;
+            }
+            code[i] = new Mov_rmr(combine(address, m, value));
+        } else {
+            return false;
+        }
+        delete(j);
+        return true;
+    }
+
+    // mov target,X for the operand of a push, null if there is no such move
+    private static Instruction moveInto(Reg64 target, Push push) {
+        if (push.reg != null) {
+            return push.reg == Reg64.RSP ? null : new Mov_rmr(new ModRMSIB(target, push.reg));
+        }
+        if (push.imm != null) {
+            return new Mov_rmi(new ModRMSIB(target, true), push.imm);
+        }
+        return new Mov_rrm(withR(push.modrmsib, 0, target));
+    }
+
+    // The address [base+disp] of a lea folded into a memory operand [R+idx*mult+d] that used R as its base
+    private static ModRMSIB combine(ModRMSIB address, ModRMSIB m, Reg64 r) {
+        Reg64 base = address.getRegDisp();
+        int total = address.getDisp() + m.getDisp();
+        if (address.isRipRelative()) {
+            boolean inRodata = address.isRodataRelative();
+            return r == null ? new ModRMSIB(total, inRodata) : new ModRMSIB(total, r, inRodata);
+        }
+        if (m.getRegIdx() != null) {
+            return r == null ? new ModRMSIB(base, m.getRegIdx(), m.getMult(), total) : new ModRMSIB(base, m.getRegIdx(), m.getMult(), total, r);
+        }
+        return r == null ? new ModRMSIB(base, total) : new ModRMSIB(base, total, r);
+    }
+
+    // Copy of the memory operand m with a different register operand
+    private static ModRMSIB withR(ModRMSIB m, int extraDisp, Reg64 r) {
+        if (m.isRipRelative()) {
+            return new ModRMSIB(m.getDisp() + extraDisp, r, m.isRodataRelative());
+        }
+        if (m.getRegIdx() != null) {
+            return new ModRMSIB(m.getRegDisp(), m.getRegIdx(), m.getMult(), m.getDisp() + extraDisp, r);
+        }
+        return new ModRMSIB(m.getRegDisp(), m.getDisp() + extraDisp, r);
+    }
+
+    private static ModRMSIB memoryOperand(Instruction ins) {
+        ModRMSIB m = null;
+        if (ins instanceof Mov_rrm) {
+            m = ((Mov_rrm) ins).modrmsib;
+        } else if (ins instanceof Mov_rmr) {
+            m = ((Mov_rmr) ins).modrmsib;
+        } else if (ins instanceof Lea) {
+            m = ((Lea) ins).modrmsib;
+        } else if (ins instanceof Push) {
+            m = ((Push) ins).modrmsib;
+        }
+        return m != null && m.getRegDisp() != null ? m : null;
+    }
+
+    private static boolean isStackAdjust(Instruction ins) {
+        if (!(ins instanceof Add) || ((Add) ins).imm == null) {
+            return false;
+        }
+        ModRMSIB m = ((Add) ins).modrmsib;
+        return isRegister(m) && m.getRegRM() == Reg64.RSP;
+    }
+
+    private static boolean isRegister(ModRMSIB m) {
+        return m.getRegDisp() == null && m.getRegIdx() == null && m.getRegRM() != null;
+    }
+
+    private static boolean usesRegister(ModRMSIB m, Reg64 reg) {
+        return m.getRegDisp() == reg || m.getRegIdx() == reg;
+    }
+
+    private static void addMemoryRegisters(EnumSet<Reg64> regs, ModRMSIB m) {
+        if (m.getRegDisp() != null) {
+            regs.add(m.getRegDisp());
+        }
+        if (m.getRegIdx() != null) {
+            regs.add(m.getRegIdx());
+        }
+    }
+
+    private static void addRegister(EnumSet<Reg64> regs, Reg r) {
+        if (r instanceof Reg64) {
+            regs.add((Reg64) r);
+        }
+    }
+
+    // Whether the value in reg after instruction i is never read
+    private boolean isDead(int i, Reg64 reg) {
+        int k = next(i);
+        for (int steps = 0; steps < SCAN_LIMIT && k < code.length; steps++, k = next(k)) {
+            Instruction ins = code[k];
+            if (ins instanceof Call) {
+                // arguments are passed on the stack, the callee only relies on these and an indirect call its target
+                ModRMSIB target = ((Call) ins).modrmsib;
+                if (target != null && (isRegister(target) ? target.getRegRM() == reg : usesRegister(target, reg))) {
+                    return false;
+                }
+                return reg != Reg64.RSP && reg != Reg64.RBP;
+            }
+            if (ins instanceof Ret) {
+                return reg != Reg64.RAX && reg != Reg64.RSP && reg != Reg64.RBP;
+            }
+            Effect effect = effect(ins);
+            if (effect == null || effect.uses.contains(reg)) {
+                return false;
+            }
+            if (effect.defines.contains(reg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether the flags after instruction i are never read
+    private boolean flagsDead(int i) {
+        int k = next(i);
+        for (int steps = 0; steps < SCAN_LIMIT && k < code.length; steps++, k = next(k)) {
+            Instruction ins = code[k];
+            if (ins instanceof Call || ins instanceof Ret) {
+                return true;
+            }
+            Effect effect = effect(ins);
+            if (effect == null) {
+                return false;
+            }
+            if (effect.flags) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // What an instruction reads and overwrites, flags is set when it overwrites the flags
+    private static class Effect {
+        EnumSet<Reg64> uses = EnumSet.noneOf(Reg64.class);
+        EnumSet<Reg64> defines = EnumSet.noneOf(Reg64.class);
+        boolean writesMemory = false;
+        boolean flags = false;
+    }
+
+    // null for instructions this pass does not model, which are then treated as reading everything
+    private static Effect effect(Instruction ins) {
+        Effect e = new Effect();
+        if (ins instanceof Push) {
+            Push push = (Push) ins;
+            e.uses.add(Reg64.RSP);
+            e.defines.add(Reg64.RSP);
+            e.writesMemory = true;
+            if (push.reg != null) {
+                e.uses.add(push.reg);
+            } else if (push.modrmsib != null) {
+                addMemoryRegisters(e.uses, push.modrmsib);
+            }
+        } else if (ins instanceof Pop) {
+            Pop pop = (Pop) ins;
+            e.uses.add(Reg64.RSP);
+            e.defines.add(Reg64.RSP);
+            if (pop.reg != null) {
+                e.defines.add(pop.reg);
+            } else {
+                addMemoryRegisters(e.uses, pop.modrmsib);
+                e.writesMemory = true;
+            }
+        } else if (ins instanceof Lea) {
+            addMemoryRegisters(e.uses, ((Lea) ins).modrmsib);
+            addRegister(e.defines, ((Lea) ins).modrmsib.getRegR());
+        } else if (ins instanceof Mov_rrm) {
+            ModRMSIB m = ((Mov_rrm) ins).modrmsib;
+            if (isRegister(m)) {
+                addRegister(e.uses, m.getRegRM());
+            } else {
+                addMemoryRegisters(e.uses, m);
+            }
+            addRegister(e.defines, m.getRegR());
+        } else if (ins instanceof Mov_rmr) {
+            ModRMSIB m = ((Mov_rmr) ins).modrmsib;
+            addRegister(e.uses, m.getRegR());
+            if (isRegister(m)) {
+                addRegister(e.defines, m.getRegRM());
+            } else {
+                addMemoryRegisters(e.uses, m);
+                e.writesMemory = true;
+            }
+        } else if (ins instanceof Mov_rmi) {
+            ModRMSIB m = ((Mov_rmi) ins).modrmsib;
+            if (isRegister(m)) {
+                addRegister(e.defines, m.getRegRM());
+            } else {
+                addMemoryRegisters(e.uses, m);
+                e.writesMemory = true;
+            }
+        } else if (ins instanceof SimpleMathInstruction) {
+            SimpleMathInstruction math = (SimpleMathInstruction) ins;
+            ModRMSIB m = math.modrmsib;
+            boolean compare = ins instanceof Cmp;
+            e.flags = true;
+            if (math.imm == null) {
+                addRegister(e.uses, m.getRegR());
+            }
+            if (isRegister(m)) {
+                if (ins instanceof Xor && math.imm == null && m.getRegRM() == m.getRegR()) {
+                    // xor R,R only zeroes R
+                    e.uses.clear();
+                } else {
+                    addRegister(e.uses, m.getRegRM());
+                }
+                if (!compare) {
+                    addRegister(e.defines, m.getRegRM());
+                }
+            } else {
+                addMemoryRegisters(e.uses, m);
+                e.writesMemory = !compare;
+            }
+        } else {
+            return null;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,249 @@
+package miniJava.CodeGeneration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import miniJava.CodeGeneration.x64.InstructionList;
+import miniJava.CodeGeneration.x64.ModRMSIB;
+import miniJava.CodeGeneration.x64.Reg64;
+import miniJava.CodeGeneration.x64.ISA.*;
+
+// Keeps expression temporaries in registers, used by --regalloc
+// Temporaries are allocated in evaluation order and each one dies when it is popped, so linear scan over
+// their live intervals reduces to a stack: the oldest live value is spilled when the pool runs out
+// Constants and addresses are kept symbolic until needed so they can fold into instruction operands
+//
+// Spilled entries always form the bottom of the stack, in order, so the machine stack stays consistent
+// RAX, RCX and RDX are left to the code generator for idiv/setcc/return values, RBX is the spill scratch
+// and RBP is the frame pointer
+public class RegisterOperandStack extends OperandStack {
+    private static final Reg64[] pool = {
+        Reg64.RSI, Reg64.RDI, Reg64.R8, Reg64.R9, Reg64.R10, Reg64.R11, Reg64.R12, Reg64.R13, Reg64.R14, Reg64.R15
+    };
+
+    private enum Kind { REG, IMM, ADDR, SPILLED }
+
+    private static class Entry {
+        Kind kind;
+        Reg64 reg; // REG: holder, ADDR: base, null for .bss
+        int value; // IMM: constant, ADDR: displacement
+
+        Entry(Kind kind, Reg64 reg, int value) {
+            this.kind = kind;
+            this.reg = reg;
+            this.value = value;
+        }
+    }
+
+    private List<Entry> entries = new ArrayList<Entry>();
+    private int spilledCount = 0;
+    private boolean[] inUse = new boolean[16];
+
+    public RegisterOperandStack(InstructionList asm) {
+        super(asm);
+    }
+
+    private static boolean isPool(Reg64 reg) {
+        for (Reg64 r : pool) {
+            if (r == reg) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void push(Reg64 reg) {
+        if (!isPool(reg)) {
+            Reg64 copy = allocate(null);
+            asm.add(new Mov_rmr(new ModRMSIB(copy, reg)));
+            reg = copy;
+        }
+        entries.add(new Entry(Kind.REG, reg, 0));
+    }
+
+    @Override
+    public void pushImmediate(int value) {
+        entries.add(new Entry(Kind.IMM, null, value));
+    }
+
+    @Override
+    public void pushAddress(Reg64 base, int disp) {
+        if (base != null && base != Reg64.RBP && !isPool(base)) {
+            Reg64 copy = allocate(null);
+            asm.add(new Mov_rmr(new ModRMSIB(copy, base)));
+            base = copy;
+        }
+        entries.add(new Entry(Kind.ADDR, base, disp));
+    }
+
+    @Override
+    public void pushValueAt(Address address) {
+        push(load(address, null));
+    }
+
+    @Override
+    public Reg64 pop(Reg64 preferred) {
+        Entry top = removeTop();
+        switch (top.kind) {
+            case REG:
+                return top.reg;
+            case IMM: {
+                Reg64 reg = allocate(preferred);
+                asm.add(new Mov_rmi(new ModRMSIB(reg, true), top.value));
+                return reg;
+            }
+            case ADDR: {
+                Reg64 reg = isPool(top.reg) ? top.reg : allocate(preferred);
+                if (reg != top.reg || top.value != 0) {
+                    asm.add(new Lea(new Address(top.reg, top.value).mem(reg)));
+                }
+                return reg;
+            }
+            default: {
+                Reg64 reg = allocate(preferred);
+                asm.add(new Pop(reg));
+                return reg;
+            }
+        }
+    }
+
+    @Override
+    public void popInto(Reg64 target) {
+        Entry top = entries.get(entries.size() - 1);
+        if (top.kind == Kind.SPILLED) {
+            removeTop();
+            asm.add(new Pop(target));
+            return;
+        }
+        if (top.kind == Kind.IMM) {
+            removeTop();
+            asm.add(new Mov_rmi(new ModRMSIB(target, true), top.value));
+            return;
+        }
+        Reg64 reg = pop(null);
+        asm.add(new Mov_rmr(new ModRMSIB(target, reg)));
+        release(reg);
+    }
+
+    @Override
+    public Integer popImmediate() {
+        Entry top = entries.get(entries.size() - 1);
+        if (top.kind != Kind.IMM) {
+            return null;
+        }
+        removeTop();
+        return top.value;
+    }
+
+    @Override
+    public Address popAddress(Reg64 preferred) {
+        Entry top = entries.get(entries.size() - 1);
+        if (top.kind == Kind.ADDR) {
+            removeTop();
+            return new Address(top.reg, top.value);
+        }
+        return new Address(pop(preferred), 0);
+    }
+
+    @Override
+    public Reg64 load(Address address, Reg64 preferred) {
+        Reg64 reg = isPool(address.base) ? address.base : allocate(preferred);
+        asm.add(new Mov_rrm(address.mem(reg)));
+        return reg;
+    }
+
+    @Override
+    public Reg64 allocate(Reg64 preferred) {
+        if (preferred != null && isPool(preferred) && !inUse[preferred.getIdx()]) {
+            inUse[preferred.getIdx()] = true;
+            return preferred;
+        }
+        while (true) {
+            for (Reg64 reg : pool) {
+                if (!inUse[reg.getIdx()]) {
+                    inUse[reg.getIdx()] = true;
+                    return reg;
+                }
+            }
+            spillOldest();
+        }
+    }
+
+    @Override
+    public void release(Reg64 reg) {
+        if (reg != null && isPool(reg)) {
+            inUse[reg.getIdx()] = false;
+        }
+    }
+
+    @Override
+    public void flush() {
+        while (spilledCount < entries.size()) {
+            spillOldest();
+        }
+    }
+
+    @Override
+    public void discard(int count) {
+        for (int i = 0; i < count; i++) {
+            if (removeTop().kind != Kind.SPILLED) {
+                throw new IllegalStateException("Discarded operand was not on the machine stack");
+            }
+        }
+        if (count > 0) {
+            asm.add(new Add(new ModRMSIB(Reg64.RSP, true), 8*count));
+        }
+    }
+
+    @Override
+    public void commitToFrame() {
+        if (entries.size() != 1) {
+            throw new IllegalStateException(String.format("Expected one operand for a local variable, found %d", entries.size()));
+        }
+        flush();
+        removeTop();
+    }
+
+    private Entry removeTop() {
+        Entry top = entries.remove(entries.size() - 1);
+        if (top.kind == Kind.SPILLED) {
+            spilledCount--;
+        }
+        return top;
+    }
+
+    // Moves the lowest entry still held in registers onto the machine stack
+    private void spillOldest() {
+        if (spilledCount == entries.size()) {
+            throw new IllegalStateException("Out of registers with no operand left to spill");
+        }
+        Entry entry = entries.get(spilledCount);
+        switch (entry.kind) {
+            case REG:
+                asm.add(new Push(entry.reg));
+                release(entry.reg);
+                break;
+            case IMM:
+                asm.add(new Push(entry.value));
+                break;
+            case ADDR:
+                if (isPool(entry.reg)) {
+                    if (entry.value != 0) {
+                        asm.add(new Lea(new ModRMSIB(entry.reg, entry.value, entry.reg)));
+                    }
+                    asm.add(new Push(entry.reg));
+                    release(entry.reg);
+                } else {
+                    asm.add(new Lea(new Address(entry.reg, entry.value).mem(Reg64.RBX)));
+                    asm.add(new Push(Reg64.RBX));
+                }
+                break;
+            default:
+                break;
+        }
+        entry.kind = Kind.SPILLED;
+        entry.reg = null;
+        spilledCount++;
+    }
+}
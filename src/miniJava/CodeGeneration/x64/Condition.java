@@ -8,7 +8,12 @@ public enum Condition {
 	LT,
 	LTE,
 	GT,
-	GTE;
+	GTE,
+	// unsigned
+	B,
+	BE,
+	A,
+	AE;
 	
 	public static Condition getOppositeCond(Operator op) {
 		switch( op.spelling ) {
@@ -5,6 +5,9 @@ import miniJava.CodeGeneration.x64.ModRMSIB;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Call extends Instruction {
+	// operand of an indirect call, null for a direct one
+	public ModRMSIB modrmsib = null;
+	
 	public Call(int offset) {
 		opcodeBytes.write(0xE8);
 		x64.writeInt(immBytes,offset);
@@ -16,6 +19,7 @@ public class Call extends Instruction {
 	}
 	
 	public Call(ModRMSIB modrmsib) {
+		this.modrmsib = modrmsib;
 		opcodeBytes.write(0xFF);
 		
 		modrmsib.SetRegR(x64.mod543ToReg(2));
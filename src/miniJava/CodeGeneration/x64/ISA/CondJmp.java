@@ -5,18 +5,23 @@ import miniJava.CodeGeneration.x64.Instruction;
 import miniJava.CodeGeneration.x64.x64;
 
 public class CondJmp extends Instruction {
+	public Condition cond;
+	
 	public CondJmp(Condition cond, byte rel8) {
+		this.cond = cond;
 		opcodeBytes.write(getImm32Opcode(cond) - 0x10);
 		immBytes.write(rel8);
 	}
 	
 	public CondJmp(Condition cond, int rel32) {
+		this.cond = cond;
 		opcodeBytes.write(0x0F);
 		opcodeBytes.write(getImm32Opcode(cond));
 		x64.writeInt(immBytes,rel32);
 	}
 	
 	public CondJmp(Condition cond, int curAddr, int destAddr, boolean asByte) {
+		this.cond = cond;
 		if( asByte ) {
 			opcodeBytes.write( getImm32Opcode(cond) - 0x10 );
 			immBytes.write( destAddr - curAddr - 2 );
@@ -31,6 +36,8 @@ public class CondJmp extends Instruction {
 	// 84, 85: jz, jnz   / je, jne
 	// 8C, 8D: jl, jnl   / jnge, jge
 	// 8E, 8F: jle, jnle / jng, jg
+	// 82, 83: jb, jae   / jc, jnc
+	// 86, 87: jbe, ja   / jna, jnbe
 	// imm8: subtract above by 0x10
 	private int getImm32Opcode(Condition cond) {
 		switch(cond) {
@@ -40,6 +47,10 @@ public class CondJmp extends Instruction {
 		case GTE: return 0x8D;
 		case LTE: return 0x8E;
 		case GT: return 0x8F;
+		case B: return 0x82;
+		case AE: return 0x83;
+		case BE: return 0x86;
+		case A: return 0x87;
 		}
 		
 		throw new IllegalArgumentException("Illegal operator: " + cond);
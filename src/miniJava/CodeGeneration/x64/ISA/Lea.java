@@ -5,7 +5,10 @@ import miniJava.CodeGeneration.x64.ModRMSIB;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Lea extends Instruction {
+	public ModRMSIB modrmsib;
+	
 	public Lea(ModRMSIB modrmsib) {
+		this.modrmsib = modrmsib;
 		opcodeBytes.write(0x8D);
 		byte[] rmsib = modrmsib.getBytes();
 		importREX(modrmsib);
@@ -5,8 +5,13 @@ import miniJava.CodeGeneration.x64.ModRMSIB;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Mov_rmi extends Instruction {
+	public ModRMSIB modrmsib;
+	public int imm;
+	
 	// rm,imm32 variants
 	public Mov_rmi(ModRMSIB modrmsib, int imm) {
+		this.modrmsib = modrmsib;
+		this.imm = imm;
 		modrmsib.SetRegR(x64.mod543ToReg(0));
 		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
@@ -24,4 +29,10 @@ public class Mov_rmi extends Instruction {
 		x64.writeBytes(immBytes,modrmsibBytes);
 		x64.writeInt(immBytes,imm);
 	}
+	
+	// manually specify rex, a memory operand has no register to imply the operand size
+	public Mov_rmi(ModRMSIB modrmsib, int imm, boolean rexW) {
+		this(modrmsib,imm);
+		this.rexW = rexW;
+	}
 }
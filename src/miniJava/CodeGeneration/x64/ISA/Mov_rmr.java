@@ -5,8 +5,11 @@ import miniJava.CodeGeneration.x64.ModRMSIB;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Mov_rmr extends Instruction {
+	public ModRMSIB modrmsib;
+	
 	// rm,r variants
 	public Mov_rmr(ModRMSIB modrmsib) {
+		this.modrmsib = modrmsib;
 		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
 		opcodeBytes.write(0x89);
@@ -5,8 +5,11 @@ import miniJava.CodeGeneration.x64.ModRMSIB;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Mov_rrm extends Instruction {
+	public ModRMSIB modrmsib;
+	
 	// r,rm variants
 	public Mov_rrm(ModRMSIB modrmsib) {
+		this.modrmsib = modrmsib;
 		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
 		opcodeBytes.write(0x8B);
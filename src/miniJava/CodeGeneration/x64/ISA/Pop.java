@@ -6,7 +6,12 @@ import miniJava.CodeGeneration.x64.Reg64;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Pop extends Instruction {
+	// operands, only the one matching the constructor used is set
+	public Reg64 reg = null;
+	public ModRMSIB modrmsib = null;
+	
 	public Pop(Reg64 r) {
+		this.reg = r;
 		// COMPLETED: first, check if the Reg64 is R8-R15, if it is, set one of rexB,rexW,rexR,rexX to true (which one?)
 		// COMPLETED: second, find the opcode for pop r, where r is a plain 64-bit register
 		// NOTE: x64.getIdx(r) will return a 0-7 index, whereas r.getIdx() returns an index from 0-15
@@ -17,6 +22,7 @@ public class Pop extends Instruction {
 	}
 	
 	public Pop(ModRMSIB modrmsib) {
+		this.modrmsib = modrmsib;
 		opcodeBytes.write(0x8F);
 		modrmsib.SetRegR(x64.mod543ToReg(0));
 		byte[] rmsib = modrmsib.getBytes();
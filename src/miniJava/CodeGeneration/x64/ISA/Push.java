@@ -6,13 +6,20 @@ import miniJava.CodeGeneration.x64.Reg64;
 import miniJava.CodeGeneration.x64.x64;
 
 public class Push extends Instruction {
+	// operands, only the one matching the constructor used is set
+	public Integer imm = null;
+	public Reg64 reg = null;
+	public ModRMSIB modrmsib = null;
+	
 	public Push(int imm) {
+		this.imm = imm;
 		// COMPLETED: how can we do a push imm32?
         opcodeBytes.write(0x68);
         x64.writeInt(immBytes, imm);
 	}
 	
 	public Push(Reg64 reg) {
+		this.reg = reg;
 		// no need to set rexW, push is always r64 (cannot access ecx/r9d)
 		if( reg.getIdx() > 7 )
 			rexB = true;
@@ -20,6 +27,7 @@ public class Push extends Instruction {
 	}
 	
 	public Push(ModRMSIB modrmsib) {
+		this.modrmsib = modrmsib;
 		// no need to set rexW, push is always r64 (cannot access ecx/r9d)
 		opcodeBytes.write(0xFF);
 		
@@ -14,6 +14,10 @@ public class SetCond extends Instruction {
 		case GTE: opcodeBytes.write(0x9D); break;
 		case LTE: opcodeBytes.write(0x9E); break;
 		case GT: opcodeBytes.write(0x9F); break;
+		case B: opcodeBytes.write(0x92); break;
+		case AE: opcodeBytes.write(0x93); break;
+		case BE: opcodeBytes.write(0x96); break;
+		case A: opcodeBytes.write(0x97); break;
 		};
 		
 		immBytes.write(0xC0 + dest.idx);
@@ -12,8 +12,13 @@ import java.util.HashMap;
 public abstract class SimpleMathInstruction extends Instruction {
 	abstract protected SimpleMathOp _thisOp();
 	
+	// operands, imm is null for the rm,r variants
+	public ModRMSIB modrmsib;
+	public Integer imm = null;
+	
 	// rm,r variants
 	public SimpleMathInstruction(ModRMSIB modrmsib) {
+		this.modrmsib = modrmsib;
 		byte[] modrmsibBytes = modrmsib.getBytes();
 		importREX(modrmsib);
 		opcodeBytes.write(_RegRegOpcode.get(_thisOp()));
@@ -22,6 +27,8 @@ public abstract class SimpleMathInstruction extends Instruction {
 	
 	// do we have an immediate afterwards?
 	public SimpleMathInstruction(ModRMSIB modrmsib, int imm) {
+		this.modrmsib = modrmsib;
+		this.imm = imm;
 		//rexW = true;
 		modrmsib.SetRegR(x64.mod543ToReg(_thisOp().idx));
 		byte[] modrmsibBytes = modrmsib.getBytes();
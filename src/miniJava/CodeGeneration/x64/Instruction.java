@@ -12,6 +12,7 @@ public abstract class Instruction {
 	public int startAddress;
 	public int listIdx;
 	private int _size = -1;
+	private ModRMSIB ripOperand = null; // [rip+disp] operand, its modrm byte starts immBytes
 	
 	// caching could be done better here, instructions are "kinda" immutable
 	public int size() {
@@ -45,5 +46,24 @@ public abstract class Instruction {
 		rexR = rexR || rm64.getRexR();
 		rexX = rexX || rm64.getRexX();
 		rexB = rexB || rm64.getRexB();
+		if( rm64.isRipRelative() )
+			ripOperand = rm64;
+	}
+	
+	// Writes the displacement of a [rip+disp] operand now that startAddress is final
+	// bssAddress and rodataAddress are where .bss and .rodata start relative to the start of the code,
+	// the size never changes
+	public void resolveRip(int bssAddress, int rodataAddress) {
+		if( ripOperand == null )
+			return;
+		int base = ripOperand.isRodataRelative() ? rodataAddress : bssAddress;
+		int disp = base + ripOperand.getDisp() - (startAddress + size());
+		byte[] bytes = immBytes.toByteArray();
+		for( int i = 1; i <= 4; ++i ) {
+			bytes[i] = (byte)(disp & 0xFF);
+			disp >>= 8;
+		}
+		immBytes.reset();
+		x64.writeBytes(immBytes, bytes);
 	}
 }
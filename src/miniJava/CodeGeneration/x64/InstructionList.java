@@ -1,14 +1,21 @@
 package miniJava.CodeGeneration.x64;
 
 import java.util.List;
+import java.util.Map;
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+
+import miniJava.CodeGeneration.x64.ISA.CondJmp;
+import miniJava.CodeGeneration.x64.ISA.Jmp;
 
 public class InstructionList {
 	private List<Instruction> _instructions = new ArrayList<Instruction>();
 	private int _currentSize = 0;
 	private int _currentIdx = 0;
 	private int _markStart = -1;
+	private int _numPatches = 0;
+	private Map<Integer,Integer> _jumpTargets = new HashMap<Integer,Integer>(); // jump index -> target index
 	
 	public int getSize() {
 		return _currentSize;
@@ -17,6 +24,10 @@ public class InstructionList {
     public int getNumInstructions() {
         return _currentIdx;
     }
+
+    public int getNumPatches() {
+        return _numPatches;
+    }
 	
 	public int add(Instruction ins) {
 		ins.startAddress = _currentSize;
@@ -62,6 +73,36 @@ public class InstructionList {
 		newIns.startAddress = old.startAddress;
 		newIns.listIdx = idx;
 		_instructions.set(idx, newIns);
+		_numPatches++;
+	}
+	
+	// Points the jump at idx to the instruction at targetIdx, or to the end of the list
+	// The target is remembered by index so the jump can be resolved again if instructions move
+	public void patchJump(int idx, int targetIdx) {
+		Instruction jump = _instructions.get(idx);
+		_jumpTargets.put(idx, targetIdx);
+		patch(idx, retarget(jump, jump.startAddress, addressOf(targetIdx)));
+	}
+	
+	public Map<Integer,Integer> getJumpTargets() {
+		return _jumpTargets;
+	}
+	
+	public int addressOf(int idx) {
+		return idx < _currentIdx ? _instructions.get(idx).startAddress : _currentSize;
+	}
+	
+	// Same kind of jump, always 32-bit so patching never changes its size
+	private static Instruction retarget(Instruction jump, int curAddr, int destAddr) {
+		if( jump instanceof CondJmp )
+			return new CondJmp(((CondJmp)jump).cond, curAddr, destAddr, false);
+		return new Jmp(curAddr, destAddr, false);
+	}
+	
+	// Points every [rip+disp] operand into .bss or .rodata, both addresses are relative to the start of the code
+	public void resolveRipOperands(int bssAddress, int rodataAddress) {
+		for( Instruction ins : _instructions )
+			ins.resolveRip(bssAddress, rodataAddress);
 	}
 	
 	public byte[] getBytes() {
@@ -28,7 +28,9 @@ public class ModRMSIB {
 	public byte[] getBytes() {
 		_b = new ByteArrayOutputStream();
 		// construct
-		if( rdisp != null && ridx != null && r != null )
+		if( ripRelative && r != null )
+			MakeRip(disp,r);
+		else if( rdisp != null && ridx != null && r != null )
 			Make(rdisp,ridx,mult,disp,r);
 		else if( ridx != null && r != null )
 			Make(ridx,mult,disp,r);
@@ -46,6 +48,8 @@ public class ModRMSIB {
 	private Reg64 rdisp = null, ridx = null;
 	private Reg rm = null, r = null;
 	private int disp = 0, mult = 0;
+	private boolean ripRelative = false;
+	private boolean rodataRelative = false; // rip operand points into .rodata instead of .bss
 	
 	// [rdisp+ridx*mult+disp],r32/64
 	public ModRMSIB(Reg64 rdisp, Reg64 ridx, int mult, int disp, Reg r) {
@@ -79,6 +83,32 @@ public class ModRMSIB {
 		SetDisp(disp);
 	}
 	
+	// [rip+disp],r where disp is an offset into .bss
+	// The real displacement is written by Instruction.resolveRip once addresses are final
+	public ModRMSIB(int bssOffset, Reg r) {
+		this(bssOffset);
+		SetRegR(r);
+	}
+	
+	// r will be set by some instruction to a mod543
+	// [rip+disp]
+	public ModRMSIB(int bssOffset) {
+		ripRelative = true;
+		SetDisp(bssOffset);
+	}
+	
+	// [rip+disp],r where disp is an offset into .rodata when inRodata is set, .bss otherwise
+	public ModRMSIB(int offset, Reg r, boolean inRodata) {
+		this(offset, inRodata);
+		SetRegR(r);
+	}
+	
+	// [rip+disp]
+	public ModRMSIB(int offset, boolean inRodata) {
+		this(offset);
+		rodataRelative = inRodata;
+	}
+	
 	// rm64,r64
 	public ModRMSIB(Reg64 rm, Reg r) {
 		SetRegRM(rm);
@@ -93,6 +123,39 @@ public class ModRMSIB {
 			SetRegR(r_or_rm);
 	}
 	
+	// operand accessors, null/0 when the operand is not part of this form
+	public Reg64 getRegDisp() {
+		return rdisp;
+	}
+	
+	public Reg64 getRegIdx() {
+		return ridx;
+	}
+	
+	public int getDisp() {
+		return disp;
+	}
+	
+	public int getMult() {
+		return mult;
+	}
+	
+	public Reg getRegRM() {
+		return rm;
+	}
+	
+	public Reg getRegR() {
+		return r;
+	}
+	
+	public boolean isRipRelative() {
+		return ripRelative;
+	}
+	
+	public boolean isRodataRelative() {
+		return rodataRelative;
+	}
+	
 	public int getRMSize() {
 		if( rm == null ) return 0;
 		return rm.size();
@@ -245,6 +308,12 @@ public class ModRMSIB {
         }
 	}
 	
+	// [rip+disp],r, mod 00 with rm 101 and no SIB
+	private void MakeRip( int disp, Reg r ) {
+		_b.write( ( getIdx(r) << 3 ) | 5 );
+		writeInt(_b,disp);
+	}
+	
 	// [disp],r
 	private void Make( int disp, Reg r ) {
 		_b.write( ( getIdx(r) << 3 ) | 4 );
@@ -0,0 +1,183 @@
+package miniJava;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import miniJava.Benchmark.CorpusGenerator;
+import miniJava.CodeGeneration.CodeGenerator;
+import miniJava.SyntacticAnalyzer.Scanner;
+import miniJava.SyntacticAnalyzer.Symbols;
+
+// Long lived compiler process, so requests after the first few run on JIT compiled code
+// Usage: java miniJava.Compiler [--regalloc] --server [--socket path] [--warmup n]
+// Without --socket requests are read from stdin and responses written to stdout, otherwise every
+// connection to the Unix domain socket is served on its own thread with the same protocol
+//
+// Protocol, all integers big endian, any number of requests per stream:
+//   request:  int length, length bytes of miniJava source
+//   response: int status (0 = ELF image, 1 = diagnostics), int length, length bytes of payload
+// Diagnostics are the lines the command line compiler would print, UTF-8 and newline separated
+// Identifiers interned for a request are dropped once the server is idle and the table has grown large, see Symbols
+public class CompileServer {
+    public static final int STATUS_ELF = 0;
+    public static final int STATUS_DIAGNOSTICS = 1;
+
+    private Path socketPath = null;
+    private int warmupIterations = 20;
+    private CompilerOptions options;
+
+    private AtomicLong requestCount = new AtomicLong();
+    private AtomicLong totalNanos = new AtomicLong();
+
+    public static int run(String[] args, CompilerOptions options) throws IOException {
+        CompileServer server = new CompileServer();
+        server.options = options;
+        // args[0] is --server
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length) {
+                server.socketPath = Paths.get(args[++i]);
+            } else if (args[i].equals("--warmup") && i + 1 < args.length) {
+                server.warmupIterations = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println(String.format("Unknown argument %s", args[i]));
+                return 1;
+            }
+        }
+
+        server.warmUp();
+        if (server.socketPath == null) {
+            server.serve(System.in, System.out);
+        } else {
+            server.listen();
+        }
+        return 0;
+    }
+
+    // Compile a generated program a few times so the first real request does not pay for interpretation
+    private void warmUp() throws IOException {
+        byte[] source = new CorpusGenerator(0).generate(16 << 10).getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < warmupIterations; i++) {
+            compile(source, source.length, new ArrayList<String>());
+        }
+    }
+
+    private void listen() throws IOException {
+        Files.deleteIfExists(socketPath);
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+            socketPath.toFile().deleteOnExit();
+            System.err.println(String.format("Listening on %s", socketPath));
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                connections.submit(() -> {
+                    try (SocketChannel client = channel) {
+                        serve(Channels.newInputStream(client), Channels.newOutputStream(client));
+                    } catch (IOException e) {
+                        System.err.println(String.format("Connection failed: %s", e));
+                    }
+                });
+            }
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    // Serves requests until the stream ends, buffers are reused across requests of one stream
+    private void serve(InputStream rawIn, OutputStream rawOut) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(rawIn));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(rawOut));
+        byte[] source = new byte[64 << 10];
+        List<String> diagnostics = new ArrayList<String>();
+        long served = 0;
+        long servedNanos = 0;
+
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (length < 0) {
+                throw new IOException(String.format("Invalid request length %d", length));
+            }
+            if (length > source.length) {
+                source = new byte[Math.max(length, source.length * 2)];
+            }
+            in.readFully(source, 0, length);
+
+            long start = System.nanoTime();
+            diagnostics.clear();
+            byte[] elf = compile(source, length, diagnostics);
+            long elapsed = System.nanoTime() - start;
+            served++;
+            servedNanos += elapsed;
+
+            if (elf != null) {
+                out.writeInt(STATUS_ELF);
+                out.writeInt(elf.length);
+                out.write(elf);
+            } else {
+                byte[] text = String.join("\n", diagnostics).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(STATUS_DIAGNOSTICS);
+                out.writeInt(text.length);
+                out.write(text);
+            }
+            out.flush();
+        }
+
+        long total = requestCount.addAndGet(served);
+        long nanos = totalNanos.addAndGet(servedNanos);
+        if (served > 0) {
+            System.err.println(String.format("Served %d requests, mean %.1f us (%d requests, mean %.1f us since start)",
+                served, servedNanos / 1e3 / served, total, nanos / 1e3 / total));
+        }
+    }
+
+    // Returns the ELF image, or null after filling in diagnostics
+    private byte[] compile(byte[] source, int length, List<String> diagnostics) {
+        Symbols.beginCompilation();
+        try {
+            CodeGenerator codeGenerator = Compiler.generate(new Scanner(ByteBuffer.wrap(source, 0, length)), diagnostics, options, new CompileStats(false));
+            if (codeGenerator == null) {
+                return null;
+            }
+            byte[] elf = codeGenerator.makeElfBytes();
+            if (!codeGenerator.errorMessages.isEmpty()) {
+                diagnostics.add("Error");
+                diagnostics.addAll(codeGenerator.errorMessages);
+                return null;
+            }
+            return elf;
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            diagnostics.clear();
+            diagnostics.add("Error");
+            diagnostics.add(String.format("Internal compiler error: %s", e));
+            return null;
+        } finally {
+            Symbols.endCompilation();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package miniJava;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Wall time, CPU time and bytes allocated per compiler phase plus size counters, printed as JSON by --stats
+// All measurements are for the calling thread, a disabled instance ignores every call
+public class CompileStats {
+    private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final boolean enabled;
+    // Phase name to { wall ns, cpu ns, allocated bytes }, in the order phases ran
+    private Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+    private Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+    private String currentPhase = null;
+    private long wallStart;
+    private long cpuStart;
+    private long allocStart;
+
+    public CompileStats(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void begin(String phase) {
+        if (!enabled) {
+            return;
+        }
+        currentPhase = phase;
+        allocStart = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        cpuStart = threadBean.getCurrentThreadCpuTime();
+        wallStart = System.nanoTime();
+    }
+
+    public void end() {
+        if (!enabled || currentPhase == null) {
+            return;
+        }
+        long wall = System.nanoTime() - wallStart;
+        long cpu = threadBean.getCurrentThreadCpuTime() - cpuStart;
+        long alloc = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocStart;
+        phases.put(currentPhase, new long[] { wall, cpu, alloc });
+        currentPhase = null;
+    }
+
+    public void count(String name, long value) {
+        if (enabled) {
+            counts.put(name, value);
+        }
+    }
+
+    public String toJson(String file, List<String> diagnostics) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"file\": ").append(quote(file)).append(",\n");
+        json.append("  \"success\": ").append(diagnostics.isEmpty()).append(",\n");
+
+        json.append("  \"diagnostics\": [");
+        for (int i = 0; i < diagnostics.size(); i++) {
+            json.append(i == 0 ? "" : ", ").append(quote(diagnostics.get(i)));
+        }
+        json.append("],\n");
+
+        json.append("  \"phases\": {");
+        String separator = "\n";
+        long[] total = new long[3];
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            long[] values = phase.getValue();
+            json.append(separator).append("    ").append(quote(phase.getKey())).append(": ").append(phaseJson(values));
+            separator = ",\n";
+            for (int i = 0; i < total.length; i++) {
+                total[i] += values[i];
+            }
+        }
+        json.append(separator).append("    \"total\": ").append(phaseJson(total));
+        json.append("\n  },\n");
+
+        json.append("  \"counts\": {");
+        separator = "\n";
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            json.append(separator).append("    ").append(quote(count.getKey())).append(": ").append(count.getValue());
+            separator = ",\n";
+        }
+        json.append("\n  }\n");
+        json.append("}");
+        return json.toString();
+    }
+
+    private static String phaseJson(long[] values) {
+        return String.format("{ \"wall_ns\": %d, \"cpu_ns\": %d, \"alloc_bytes\": %d }", values[0], values[1], values[2]);
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c == '\n') {
+                quoted.append("\\n");
+            } else if (c == '\t') {
+                quoted.append("\\t");
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -1,19 +1,31 @@
 package miniJava;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import miniJava.AbstractSyntaxTrees.ASTDisplay;
+import miniJava.AbstractSyntaxTrees.ASTNodeCounter;
 import miniJava.AbstractSyntaxTrees.Package;
 import miniJava.CodeGeneration.CodeGenerator;
 import miniJava.ContextualAnalysis.ContextualAnalysisVisitor;
 import miniJava.ContextualAnalysis.Environment;
+import miniJava.Optimization.ConstantFolder;
+import miniJava.Optimization.DeadStatementEliminator;
+import miniJava.Optimization.Inliner;
+import miniJava.Optimization.RangeCheckEliminator;
 import miniJava.SyntacticAnalyzer.Parser;
 import miniJava.SyntacticAnalyzer.Scanner;
+import miniJava.SyntacticAnalyzer.TokenArray;
 
 public class Compiler {
-    public static void main(String[] args) throws FileNotFoundException, IOException {
+    public static void main(String[] args) throws IOException {
+        CompilerOptions options = new CompilerOptions();
+        args = CompilerOptions.parse(args, options);
+
         String filePath = null;
         if (args.length > 0) { filePath = args[0]; }
         if (filePath == null) {
@@ -21,47 +33,151 @@ public class Compiler {
             System.exit(1);
         }
 
-        FileInputStream fStream = null;
-        try {
-            fStream = new FileInputStream(filePath);
-            Scanner scanner = new Scanner(fStream);
-            Parser parser = new Parser(scanner);
-            // parser.printTokens = true;
-            Package AST = parser.parseTokenStream();
-            fStream.close();
-            if (AST == null) {
-                System.out.println("Error");
-                System.out.println(parser.getErrorMsg());
-                System.exit(0);
-            }
+        if (filePath.equals("--server")) {
+            System.exit(CompileServer.run(args, options));
+        }
 
-            ContextualAnalysisVisitor contextualAnalysisVisitor = new ContextualAnalysisVisitor();
-            Environment env = new Environment(AST);
-            AST.visit(contextualAnalysisVisitor, env);
+        // --stats <file> prints per phase measurements as JSON instead of the usual output
+        if (filePath.equals("--stats") && args.length == 2) {
+            CompileStats stats = new CompileStats(true);
+            List<String> diagnostics = compile(Paths.get(args[1]), "a.out", options, stats);
+            System.out.println(stats.toJson(args[1], diagnostics));
+            System.exit(0);
+        }
 
-            ASTDisplay display = new ASTDisplay();
-            // display.showTree(AST);
+        // Several paths, a directory or options select batch mode
+        if (args.length > 1 || filePath.startsWith("--") || Files.isDirectory(Paths.get(filePath))) {
+            System.exit(BatchCompiler.run(args, options));
+        }
 
-            if (env.errorMessages.size() > 0) {
-                System.out.println("Error");
-                for (String errorMessage : env.errorMessages) {
-                    System.out.println(errorMessage);
-                    System.exit(0);
-                }
-            }
+        List<String> diagnostics = compile(Paths.get(filePath), "a.out", options, new CompileStats(false));
+        for (String line : diagnostics) {
+            System.out.println(line);
+        }
+        if (!diagnostics.isEmpty()) {
+            System.exit(0);
+        }
+    }
 
-            CodeGenerator codeGenerator = new CodeGenerator();
-            codeGenerator.parse(AST, env.mainMethodDecl, env.printlnMethodDecl, env.outFieldDecl);
+    // Runs the whole pipeline on one source file and writes the executable to outputPath
+    // Returns what should be reported to the user, empty on success
+    // Every call builds its own Scanner/Parser/Environment/CodeGenerator so calls may run concurrently
+    public static List<String> compile(Path sourcePath, String outputPath) throws IOException {
+        return compile(sourcePath, outputPath, new CompilerOptions(), new CompileStats(false));
+    }
+
+    public static List<String> compile(Path sourcePath, String outputPath, CompilerOptions options, CompileStats stats) throws IOException {
+        List<String> diagnostics = new ArrayList<String>();
+
+        // Source file is memory mapped rather than read onto the heap
+        Scanner scanner = Scanner.fromFile(sourcePath);
+        stats.count("source_bytes", Files.size(sourcePath));
+        CodeGenerator codeGenerator = generate(scanner, diagnostics, options, stats);
+        if (codeGenerator != null) {
+            stats.begin("elf");
+            codeGenerator.makeElf(outputPath);
+            stats.end();
             if (!codeGenerator.errorMessages.isEmpty()) {
-                System.out.println("Error");
-                for (String errorMessage : codeGenerator.errorMessages) {
-                    System.out.println(errorMessage);
-                }
-            } else {
-                // System.out.println("Success");
+                diagnostics.add("Error");
+                diagnostics.addAll(codeGenerator.errorMessages);
             }
-        } finally {
-            if (fStream != null) { fStream.close(); }
         }
+        return diagnostics;
+    }
+
+    // Front end and code generation up to patched machine code
+    // Returns null after adding the diagnostics to report if any phase failed
+    public static CodeGenerator generate(Scanner scanner, List<String> diagnostics) throws IOException {
+        return generate(scanner, diagnostics, new CompilerOptions(), new CompileStats(false));
+    }
+
+    public static CodeGenerator generate(Scanner scanner, List<String> diagnostics, CompilerOptions options, CompileStats stats) throws IOException {
+        Parser parser = new Parser(scanner);
+        if (stats.isEnabled()) {
+            // Scan everything up front so scanning and parsing are measured separately
+            stats.begin("scan");
+            TokenArray tokens = scanner.scanAll();
+            stats.end();
+            stats.count("tokens", tokens.size());
+            parser = new Parser(scanner, tokens);
+        }
+        // parser.printTokens = true;
+        stats.begin("parse");
+        Package AST = parser.parseTokenStream();
+        stats.end();
+        if (AST == null) {
+            diagnostics.add("Error");
+            diagnostics.add(parser.getErrorMsg());
+            return null;
+        }
+        if (stats.isEnabled()) {
+            stats.count("ast_nodes", new ASTNodeCounter().countNodes(AST));
+        }
+
+        stats.begin("contextual");
+        ContextualAnalysisVisitor contextualAnalysisVisitor = new ContextualAnalysisVisitor();
+        Environment env = new Environment(AST);
+        AST.visit(contextualAnalysisVisitor, env);
+        stats.end();
+
+        ASTDisplay display = new ASTDisplay();
+        // display.showTree(AST);
+
+        // Only the first contextual error is reported
+        if (env.errorMessages.size() > 0) {
+            diagnostics.add("Error");
+            diagnostics.add(env.errorMessages.get(0));
+            return null;
+        }
+
+        if (options.inlining) {
+            stats.begin("inline");
+            int inlined = new Inliner().inline(AST);
+            stats.end();
+            stats.count("inlined", inlined);
+        }
+
+        if (options.constantFolding) {
+            stats.begin("fold");
+            int folded = new ConstantFolder().fold(AST);
+            stats.end();
+            stats.count("folded", folded);
+        }
+
+        if (options.deadCodeElimination) {
+            stats.begin("dce");
+            int removed = new DeadStatementEliminator().eliminate(AST);
+            stats.end();
+            stats.count("dead_removed", removed);
+        }
+
+        if (options.rangeCheckElimination) {
+            stats.begin("rce");
+            int removed = new RangeCheckEliminator().eliminate(AST);
+            stats.end();
+            stats.count("checks_removed", removed);
+        }
+
+        CodeGenerator codeGenerator = new CodeGenerator(options);
+        stats.begin("codegen");
+        codeGenerator.emitCode(AST, env.mainMethodDecl, env.printlnMethodDecl, env.outFieldDecl);
+        stats.end();
+        stats.begin("peephole");
+        codeGenerator.optimize();
+        stats.end();
+        stats.begin("patch");
+        codeGenerator.patchCalls();
+        stats.end();
+        stats.count("instructions", codeGenerator.getInstructionList().getNumInstructions());
+        stats.count("patches", codeGenerator.getInstructionList().getNumPatches());
+        stats.count("peephole_removed", codeGenerator.getNumPeepholeRemoved());
+        stats.count("virtual_calls", codeGenerator.getNumVirtualCalls());
+        stats.count("code_bytes", codeGenerator.getInstructionList().getSize());
+        if (!codeGenerator.errorMessages.isEmpty()) {
+            diagnostics.add("Error");
+            diagnostics.addAll(codeGenerator.errorMessages);
+            return null;
+        }
+        return codeGenerator;
     }
 }
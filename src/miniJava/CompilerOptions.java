@@ -0,0 +1,55 @@
+package miniJava;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Code generation switches shared by every compiler mode
+public class CompilerOptions {
+    // --regalloc: keep expression temporaries in registers instead of on the machine stack
+    public boolean registerAllocation = false;
+    // --no-peephole: skip the peephole pass over the generated instructions
+    public boolean peephole = true;
+    // --no-inline: keep calls to small static and private methods instead of inlining them on the AST
+    public boolean inlining = true;
+    // --no-fold: skip constant folding and propagation on the AST
+    public boolean constantFolding = true;
+    // --no-dce: keep unreachable statements and assignments to locals that are never read
+    public boolean deadCodeElimination = true;
+    // --no-rce: keep the bounds check on every array access, including those loops already keep in range
+    public boolean rangeCheckElimination = true;
+    // --no-loop-opt: leave invariant code and induction variable multiplies inside loops (IR backend)
+    public boolean loopOptimization = true;
+    // --gc: link a mark-sweep collector into the program and allocate from its heap
+    public boolean garbageCollection = false;
+    // --ir: lower method bodies to the SSA IR and select instructions from it instead of walking the AST
+    public boolean intermediateRepresentation = false;
+
+    // Removes the options it recognises from args and returns what is left
+    public static String[] parse(String[] args, CompilerOptions options) {
+        List<String> rest = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals("--regalloc")) {
+                options.registerAllocation = true;
+            } else if (arg.equals("--no-peephole")) {
+                options.peephole = false;
+            } else if (arg.equals("--no-inline")) {
+                options.inlining = false;
+            } else if (arg.equals("--no-fold")) {
+                options.constantFolding = false;
+            } else if (arg.equals("--no-dce")) {
+                options.deadCodeElimination = false;
+            } else if (arg.equals("--no-rce")) {
+                options.rangeCheckElimination = false;
+            } else if (arg.equals("--no-loop-opt")) {
+                options.loopOptimization = false;
+            } else if (arg.equals("--gc")) {
+                options.garbageCollection = true;
+            } else if (arg.equals("--ir")) {
+                options.intermediateRepresentation = true;
+            } else {
+                rest.add(arg);
+            }
+        }
+        return rest.toArray(new String[0]);
+    }
+}
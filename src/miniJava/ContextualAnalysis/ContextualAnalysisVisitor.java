@@ -24,7 +24,25 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
         return new ClassType(new Identifier(new Token(TokenType.Id, classDecl.name, null)), null);
     }
 
-    private static TypeDenoter getResultType(TypeDenoter lhs, TypeDenoter rhs, Operator op) {
+    // Whether a value of type value can be used where target is expected, a subclass can stand in for its superclass
+    private static boolean isAssignable(TypeDenoter target, TypeDenoter value, Environment env) {
+        if (target.equals(value)) {
+            return true;
+        }
+        if (!(target instanceof ClassType) || !(value instanceof ClassType) || value.typeKind != TypeKind.CLASS) {
+            return false;
+        }
+        // Types are resolved by name, a method signature in a later class may not have been visited yet
+        ClassDecl targetClass = env.findClass(((ClassType) target).className);
+        for (ClassDecl classDecl = env.findClass(((ClassType) value).className); classDecl != null; classDecl = classDecl.superClass) {
+            if (classDecl == targetClass) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static TypeDenoter getResultType(TypeDenoter lhs, TypeDenoter rhs, Operator op, Environment env) {
         // For binary operators
         if (lhs == null || rhs == null) {
             return null;
@@ -44,7 +62,7 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
                 return intTypeDenoter;
             }
         } else if (equalityOps.contains(op.spelling)) {
-            if (lhs.equals(rhs)) {
+            if (isAssignable(lhs, rhs, env) || isAssignable(rhs, lhs, env)) {
                 return booleanTypeDenoter;
             }
         }
@@ -78,6 +96,7 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
             env.currentClass = classDecl;
             env.addClass(classDecl);
         }
+        env.resolveSuperClasses(prog);
         for (ClassDecl classDecl : prog.classDeclList) {
             env.currentClass = classDecl;
             for (FieldDecl fieldDecl : classDecl.fieldDeclList) {
@@ -130,7 +149,7 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
             if (statement instanceof ReturnStmt) {
                 Expression returnExpression = ((ReturnStmt) statement).returnExpr;
                 if (returnExpression != null) {
-                    if (returnExpression.type != null && returnExpression.type.typeKind != TypeKind.ERROR && !returnExpression.type.equals(md.type)) {
+                    if (returnExpression.type != null && returnExpression.type.typeKind != TypeKind.ERROR && !isAssignable(md.type, returnExpression.type, env)) {
                         env.errorMessages.add(String.format("Type error at %s, invalid return type", statement.posn));
                     }
                 } else {
@@ -183,16 +202,16 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
 	@Override
 	public Void visitVardeclStmt(VarDeclStmt stmt, Environment env) {
         stmt.varDecl.visit(this, env);
-        env.currentDeclaringIdentifier = stmt.varDecl.name;
+        env.currentDeclaringSymbol = stmt.varDecl.symbol;
 
         stmt.initExp.visit(this, env);
         // If identification error in class type in varDecl, then we still report the type error even though we should ignore it
         // Maybe fix this later, but not important
-        if (stmt.initExp.type != null && stmt.initExp.type.typeKind != TypeKind.ERROR && !stmt.varDecl.type.equals(stmt.initExp.type)) {
+        if (stmt.initExp.type != null && stmt.initExp.type.typeKind != TypeKind.ERROR && !isAssignable(stmt.varDecl.type, stmt.initExp.type, env)) {
             env.errorMessages.add(String.format("Type error at %s, variable and value type do not match", stmt.posn));
         }
 
-        env.currentDeclaringIdentifier = null;
+        env.currentDeclaringSymbol = -1;
         return null;
 	}
 
@@ -200,7 +219,9 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
 	public Void visitAssignStmt(AssignStmt stmt, Environment env) {
         stmt.ref.visit(this, env);
         stmt.val.visit(this, env);
-        if (stmt.ref.type != null && stmt.val.type != null && stmt.ref.type.typeKind != TypeKind.ERROR && stmt.val.type.typeKind != TypeKind.ERROR && !stmt.ref.type.equals(stmt.val.type)) {
+        if (stmt.ref instanceof QualRef && ((QualRef) stmt.ref).id.declaration == env.arrayLengthDecl) {
+            env.errorMessages.add(String.format("Type error at %s, array length cannot be assigned", stmt.posn));
+        } else if (stmt.ref.type != null && stmt.val.type != null && stmt.ref.type.typeKind != TypeKind.ERROR && stmt.val.type.typeKind != TypeKind.ERROR && !isAssignable(stmt.ref.type, stmt.val.type, env)) {
             env.errorMessages.add(String.format("Type error at %s, variable and value type do not match", stmt.posn));
         }
         return null;
@@ -217,7 +238,7 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
                 env.errorMessages.add(String.format("Type error at %s, not indexable", stmt.posn));
             } else if (stmt.ix.type.typeKind != TypeKind.INT) {
                 env.errorMessages.add(String.format("Type error at %s, index must be an int", stmt.posn));
-            } else if (!stmt.exp.type.equals(((ArrayType) stmt.ref.type).eltType)) {
+            } else if (!isAssignable(((ArrayType) stmt.ref.type).eltType, stmt.exp.type, env)) {
                 env.errorMessages.add(String.format("Type error at %s, array element type and value do not match", stmt.posn));
             }
         }
@@ -251,7 +272,7 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
                     arg.visit(this, env);
                     if (arg.type != null && arg.type.typeKind == TypeKind.ERROR) {
                         break;
-                    } else if (arg.type != null && !parameter.type.equals(arg.type)) {
+                    } else if (arg.type != null && !isAssignable(parameter.type, arg.type, env)) {
                         env.errorMessages.add(String.format("Type error at %s, invalid arguments", stmt.posn));
                         break;
                     }
@@ -323,7 +344,7 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
 	public Void visitBinaryExpr(BinaryExpr expr, Environment env) {
         expr.left.visit(this, env);
         expr.right.visit(this, env);
-        expr.type = getResultType(expr.left.type, expr.right.type, expr.operator);
+        expr.type = getResultType(expr.left.type, expr.right.type, expr.operator, env);
         if (expr.left.type != null && expr.right.type != null) {
             if ((expr.left.type.typeKind != TypeKind.ERROR && expr.right.type.typeKind != TypeKind.ERROR) && (expr.type.typeKind == TypeKind.ERROR)) {
                 env.errorMessages.add(String.format("Type error at %s", expr.posn));
@@ -403,7 +424,7 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
                     if (arg.type != null && arg.type.typeKind == TypeKind.ERROR) {
                         argsCorrect = false;
                         break;
-                    } else if (arg.type != null && !parameter.type.equals(arg.type)) {
+                    } else if (arg.type != null && !isAssignable(parameter.type, arg.type, env)) {
                         env.errorMessages.add(String.format("Type error at %s, invalid arguments", expr.posn));
                         argsCorrect = false;
                         break;
@@ -455,8 +476,8 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
         ref.id.declaration = env.findDeclaration(ref.id);
         if (ref.id.declaration != null) {
             ref.type = ref.id.declaration.type;
-            if (ref.id.spelling.equals(env.currentDeclaringIdentifier)) {
-                env.errorMessages.add(String.format("Context error at %s, cannot use variable name \"%s\" in its own declaration", ref.id.posn, env.currentDeclaringIdentifier));
+            if (ref.id.symbol == env.currentDeclaringSymbol) {
+                env.errorMessages.add(String.format("Context error at %s, cannot use variable name \"%s\" in its own declaration", ref.id.posn, ref.id.spelling));
             }
         }
         return null;
@@ -516,6 +537,8 @@ public class ContextualAnalysisVisitor implements Visitor<Environment, Void> {
                         }
                         ref.id.declaration = declaration;
                     }
+                } else if (leftType instanceof ArrayType && !isMethodContext && ref.id.spelling.equals("length")) {
+                    ref.id.declaration = env.arrayLengthDecl;
                 } else {
                     // Left identifier is a primitive or array type
                     env.errorMessages.add(String.format("Identification error at %s, identifier cannot be resolved to a declaration", ref.id.posn));
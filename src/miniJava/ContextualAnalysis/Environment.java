@@ -11,28 +11,29 @@ import java.util.HashMap;
 import java.util.List;
 
 public class Environment {
-    private List<Map<String, Declaration>> scopes = new ArrayList<Map<String, Declaration>>();
+    private ScopeStack scopes = new ScopeStack();
 
+    // All tables are keyed by interned symbol ids (see Symbols), identification never hashes strings
     // Level 0 scope
-    private Map<String, ClassDecl> classes = new HashMap<String, ClassDecl>();
+    private IntMap<ClassDecl> classes = new IntMap<ClassDecl>();
 
     // Level 1 scopes
     // Fields and methods can have the same name in normal Java
     // Non static and static members can have the same name in normal Java
-    private Map<ClassDecl, Map<String, FieldDecl>> classFields = new HashMap<ClassDecl, Map<String, FieldDecl>>();
-    private Map<ClassDecl, Map<String, MethodDecl>> classMethods = new HashMap<ClassDecl, Map<String, MethodDecl>>();
-    private Map<ClassDecl, Map<String, FieldDecl>> staticClassFields = new HashMap<ClassDecl, Map<String, FieldDecl>>();
-    private Map<ClassDecl, Map<String, MethodDecl>> staticClassMethods = new HashMap<ClassDecl, Map<String, MethodDecl>>();
+    private Map<ClassDecl, IntMap<FieldDecl>> classFields = new HashMap<ClassDecl, IntMap<FieldDecl>>();
+    private Map<ClassDecl, IntMap<MethodDecl>> classMethods = new HashMap<ClassDecl, IntMap<MethodDecl>>();
+    private Map<ClassDecl, IntMap<FieldDecl>> staticClassFields = new HashMap<ClassDecl, IntMap<FieldDecl>>();
+    private Map<ClassDecl, IntMap<MethodDecl>> staticClassMethods = new HashMap<ClassDecl, IntMap<MethodDecl>>();
 
     // Initially implemented where static/non-static and field/method could have same name
     // Later found out that MiniJava doesn't allow duplicates in any case, so added quick fix to addClass method
-    private <T extends Declaration> void addToScope(Map<String, T> scope, T declaration) {
-        String name = declaration.name;
-        if (scope.containsKey(name)) {
-            errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", declaration.posn, name, scope.get(name).posn));
+    private <T extends Declaration> void addToScope(IntMap<T> scope, T declaration) {
+        int symbol = declaration.symbol;
+        if (scope.containsKey(symbol)) {
+            errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", declaration.posn, declaration.name, scope.get(symbol).posn));
             return;
         }
-        scope.put(declaration.name, declaration);
+        scope.put(symbol, declaration);
     }
 
     // Init System, _PrintStream, and String in constructor
@@ -55,37 +56,49 @@ public class Environment {
 
         ClassDecl string = new ClassDecl("String", new FieldDeclList(), new MethodDeclList(), null);
         pkg.classDeclList.add(string);
+
+        // Arrays keep their length in the word before the first element, so it reads like an instance field at offset -1
+        arrayLengthDecl = new FieldDecl(false, false, new BaseType(TypeKind.INT, null), "length", null);
+        arrayLengthDecl.offset = -1;
     }
 
     // Local var scopes
     public void openScope() {
-        Map<String, Declaration> scope = new HashMap<String, Declaration>();
-        scopes.add(scope);
+        scopes.openScope();
     }
     public void closeScope() {
-        scopes.remove(scopes.size() - 1);
+        scopes.closeScope();
     }
 
     public void addDeclaration(Declaration declaration) {
-        Map<String, Declaration> topLevel = scopes.get(scopes.size() - 1);
-        for (Map<String, Declaration> scope : scopes) {
-            if (scope.containsKey(declaration.name)) {
-                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", declaration.posn, declaration.name, scope.get(declaration.name).posn));
+        ScopeStack.Binding binding = scopes.lookup(declaration.symbol);
+        if (binding != null) {
+            reportRedeclaration(declaration, binding);
+            if (binding.depth == scopes.depth()) {
+                // Already declared in the innermost scope, keep the first declaration
+                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", declaration.posn, declaration.name, binding.declaration.posn));
+                return;
             }
         }
-        addToScope(topLevel, declaration);
+        scopes.bind(declaration);
+    }
+
+    // One error per enclosing scope declaring the same name, outermost scope first
+    private void reportRedeclaration(Declaration declaration, ScopeStack.Binding binding) {
+        if (binding.shadowed != null) {
+            reportRedeclaration(declaration, binding.shadowed);
+        }
+        errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", declaration.posn, declaration.name, binding.declaration.posn));
     }
 
     // Find decl in current scope stack or level 0, level 1 scopes
     public Declaration findDeclaration(Identifier id) {
-        String name = id.spelling;
+        int symbol = id.symbol;
 
         // Look for local declarations on the stack
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            Map<String, Declaration> scope = scopes.get(i);
-            if (scope.containsKey(name)) {
-                return scope.get(name);
-            }
+        ScopeStack.Binding binding = scopes.lookup(symbol);
+        if (binding != null) {
+            return binding.declaration;
         }
 
         // Look for members of the current class
@@ -95,8 +108,8 @@ public class Environment {
         }
 
         // Look for class names
-        if (classes.containsKey(name)) {
-            return classes.get(name);
+        if (classes.containsKey(symbol)) {
+            return classes.get(symbol);
         }
 
         // Could not find declaration
@@ -104,10 +117,23 @@ public class Environment {
         return null;
     }
 
-    // Find decl in a level 1 scope (class member)
+    // Find decl in a level 1 scope (class member), searching superclasses when the class does not declare it
+    // A private member of a superclass is found but not accessible, so it resolves to nothing
     public MemberDecl findClassMember(ClassDecl classDecl, Identifier id, boolean isStaticContext, boolean isMethodContext) {
-        String name = id.spelling;
+        return findClassMember(classDecl, id.symbol, isStaticContext, isMethodContext);
+    }
 
+    private MemberDecl findClassMember(ClassDecl classDecl, int name, boolean isStaticContext, boolean isMethodContext) {
+        for (ClassDecl declaringClass = classDecl; declaringClass != null; declaringClass = declaringClass.superClass) {
+            MemberDecl declaration = findDeclaredMember(declaringClass, name, isStaticContext, isMethodContext);
+            if (declaration != null) {
+                return declaringClass == classDecl || !declaration.isPrivate ? declaration : null;
+            }
+        }
+        return null;
+    }
+
+    private MemberDecl findDeclaredMember(ClassDecl classDecl, int name, boolean isStaticContext, boolean isMethodContext) {
         if (!isStaticContext) {
             // If not static, first try instance members, then try static members
             if (isMethodContext) {
@@ -143,35 +169,100 @@ public class Environment {
 
     // Find decl in level 0 scope
     public ClassDecl findClass(Identifier id) {
-        String name = id.spelling;
+        int name = id.symbol;
         if (classes.containsKey(name)) {
             return classes.get(name);
         }
         return null;
     }
 
+    // Resolves the extends clauses once every class is added, then checks the methods each class overrides
+    public void resolveSuperClasses(Package pkg) {
+        for (ClassDecl classDecl : pkg.classDeclList) {
+            if (classDecl.superClassName != null) {
+                classDecl.superClass = findClass(classDecl.superClassName);
+                classDecl.superClassName.declaration = classDecl.superClass;
+                if (classDecl.superClass == null) {
+                    errorMessages.add(String.format("Identification error at %s, identifier cannot be resolved to a declaration", classDecl.superClassName.posn));
+                }
+            }
+        }
+
+        // A cycle is cut where it is found, the length check stops chains that run into a cycle further up
+        for (ClassDecl classDecl : pkg.classDeclList) {
+            int length = 0;
+            for (ClassDecl superClass = classDecl.superClass; superClass != null; superClass = superClass.superClass) {
+                if (superClass == classDecl || ++length > pkg.classDeclList.size()) {
+                    errorMessages.add(String.format("Context error at %s, class \"%s\" inherits from itself", classDecl.posn, classDecl.name));
+                    classDecl.superClass = null;
+                    break;
+                }
+            }
+        }
+
+        for (ClassDecl classDecl : pkg.classDeclList) {
+            if (classDecl.superClass != null) {
+                for (MethodDecl methodDecl : classDecl.methodDeclList) {
+                    checkOverride(classDecl, methodDecl);
+                }
+            }
+        }
+    }
+
+    // A method named like an inherited one overrides (or for static methods hides) it, and must keep its signature
+    private void checkOverride(ClassDecl classDecl, MethodDecl methodDecl) {
+        MemberDecl inherited = findClassMember(classDecl.superClass, methodDecl.symbol, false, true);
+        if (inherited == null) {
+            return;
+        }
+        if (inherited.isStatic != methodDecl.isStatic) {
+            errorMessages.add(String.format("Context error at %s, method \"%s\" cannot change whether it is static from %s", methodDecl.posn, methodDecl.name, inherited.posn));
+        } else if (methodDecl.isPrivate) {
+            errorMessages.add(String.format("Context error at %s, method \"%s\" cannot be private when overriding %s", methodDecl.posn, methodDecl.name, inherited.posn));
+        } else if (!sameSignature(methodDecl, (MethodDecl) inherited)) {
+            errorMessages.add(String.format("Type error at %s, method \"%s\" does not match the method it overrides at %s", methodDecl.posn, methodDecl.name, inherited.posn));
+        }
+    }
+
+    private static boolean sameSignature(MethodDecl a, MethodDecl b) {
+        if (!sameType(a.type, b.type) || a.parameterDeclList.size() != b.parameterDeclList.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.parameterDeclList.size(); i++) {
+            if (!sameType(a.parameterDeclList.get(i).type, b.parameterDeclList.get(i).type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // TypeDenoter.equals lets null (void) match any class, which is too loose for signatures
+    private static boolean sameType(TypeDenoter a, TypeDenoter b) {
+        return a.typeKind == b.typeKind && a.equals(b);
+    }
+
     // Add all class names, their fields and methods to level 0 and level 1 scopes initially
     public void addClass(ClassDecl classDecl) {
-        if (classes.containsKey(classDecl.name)) {
-            errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", classDecl.posn, classDecl.name, classes.get(classDecl.name).posn));
+        if (classes.containsKey(classDecl.symbol)) {
+            errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", classDecl.posn, classDecl.name, classes.get(classDecl.symbol).posn));
         }
-        classes.put(classDecl.name, classDecl);
-        Map<String, FieldDecl> fields = new HashMap<String, FieldDecl>();
-        Map<String, MethodDecl> methods = new HashMap<String, MethodDecl>();
-        Map<String, FieldDecl> staticFields = new HashMap<String, FieldDecl>();
-        Map<String, MethodDecl> staticMethods = new HashMap<String, MethodDecl>();
+        classes.put(classDecl.symbol, classDecl);
+        IntMap<FieldDecl> fields = new IntMap<FieldDecl>();
+        IntMap<MethodDecl> methods = new IntMap<MethodDecl>();
+        IntMap<FieldDecl> staticFields = new IntMap<FieldDecl>();
+        IntMap<MethodDecl> staticMethods = new IntMap<MethodDecl>();
 
         for (FieldDecl fieldDecl : classDecl.fieldDeclList) {
             // For MiniJava, no duplicate name allowed in any case
             // Use this if statement to report error on duplicates in this case
-            if (fields.containsKey(fieldDecl.name)) {
-                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", fieldDecl.posn, fieldDecl.name, fields.get(fieldDecl.name).posn));
-            } else if (methods.containsKey(fieldDecl.name)) {
-                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", fieldDecl.posn, fieldDecl.name, methods.get(fieldDecl.name).posn));
-            } else if (staticFields.containsKey(fieldDecl.name)) {
-                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", fieldDecl.posn, fieldDecl.name, staticFields.get(fieldDecl.name).posn));
-            } else if (staticMethods.containsKey(fieldDecl.name)) {
-                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", fieldDecl.posn, fieldDecl.name, staticMethods.get(fieldDecl.name).posn));
+            if (fields.containsKey(fieldDecl.symbol)) {
+                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", fieldDecl.posn, fieldDecl.name, fields.get(fieldDecl.symbol).posn));
+            } else if (methods.containsKey(fieldDecl.symbol)) {
+                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", fieldDecl.posn, fieldDecl.name, methods.get(fieldDecl.symbol).posn));
+            } else if (staticFields.containsKey(fieldDecl.symbol)) {
+                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", fieldDecl.posn, fieldDecl.name, staticFields.get(fieldDecl.symbol).posn));
+            } else if (staticMethods.containsKey(fieldDecl.symbol)) {
+                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", fieldDecl.posn, fieldDecl.name, staticMethods.get(fieldDecl.symbol).posn));
             }
 
             if (fieldDecl.isStatic) {
@@ -184,14 +275,14 @@ public class Environment {
         for (MethodDecl methodDecl : classDecl.methodDeclList) {
             // For MiniJava, no duplicate name allowed in any case
             // Use this if statement to report error on duplicates in this case
-            if (fields.containsKey(methodDecl.name)) {
-                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", methodDecl.posn, methodDecl.name, fields.get(methodDecl.name).posn));
-            } else if (methods.containsKey(methodDecl.name)) {
-                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", methodDecl.posn, methodDecl.name, methods.get(methodDecl.name).posn));
-            } else if (staticFields.containsKey(methodDecl.name)) {
-                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", methodDecl.posn, methodDecl.name, staticFields.get(methodDecl.name).posn));
-            } else if (staticMethods.containsKey(methodDecl.name)) {
-                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", methodDecl.posn, methodDecl.name, staticMethods.get(methodDecl.name).posn));
+            if (fields.containsKey(methodDecl.symbol)) {
+                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", methodDecl.posn, methodDecl.name, fields.get(methodDecl.symbol).posn));
+            } else if (methods.containsKey(methodDecl.symbol)) {
+                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", methodDecl.posn, methodDecl.name, methods.get(methodDecl.symbol).posn));
+            } else if (staticFields.containsKey(methodDecl.symbol)) {
+                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", methodDecl.posn, methodDecl.name, staticFields.get(methodDecl.symbol).posn));
+            } else if (staticMethods.containsKey(methodDecl.symbol)) {
+                errorMessages.add(String.format("Identification error at %s, identifier \"%s\" already declared at %s", methodDecl.posn, methodDecl.name, staticMethods.get(methodDecl.symbol).posn));
             }
             if (methodDecl.isStatic) {
                 if (methodDecl.name.equals("main") && !methodDecl.isPrivate && methodDecl.type.typeKind == TypeKind.VOID) {
@@ -235,9 +326,10 @@ public class Environment {
     public ClassDecl currentClass = null;
     public boolean isStaticContext = false; // are we in a static method (this is not for QualRefs)
     public boolean isMethodContext = false; // are we trying to find a method (this is needed since I initially implemented it where methods and fields could have the same name)
-    public String currentDeclaringIdentifier = null; // for ensuring that a variable name is not used in its own declaration
+    public int currentDeclaringSymbol = -1; // for ensuring that a variable name is not used in its own declaration
     public List<String> errorMessages = new ArrayList<String>();
     public MethodDecl mainMethodDecl = null;
     public MethodDecl printlnMethodDecl = null;
     public FieldDecl outFieldDecl = null;
+    public FieldDecl arrayLengthDecl = null;
 }
@@ -0,0 +1,76 @@
+package miniJava.ContextualAnalysis;
+
+import java.util.Arrays;
+
+// Open addressing hash map from non negative int keys (symbol ids) to values, no boxing
+public class IntMap<V> {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    public IntMap() {
+        this(8);
+    }
+
+    public IntMap(int expectedSize) {
+        int capacity = 8;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+    }
+
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int idx = (key * 0x9E3779B9) >>> 16 & mask;
+        while (keys[idx] != EMPTY && keys[idx] != key) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        return (V) values[slot(key)];
+    }
+
+    public boolean containsKey(int key) {
+        return keys[slot(key)] == key;
+    }
+
+    public void put(int key, V value) {
+        int idx = slot(key);
+        if (keys[idx] == EMPTY) {
+            keys[idx] = key;
+            if (++size * 2 > keys.length) {
+                values[idx] = value;
+                grow();
+                return;
+            }
+        }
+        values[idx] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int idx = slot(oldKeys[i]);
+                keys[idx] = oldKeys[i];
+                values[idx] = oldValues[i];
+            }
+        }
+    }
+}
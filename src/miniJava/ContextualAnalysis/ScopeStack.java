@@ -0,0 +1,63 @@
+package miniJava.ContextualAnalysis;
+
+import java.util.Arrays;
+
+import miniJava.AbstractSyntaxTrees.Declaration;
+
+// Local variable scopes as a single table from symbol to its innermost binding
+// Each binding links to the binding it shadows, closing a scope pops its bindings through an undo log
+// so lookups and redeclaration checks cost the same no matter how deeply blocks are nested
+public class ScopeStack {
+    public static class Binding {
+        public final Declaration declaration;
+        public final int depth;
+        public final Binding shadowed;
+
+        private Binding(Declaration declaration, int depth, Binding shadowed) {
+            this.declaration = declaration;
+            this.depth = depth;
+            this.shadowed = shadowed;
+        }
+    }
+
+    private IntMap<Binding> bindings = new IntMap<Binding>(64);
+    // Symbols bound so far in order, and where each open scope starts in that log
+    private int[] undoLog = new int[64];
+    private int undoSize = 0;
+    private int[] scopeStarts = new int[16];
+    private int depth = 0;
+
+    public void openScope() {
+        if (depth == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+        }
+        scopeStarts[depth++] = undoSize;
+    }
+
+    public void closeScope() {
+        int start = scopeStarts[--depth];
+        while (undoSize > start) {
+            int symbol = undoLog[--undoSize];
+            bindings.put(symbol, bindings.get(symbol).shadowed);
+        }
+    }
+
+    // Number of open scopes, the innermost scope has this depth
+    public int depth() {
+        return depth;
+    }
+
+    // Innermost binding of symbol in any open scope, null if there is none
+    public Binding lookup(int symbol) {
+        return bindings.get(symbol);
+    }
+
+    // Binds declaration in the innermost scope
+    public void bind(Declaration declaration) {
+        if (undoSize == undoLog.length) {
+            undoLog = Arrays.copyOf(undoLog, undoSize * 2);
+        }
+        undoLog[undoSize++] = declaration.symbol;
+        bindings.put(declaration.symbol, new Binding(declaration, depth, bindings.get(declaration.symbol)));
+    }
+}
@@ -0,0 +1,98 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A straight line of instructions: phis first, then the body, then one terminator once the block is finished
+public class BasicBlock {
+    public final int id;
+    public final List<Instr> instrs = new ArrayList<Instr>();
+    // In the order of the operands of the phis
+    public final List<BasicBlock> preds = new ArrayList<BasicBlock>();
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public Instr add(Instr instr) {
+        instr.block = this;
+        instrs.add(instr);
+        return instr;
+    }
+
+    // Puts instr just before the terminator, for code moved into a finished block
+    public Instr addBeforeTerminator(Instr instr) {
+        instr.block = this;
+        instrs.add(instrs.size() - 1, instr);
+        return instr;
+    }
+
+    // Puts instr straight after anchor
+    public Instr addAfter(Instr anchor, Instr instr) {
+        instr.block = this;
+        instrs.add(instrs.indexOf(anchor) + 1, instr);
+        return instr;
+    }
+
+    // Puts a phi after the existing ones
+    public Instr addPhi(Instr phi) {
+        int i = 0;
+        while (i < instrs.size() && instrs.get(i).op == Op.PHI) {
+            i++;
+        }
+        phi.block = this;
+        instrs.add(i, phi);
+        return phi;
+    }
+
+    // Ends the block with a jump or branch to targets, which get this block as a predecessor
+    public Instr terminate(Instr terminator, BasicBlock... targets) {
+        for (BasicBlock target : targets) {
+            terminator.targets.add(target);
+            target.preds.add(this);
+        }
+        return add(terminator);
+    }
+
+    public Instr getTerminator() {
+        if (instrs.isEmpty() || !instrs.get(instrs.size() - 1).op.isTerminator()) {
+            return null;
+        }
+        return instrs.get(instrs.size() - 1);
+    }
+
+    public List<BasicBlock> getSuccs() {
+        Instr terminator = getTerminator();
+        return terminator == null ? new ArrayList<BasicBlock>() : terminator.targets;
+    }
+
+    public List<Instr> getPhis() {
+        List<Instr> phis = new ArrayList<Instr>();
+        for (Instr instr : instrs) {
+            if (instr.op != Op.PHI) {
+                break;
+            }
+            phis.add(instr);
+        }
+        return phis;
+    }
+
+    // Points the edge from pred at replacement instead, phi operands keep their position
+    void replacePred(BasicBlock pred, BasicBlock replacement) {
+        preds.set(preds.indexOf(pred), replacement);
+    }
+
+    // Drops the edge from pred along with the operands the phis had for it
+    void removePred(BasicBlock pred) {
+        int i = preds.indexOf(pred);
+        preds.remove(i);
+        for (Instr phi : getPhis()) {
+            phi.removeOperand(i);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "b" + id;
+    }
+}
@@ -0,0 +1,15 @@
+package miniJava.IR;
+
+// A 64 bit constant, booleans are 0 and 1 and null is 0
+public class Constant extends Value {
+    public final long value;
+
+    public Constant(long value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
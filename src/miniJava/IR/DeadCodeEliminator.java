@@ -0,0 +1,132 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+// Removes code that cannot run or whose result is never needed
+//   A branch on a constant becomes a jump, and the edge it no longer takes is dropped
+//   Blocks the entry cannot reach are dropped, with the phi operands for their edges
+//   Phis left merging a single value are replaced by it
+//   Instructions that nothing with a side effect depends on are deleted, which covers values only assigned to locals
+//   that are never read, as locals are SSA values
+// Loads and divisions count as side effects, so code that would fault still does
+public class DeadCodeEliminator {
+    private int numRemoved;
+
+    // Returns how many instructions were removed
+    public int eliminate(Function function) {
+        numRemoved = 0;
+        foldConstantBranches(function);
+        removeUnreachableBlocks(function);
+        removeTrivialPhis(function);
+        removeDeadInstrs(function);
+        return numRemoved;
+    }
+
+    private void foldConstantBranches(Function function) {
+        for (BasicBlock block : function.blocks) {
+            Instr branch = block.getTerminator();
+            if (branch == null || branch.op != Op.BRANCH || !(branch.getOperand(0) instanceof Constant)) {
+                continue;
+            }
+            boolean taken = ((Constant) branch.getOperand(0)).value != 0;
+            BasicBlock target = branch.targets.get(taken ? 0 : 1);
+            branch.targets.get(taken ? 1 : 0).removePred(block);
+
+            branch.clearOperands();
+            block.instrs.remove(branch);
+            // The edge to target stays where it is among its predecessors, so its phis are unaffected
+            Instr jump = block.add(new Instr(Op.JUMP));
+            jump.targets.add(target);
+            numRemoved++;
+        }
+    }
+
+    private void removeUnreachableBlocks(Function function) {
+        Set<BasicBlock> reachable = new HashSet<BasicBlock>(function.reversePostorder());
+        List<BasicBlock> unreachable = new ArrayList<BasicBlock>();
+        for (BasicBlock block : function.blocks) {
+            if (!reachable.contains(block)) {
+                unreachable.add(block);
+            }
+        }
+        for (BasicBlock block : unreachable) {
+            for (BasicBlock succ : block.getSuccs()) {
+                if (reachable.contains(succ)) {
+                    succ.removePred(block);
+                }
+            }
+        }
+        // Values defined in unreachable blocks are only used there, so their operands can all go
+        for (BasicBlock block : unreachable) {
+            for (Instr instr : block.instrs) {
+                instr.clearOperands();
+                instr.block = null;
+                numRemoved++;
+            }
+        }
+        function.blocks.removeAll(unreachable);
+    }
+
+    private void removeTrivialPhis(Function function) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : function.blocks) {
+                for (Instr phi : block.getPhis()) {
+                    Value same = phi.getUniqueValue();
+                    if (same != null) {
+                        phi.replaceAllUsesWith(same);
+                        phi.clearOperands();
+                        block.instrs.remove(phi);
+                        phi.block = null;
+                        numRemoved++;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    // Marks everything the side effects depend on, then deletes the rest, so dead cycles through phis go too
+    private void removeDeadInstrs(Function function) {
+        Set<Instr> live = new HashSet<Instr>();
+        List<Instr> worklist = new ArrayList<Instr>();
+        for (BasicBlock block : function.blocks) {
+            for (Instr instr : block.instrs) {
+                if (instr.op.hasSideEffects() && live.add(instr)) {
+                    worklist.add(instr);
+                }
+            }
+        }
+        while (!worklist.isEmpty()) {
+            Instr instr = worklist.remove(worklist.size() - 1);
+            for (Value operand : instr.operands) {
+                if (operand instanceof Instr && live.add((Instr) operand)) {
+                    worklist.add((Instr) operand);
+                }
+            }
+        }
+
+        for (BasicBlock block : function.blocks) {
+            for (Instr instr : block.instrs) {
+                if (!live.contains(instr)) {
+                    instr.clearOperands();
+                }
+            }
+        }
+        for (BasicBlock block : function.blocks) {
+            for (Iterator<Instr> it = block.instrs.iterator(); it.hasNext(); ) {
+                Instr instr = it.next();
+                if (!live.contains(instr)) {
+                    it.remove();
+                    instr.block = null;
+                    numRemoved++;
+                }
+            }
+        }
+    }
+}
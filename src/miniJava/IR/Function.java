@@ -0,0 +1,114 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+
+// The control flow graph of one method, blocks.get(0) is the entry
+public class Function {
+    public final MethodDecl method;
+    public final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+    private int nextBlockId = 0;
+
+    public Function(MethodDecl method) {
+        this.method = method;
+    }
+
+    public BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(nextBlockId++);
+        blocks.add(block);
+        return block;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    // Blocks reachable from the entry, each one after all of its predecessors except along back edges
+    // Successors are visited last to first, so the taken side of a branch comes straight after it
+    public List<BasicBlock> reversePostorder() {
+        List<BasicBlock> order = new ArrayList<BasicBlock>();
+        Set<BasicBlock> visited = new HashSet<BasicBlock>();
+        // Explicit stack of (block, next successor to visit) so deep nesting cannot overflow the Java stack
+        List<BasicBlock> stack = new ArrayList<BasicBlock>();
+        List<Integer> nextSucc = new ArrayList<Integer>();
+        stack.add(getEntry());
+        nextSucc.add(0);
+        visited.add(getEntry());
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            BasicBlock block = stack.get(top);
+            List<BasicBlock> succs = block.getSuccs();
+            int i = nextSucc.get(top);
+            if (i < succs.size()) {
+                nextSucc.set(top, i + 1);
+                BasicBlock succ = succs.get(succs.size() - 1 - i);
+                if (visited.add(succ)) {
+                    stack.add(succ);
+                    nextSucc.add(0);
+                }
+            } else {
+                order.add(block);
+                stack.remove(top);
+                nextSucc.remove(top);
+            }
+        }
+        Collections.reverse(order);
+        return order;
+    }
+
+    // Puts an empty block on every edge from a block with several successors to one with several predecessors,
+    // so copies for the phis of a block can always go at the end of its predecessors
+    public void splitCriticalEdges() {
+        for (BasicBlock block : new ArrayList<BasicBlock>(blocks)) {
+            Instr terminator = block.getTerminator();
+            if (terminator == null || terminator.targets.size() < 2) {
+                continue;
+            }
+            for (int i = 0; i < terminator.targets.size(); i++) {
+                BasicBlock succ = terminator.targets.get(i);
+                if (succ.preds.size() < 2) {
+                    continue;
+                }
+                BasicBlock split = newBlock();
+                split.preds.add(block);
+                Instr jump = split.add(new Instr(Op.JUMP));
+                jump.targets.add(succ);
+                succ.replacePred(block, split);
+                terminator.targets.set(i, split);
+            }
+        }
+    }
+
+    // Gives every instruction a number for printing
+    public void number() {
+        int id = 0;
+        for (BasicBlock block : blocks) {
+            for (Instr instr : block.instrs) {
+                instr.id = id++;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        number();
+        StringBuilder s = new StringBuilder();
+        s.append(method.name).append(":\n");
+        for (BasicBlock block : blocks) {
+            s.append(block).append(':');
+            if (!block.preds.isEmpty()) {
+                s.append(" preds ").append(block.preds);
+            }
+            s.append('\n');
+            for (Instr instr : block.instrs) {
+                s.append("    ").append(instr.format()).append('\n');
+            }
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,498 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+
+// Lowers one method of the checked AST to SSA form
+// Locals and parameters become SSA values as they are assigned, following Braun et al., "Simple and Efficient
+// Construction of Static Single Assignment Form": a block is sealed once all of its predecessors are known, a read
+// in an unsealed block gets a phi that is completed when the block is sealed, and phis that turn out to merge a
+// single value are replaced by it
+// Fields, statics and array elements stay in memory and are reached through loads and stores
+// Operands are evaluated in the order CodeGenerator evaluates them, so calls with side effects run in the same order
+//
+// Statement visits return null, expression visits the Value they compute
+public class IRBuilder implements Visitor<Object, Object> {
+    private MethodDecl printlnMethodDecl;
+
+    private Function function;
+    private BasicBlock current;
+    private Instr thisValue;
+
+    // Current SSA value of every local and parameter, per block
+    private Map<BasicBlock, Map<Declaration, Value>> definitions = new HashMap<BasicBlock, Map<Declaration, Value>>();
+    private Map<BasicBlock, Map<Declaration, Instr>> incompletePhis = new HashMap<BasicBlock, Map<Declaration, Instr>>();
+    private Set<BasicBlock> sealed = new HashSet<BasicBlock>();
+    // Trivial phis that were removed, definitions may still name them
+    private Map<Instr, Value> replacedPhis = new HashMap<Instr, Value>();
+
+    public IRBuilder(MethodDecl printlnMethodDecl) {
+        this.printlnMethodDecl = printlnMethodDecl;
+    }
+
+    public Function build(MethodDecl md) {
+        function = new Function(md);
+        definitions.clear();
+        incompletePhis.clear();
+        sealed.clear();
+        replacedPhis.clear();
+
+        current = function.newBlock();
+        seal(current);
+        thisValue = md.isStatic ? null : current.add(new Instr(Op.THIS));
+        for (ParameterDecl parameterDecl : md.parameterDeclList) {
+            writeVariable(parameterDecl, current, current.add(new Instr(Op.PARAM, parameterDecl)));
+        }
+        for (Statement statement : md.statementList) {
+            statement.visit(this, null);
+        }
+        if (current.getTerminator() == null) {
+            current.add(new Instr(Op.RETURN));
+        }
+        return function;
+    }
+
+    private Value eval(Expression expr) {
+        return (Value) expr.visit(this, null);
+    }
+
+    private Instr emit(Instr instr) {
+        return current.add(instr);
+    }
+
+    private BasicBlock newSealedBlock() {
+        BasicBlock block = function.newBlock();
+        seal(block);
+        return block;
+    }
+
+    // SSA construction
+
+    private void writeVariable(Declaration var, BasicBlock block, Value value) {
+        Map<Declaration, Value> defs = definitions.get(block);
+        if (defs == null) {
+            defs = new HashMap<Declaration, Value>();
+            definitions.put(block, defs);
+        }
+        defs.put(var, value);
+    }
+
+    private Value readVariable(Declaration var, BasicBlock block) {
+        Map<Declaration, Value> defs = definitions.get(block);
+        if (defs != null && defs.containsKey(var)) {
+            return resolve(defs.get(var));
+        }
+
+        Value value;
+        if (!sealed.contains(block)) {
+            Instr phi = block.addPhi(new Instr(Op.PHI));
+            Map<Declaration, Instr> incomplete = incompletePhis.get(block);
+            if (incomplete == null) {
+                incomplete = new HashMap<Declaration, Instr>();
+                incompletePhis.put(block, incomplete);
+            }
+            incomplete.put(var, phi);
+            value = phi;
+        } else if (block.preds.size() == 1) {
+            value = readVariable(var, block.preds.get(0));
+        } else if (block.preds.isEmpty()) {
+            // Unreachable code, contextual analysis rejects reading a local before it is declared
+            value = new Constant(0);
+        } else {
+            // The phi is recorded first so a cycle through a loop finds it instead of recursing forever
+            Instr phi = block.addPhi(new Instr(Op.PHI));
+            writeVariable(var, block, phi);
+            value = addPhiOperands(var, phi);
+        }
+        value = resolve(value);
+        writeVariable(var, block, value);
+        return value;
+    }
+
+    private Value resolve(Value value) {
+        while (value instanceof Instr && replacedPhis.containsKey(value)) {
+            value = replacedPhis.get(value);
+        }
+        return value;
+    }
+
+    private Value addPhiOperands(Declaration var, Instr phi) {
+        for (BasicBlock pred : phi.block.preds) {
+            phi.addOperand(readVariable(var, pred));
+        }
+        return tryRemoveTrivialPhi(phi);
+    }
+
+    // A phi whose operands are all one value or the phi itself is replaced by that value
+    private Value tryRemoveTrivialPhi(Instr phi) {
+        Value same = phi.getUniqueValue();
+        if (same == null) {
+            return phi;
+        }
+
+        List<Instr> users = new ArrayList<Instr>(phi.users);
+        phi.replaceAllUsesWith(same);
+        phi.clearOperands();
+        phi.block.instrs.remove(phi);
+        phi.block = null;
+        replacedPhis.put(phi, same);
+
+        // Phis that used this one may have become trivial too, same itself among them when it is a phi in a cycle
+        for (Instr user : users) {
+            if (user != phi && user.op == Op.PHI && user.block != null) {
+                tryRemoveTrivialPhi(user);
+            }
+        }
+        return resolve(same);
+    }
+
+    private void seal(BasicBlock block) {
+        Map<Declaration, Instr> incomplete = incompletePhis.remove(block);
+        if (incomplete != null) {
+            for (Map.Entry<Declaration, Instr> entry : incomplete.entrySet()) {
+                addPhiOperands(entry.getKey(), entry.getValue());
+            }
+        }
+        sealed.add(block);
+    }
+
+    // Control flow
+
+    // Ends the current block with a jump to t when cond is true and to f otherwise
+    // && and || become branches, so no boolean is materialised for them
+    private void branchOn(Expression cond, BasicBlock t, BasicBlock f) {
+        if (cond instanceof LiteralExpr && ((LiteralExpr) cond).lit instanceof BooleanLiteral) {
+            boolean value = ((LiteralExpr) cond).lit.spelling.equals("true");
+            current.terminate(new Instr(Op.JUMP), value ? t : f);
+            return;
+        }
+        if (cond instanceof UnaryExpr && ((UnaryExpr) cond).operator.spelling.equals("!")) {
+            branchOn(((UnaryExpr) cond).expr, f, t);
+            return;
+        }
+        if (cond instanceof BinaryExpr) {
+            BinaryExpr expr = (BinaryExpr) cond;
+            String op = expr.operator.spelling;
+            if (op.equals("&&") || op.equals("||")) {
+                BasicBlock right = function.newBlock();
+                if (op.equals("&&")) {
+                    branchOn(expr.left, right, f);
+                } else {
+                    branchOn(expr.left, t, right);
+                }
+                seal(right);
+                current = right;
+                branchOn(expr.right, t, f);
+                return;
+            }
+        }
+        current.terminate(new Instr(Op.BRANCH, eval(cond)), t, f);
+    }
+
+    @Override public Object visitPackage(Package prog, Object arg) { return null; }
+    @Override public Object visitClassDecl(ClassDecl cd, Object arg) { return null; }
+    @Override public Object visitFieldDecl(FieldDecl fd, Object arg) { return null; }
+    @Override public Object visitMethodDecl(MethodDecl md, Object arg) { return null; }
+    @Override public Object visitParameterDecl(ParameterDecl pd, Object arg) { return null; }
+    @Override public Object visitVarDecl(VarDecl decl, Object arg) { return null; }
+    @Override public Object visitBaseType(BaseType type, Object arg) { return null; }
+    @Override public Object visitClassType(ClassType type, Object arg) { return null; }
+    @Override public Object visitArrayType(ArrayType type, Object arg) { return null; }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        for (Statement statement : stmt.sl) {
+            statement.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        writeVariable(stmt.varDecl, current, eval(stmt.initExp));
+        return null;
+    }
+
+    @Override
+    public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+        store(stmt.ref, eval(stmt.val));
+        return null;
+    }
+
+    @Override
+    public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+        // Like the code generator, only the object holding the array is evaluated before the value and the array is
+        // read from it after, so a call in the value that replaces the array stores into the new one
+        Value index = eval(stmt.ix);
+        Value object = holder(stmt.ref);
+        Value value = eval(stmt.exp);
+        Value array = stmt.ref instanceof QualRef ? loadField((QualRef) stmt.ref, object) : load(stmt.ref);
+        Instr store = new Instr(Op.STORE_ELEM, array, index, value);
+        store.needsBoundsCheck = stmt.needsBoundsCheck;
+        emit(store);
+        return null;
+    }
+
+    @Override
+    public Object visitCallStmt(CallStmt stmt, Object arg) {
+        call(stmt.methodRef, stmt.argList);
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+        Instr ret = new Instr(Op.RETURN);
+        if (stmt.returnExpr != null) {
+            ret.addOperand(eval(stmt.returnExpr));
+        }
+        emit(ret);
+        // Anything after the return is unreachable and goes into a block without predecessors
+        current = newSealedBlock();
+        return null;
+    }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        BasicBlock thenBlock = function.newBlock();
+        BasicBlock elseBlock = stmt.elseStmt != null ? function.newBlock() : null;
+        BasicBlock merge = function.newBlock();
+
+        branchOn(stmt.cond, thenBlock, elseBlock != null ? elseBlock : merge);
+        seal(thenBlock);
+        current = thenBlock;
+        stmt.thenStmt.visit(this, null);
+        current.terminate(new Instr(Op.JUMP), merge);
+
+        if (elseBlock != null) {
+            seal(elseBlock);
+            current = elseBlock;
+            stmt.elseStmt.visit(this, null);
+            current.terminate(new Instr(Op.JUMP), merge);
+        }
+        seal(merge);
+        current = merge;
+        return null;
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        // Tested once before the loop and again at the bottom of the body, so each iteration takes one branch
+        BasicBlock body = function.newBlock();
+        BasicBlock exit = function.newBlock();
+        branchOn(stmt.cond, body, exit);
+
+        current = body;
+        stmt.body.visit(this, null);
+        branchOn(stmt.cond, body, exit);
+
+        seal(body);
+        seal(exit);
+        current = exit;
+        return null;
+    }
+
+    // Expressions
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+        Value value = eval(expr.expr);
+        return emit(new Instr(expr.operator.spelling.equals("-") ? Op.NEG : Op.NOT, value));
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        String op = expr.operator.spelling;
+        if (op.equals("&&") || op.equals("||")) {
+            return shortCircuit(expr, op.equals("&&"));
+        }
+        Value left = eval(expr.left);
+        Value right = eval(expr.right);
+        return emit(new Instr(binaryOp(op), left, right));
+    }
+
+    // The right operand is only evaluated when the left one does not decide the result
+    private Value shortCircuit(BinaryExpr expr, boolean isAnd) {
+        BasicBlock right = function.newBlock();
+        BasicBlock merge = function.newBlock();
+
+        Value leftValue = eval(expr.left);
+        BasicBlock leftEnd = current;
+        if (isAnd) {
+            leftEnd.terminate(new Instr(Op.BRANCH, leftValue), right, merge);
+        } else {
+            leftEnd.terminate(new Instr(Op.BRANCH, leftValue), merge, right);
+        }
+        seal(right);
+        current = right;
+        Value rightValue = eval(expr.right);
+        current.terminate(new Instr(Op.JUMP), merge);
+        seal(merge);
+        current = merge;
+
+        Instr phi = merge.addPhi(new Instr(Op.PHI));
+        for (BasicBlock pred : merge.preds) {
+            phi.addOperand(pred == leftEnd ? new Constant(isAnd ? 0 : 1) : rightValue);
+        }
+        return phi;
+    }
+
+    private static Op binaryOp(String op) {
+        switch (op) {
+            case "+": return Op.ADD;
+            case "-": return Op.SUB;
+            case "*": return Op.MUL;
+            case "/": return Op.DIV;
+            case "<": return Op.LT;
+            case "<=": return Op.LTE;
+            case ">": return Op.GT;
+            case ">=": return Op.GTE;
+            case "==": return Op.EQ;
+            default: return Op.NE;
+        }
+    }
+
+    @Override
+    public Object visitRefExpr(RefExpr expr, Object arg) {
+        return load(expr.ref);
+    }
+
+    @Override
+    public Object visitIxExpr(IxExpr expr, Object arg) {
+        Value index = eval(expr.ixExpr);
+        Value array = load(expr.ref);
+        Instr load = new Instr(Op.LOAD_ELEM, array, index);
+        load.needsBoundsCheck = expr.needsBoundsCheck;
+        return emit(load);
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr, Object arg) {
+        return call(expr.functionRef, expr.argList);
+    }
+
+    @Override
+    public Object visitLiteralExpr(LiteralExpr expr, Object arg) {
+        if (expr.lit instanceof IntLiteral) {
+            return new Constant(Long.parseLong(expr.lit.spelling));
+        }
+        if (expr.lit instanceof BooleanLiteral) {
+            return new Constant(expr.lit.spelling.equals("true") ? 1 : 0);
+        }
+        return new Constant(0);
+    }
+
+    @Override
+    public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) {
+        return emit(new Instr(Op.NEW_OBJECT, expr.classtype.className.declaration));
+    }
+
+    @Override
+    public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        return emit(new Instr(Op.NEW_ARRAY, eval(expr.sizeExpr)));
+    }
+
+    // Arguments are evaluated last to first and the receiver after them, as CodeGenerator pushes them
+    private Instr call(Reference methodRef, ExprList argList) {
+        MethodDecl method = (MethodDecl) (methodRef instanceof QualRef ? ((QualRef) methodRef).id : ((IdRef) methodRef).id).declaration;
+        if (method == printlnMethodDecl) {
+            // System.out is set at startup and println does not look at it
+            return emit(new Instr(Op.PRINT, eval(argList.get(0))));
+        }
+
+        Value[] args = new Value[argList.size()];
+        for (int i = args.length - 1; i >= 0; i--) {
+            args[i] = eval(argList.get(i));
+        }
+        Instr call = new Instr(Op.CALL, method, args);
+        if (!method.isStatic) {
+            call.addOperand(methodRef instanceof QualRef ? load(((QualRef) methodRef).ref) : thisValue);
+        }
+        return emit(call);
+    }
+
+    // References
+
+    private Value load(Reference ref) {
+        if (ref instanceof ThisRef) {
+            return thisValue;
+        }
+        if (ref instanceof IdRef) {
+            Declaration decl = ((IdRef) ref).id.declaration;
+            if (decl instanceof LocalDecl) {
+                return readVariable(decl, current);
+            }
+            if (((FieldDecl) decl).isStatic) {
+                return emit(new Instr(Op.LOAD_STATIC, decl));
+            }
+            return emit(new Instr(Op.LOAD_FIELD, decl, thisValue));
+        }
+        QualRef qualRef = (QualRef) ref;
+        return loadField(qualRef, holder(qualRef));
+    }
+
+    // The object whose field a qualified reference names, null for locals and static fields
+    private Value holder(Reference ref) {
+        if (!(ref instanceof QualRef)) {
+            return null;
+        }
+        QualRef qualRef = (QualRef) ref;
+        if (((FieldDecl) qualRef.id.declaration).isStatic) {
+            evalQualifier(qualRef);
+            return null;
+        }
+        return load(qualRef.ref);
+    }
+
+    private Value loadField(QualRef ref, Value object) {
+        FieldDecl field = (FieldDecl) ref.id.declaration;
+        if (field.isStatic) {
+            return emit(new Instr(Op.LOAD_STATIC, field));
+        }
+        return emit(new Instr(Op.LOAD_FIELD, field, object));
+    }
+
+    private void store(Reference ref, Value value) {
+        if (ref instanceof IdRef) {
+            Declaration decl = ((IdRef) ref).id.declaration;
+            if (decl instanceof LocalDecl) {
+                writeVariable(decl, current, value);
+            } else if (((FieldDecl) decl).isStatic) {
+                emit(new Instr(Op.STORE_STATIC, decl, value));
+            } else {
+                emit(new Instr(Op.STORE_FIELD, decl, thisValue, value));
+            }
+            return;
+        }
+        QualRef qualRef = (QualRef) ref;
+        FieldDecl field = (FieldDecl) qualRef.id.declaration;
+        if (field.isStatic) {
+            evalQualifier(qualRef);
+            emit(new Instr(Op.STORE_STATIC, field, value));
+        } else {
+            emit(new Instr(Op.STORE_FIELD, field, load(qualRef.ref), value));
+        }
+    }
+
+    // An object in front of a static field is still evaluated, a class name is not
+    private void evalQualifier(QualRef ref) {
+        if (!(ref.ref instanceof IdRef && ((IdRef) ref.ref).id.declaration instanceof ClassDecl)) {
+            load(ref.ref);
+        }
+    }
+
+    @Override public Object visitThisRef(ThisRef ref, Object arg) { return null; }
+    @Override public Object visitIdRef(IdRef ref, Object arg) { return null; }
+    @Override public Object visitQRef(QualRef ref, Object arg) { return null; }
+    @Override public Object visitIdentifier(Identifier id, Object arg) { return null; }
+    @Override public Object visitOperator(Operator op, Object arg) { return null; }
+    @Override public Object visitIntLiteral(IntLiteral num, Object arg) { return null; }
+    @Override public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) { return null; }
+    @Override public Object visitNullLiteral(NullLiteral num, Object arg) { return null; }
+}
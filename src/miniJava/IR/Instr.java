@@ -0,0 +1,127 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import miniJava.AbstractSyntaxTrees.Declaration;
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.AbstractSyntaxTrees.TypeKind;
+
+// One three address instruction, it is also the SSA value it defines
+// Operands are only changed through setOperand/addOperand/removeOperand so Value.users stays in sync
+public class Instr extends Value {
+    public final Op op;
+    public final List<Value> operands = new ArrayList<Value>();
+    // Successors of a JUMP or BRANCH
+    public final List<BasicBlock> targets = new ArrayList<BasicBlock>();
+    // Field, method, class or parameter the instruction refers to
+    public Declaration decl;
+    // Element loads and stores keep their bounds check unless the AST access was proven in range
+    public boolean needsBoundsCheck = true;
+    public BasicBlock block;
+    // Set by Function.number, used to print the instruction
+    public int id;
+
+    public Instr(Op op, Value... operands) {
+        this.op = op;
+        for (Value operand : operands) {
+            addOperand(operand);
+        }
+    }
+
+    public Instr(Op op, Declaration decl, Value... operands) {
+        this(op, operands);
+        this.decl = decl;
+    }
+
+    public Value getOperand(int i) {
+        return operands.get(i);
+    }
+
+    public void setOperand(int i, Value value) {
+        operands.get(i).users.remove(this);
+        operands.set(i, value);
+        value.users.add(this);
+    }
+
+    public void addOperand(Value value) {
+        operands.add(value);
+        value.users.add(this);
+    }
+
+    public void removeOperand(int i) {
+        operands.remove(i).users.remove(this);
+    }
+
+    // Drops every operand, for instructions that are being deleted
+    public void clearOperands() {
+        while (!operands.isEmpty()) {
+            removeOperand(operands.size() - 1);
+        }
+    }
+
+    // For a phi, the one value it merges apart from itself, or null when it merges several
+    // A phi that only merges itself is never defined and yields 0
+    public Value getUniqueValue() {
+        Value same = null;
+        for (Value operand : operands) {
+            if (operand == this || (same != null && sameValue(operand, same))) {
+                continue;
+            }
+            if (same != null) {
+                return null;
+            }
+            same = operand;
+        }
+        return same != null ? same : new Constant(0);
+    }
+
+    private static boolean sameValue(Value a, Value b) {
+        if (a instanceof Constant && b instanceof Constant) {
+            return ((Constant) a).value == ((Constant) b).value;
+        }
+        return a == b;
+    }
+
+    public boolean hasResult() {
+        switch (op) {
+            case STORE_FIELD: case STORE_STATIC: case STORE_ELEM: case PRINT:
+            case JUMP: case BRANCH: case RETURN:
+                return false;
+            case CALL:
+                return ((MethodDecl) decl).type.typeKind != TypeKind.VOID;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "%" + id;
+    }
+
+    // The whole instruction, as Function prints it
+    public String format() {
+        StringBuilder s = new StringBuilder();
+        if (hasResult()) {
+            s.append(this).append(" = ");
+        }
+        s.append(op.name().toLowerCase());
+        if (decl != null) {
+            s.append(' ').append(decl.name);
+        }
+        for (int i = 0; i < operands.size(); i++) {
+            s.append(i == 0 ? " " : ", ").append(operands.get(i));
+            if (op == Op.PHI) {
+                s.append(" from ").append(block.preds.get(i));
+            }
+        }
+        for (BasicBlock target : targets) {
+            s.append(' ').append(target);
+        }
+        if ((op == Op.LOAD_ELEM || op == Op.STORE_ELEM) && !needsBoundsCheck) {
+            s.append(" unchecked");
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,251 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import miniJava.AbstractSyntaxTrees.Declaration;
+
+// Loop-invariant code motion and strength reduction
+// Loops are found from their back edges, an edge to a block no later in reverse postorder, which is exact here
+// since while statements only produce reducible control flow
+// The preheader is the block that enters the loop: IRBuilder rotates while loops so their guard branches into the
+// body, and splitting that critical edge leaves a block that runs exactly once before the first iteration
+//   Arithmetic whose operands do not change in the loop moves to the preheader
+//   Field, static and element loads move too when the loop stores to no such location and makes no call
+//   Instructions that can fault (loads, division) only move from the start of the loop body, before anything with a
+//   side effect, so they fault at the same point as before, fields of this cannot fault
+//   i*k, with i stepping by a constant and k invariant, becomes a value of its own that steps by the constant times k
+// Inner loops are done first, so what they hoist can move further out of the loops around them
+public class LoopOptimizer {
+    private int numChanged;
+
+    private static class Loop {
+        BasicBlock header;
+        // In reverse postorder
+        List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+        Set<BasicBlock> blockSet = new HashSet<BasicBlock>();
+    }
+
+    // Returns how many instructions were hoisted or reduced
+    public int optimize(Function function) {
+        numChanged = 0;
+        function.splitCriticalEdges();
+        List<Loop> loops = findLoops(function.reversePostorder());
+        Collections.sort(loops, new Comparator<Loop>() {
+            @Override
+            public int compare(Loop a, Loop b) {
+                return a.blocks.size() - b.blocks.size();
+            }
+        });
+        for (Loop loop : loops) {
+            BasicBlock preheader = getPreheader(loop);
+            if (preheader != null) {
+                hoist(loop, preheader);
+                reduce(loop, preheader);
+            }
+        }
+        return numChanged;
+    }
+
+    private static List<Loop> findLoops(List<BasicBlock> order) {
+        Map<BasicBlock, Integer> index = new HashMap<BasicBlock, Integer>();
+        for (int i = 0; i < order.size(); i++) {
+            index.put(order.get(i), i);
+        }
+        Map<BasicBlock, Loop> loops = new HashMap<BasicBlock, Loop>();
+        for (BasicBlock block : order) {
+            for (BasicBlock succ : block.getSuccs()) {
+                if (index.get(succ) > index.get(block)) {
+                    continue;
+                }
+                // block -> succ is a back edge, the loop is succ and everything reaching block without passing succ
+                Loop loop = loops.get(succ);
+                if (loop == null) {
+                    loop = new Loop();
+                    loop.header = succ;
+                    loop.blockSet.add(succ);
+                    loops.put(succ, loop);
+                }
+                List<BasicBlock> worklist = new ArrayList<BasicBlock>();
+                if (loop.blockSet.add(block)) {
+                    worklist.add(block);
+                }
+                while (!worklist.isEmpty()) {
+                    for (BasicBlock pred : worklist.remove(worklist.size() - 1).preds) {
+                        if (index.containsKey(pred) && loop.blockSet.add(pred)) {
+                            worklist.add(pred);
+                        }
+                    }
+                }
+            }
+        }
+        for (Loop loop : loops.values()) {
+            for (BasicBlock block : order) {
+                if (loop.blockSet.contains(block)) {
+                    loop.blocks.add(block);
+                }
+            }
+        }
+        return new ArrayList<Loop>(loops.values());
+    }
+
+    // The only block outside the loop that enters it, when it has nowhere else to go
+    private static BasicBlock getPreheader(Loop loop) {
+        BasicBlock preheader = null;
+        for (BasicBlock pred : loop.header.preds) {
+            if (loop.blockSet.contains(pred)) {
+                continue;
+            }
+            if (preheader != null) {
+                return null;
+            }
+            preheader = pred;
+        }
+        return preheader != null && preheader.getSuccs().size() == 1 ? preheader : null;
+    }
+
+    private static boolean isInvariant(Value value, Loop loop) {
+        return value instanceof Constant || !loop.blockSet.contains(((Instr) value).block);
+    }
+
+    private void hoist(Loop loop, BasicBlock preheader) {
+        boolean hasCall = false;
+        boolean storesElements = false;
+        Set<Declaration> storedFields = new HashSet<Declaration>();
+        for (BasicBlock block : loop.blocks) {
+            for (Instr instr : block.instrs) {
+                if (instr.op == Op.CALL) {
+                    hasCall = true;
+                } else if (instr.op == Op.STORE_FIELD || instr.op == Op.STORE_STATIC) {
+                    storedFields.add(instr.decl);
+                } else if (instr.op == Op.STORE_ELEM) {
+                    storesElements = true;
+                }
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : loop.blocks) {
+                // Faulting instructions may only move while nothing with a side effect ran before them
+                boolean atStart = block == loop.header;
+                for (Instr instr : new ArrayList<Instr>(block.instrs)) {
+                    boolean movable;
+                    switch (instr.op) {
+                        case ADD: case SUB: case MUL: case NEG: case NOT:
+                        case LT: case LTE: case GT: case GTE: case EQ: case NE:
+                            movable = true;
+                            break;
+                        case DIV:
+                            movable = atStart;
+                            break;
+                        case LOAD_STATIC:
+                            movable = !hasCall && !storedFields.contains(instr.decl);
+                            break;
+                        case LOAD_FIELD:
+                            movable = (atStart || instr.getOperand(0) instanceof Instr && ((Instr) instr.getOperand(0)).op == Op.THIS)
+                                && !hasCall && !storedFields.contains(instr.decl);
+                            break;
+                        case LOAD_ELEM:
+                            movable = atStart && !hasCall && !storesElements;
+                            break;
+                        default:
+                            movable = false;
+                    }
+                    for (Value operand : instr.operands) {
+                        movable = movable && isInvariant(operand, loop);
+                    }
+
+                    if (movable) {
+                        block.instrs.remove(instr);
+                        preheader.addBeforeTerminator(instr);
+                        numChanged++;
+                        changed = true;
+                    } else if (instr.op.hasSideEffects()) {
+                        atStart = false;
+                    }
+                }
+            }
+        }
+    }
+
+    // For a phi i = phi(init, i + c) in the header, every i*k in the loop becomes j = phi(init*k, j + c*k)
+    private void reduce(Loop loop, BasicBlock preheader) {
+        BasicBlock header = loop.header;
+        if (header.preds.size() != 2) {
+            return;
+        }
+        int entry = header.preds.indexOf(preheader);
+        int back = 1 - entry;
+        for (Instr phi : header.getPhis()) {
+            if (!(phi.getOperand(back) instanceof Instr)) {
+                continue;
+            }
+            Instr step = (Instr) phi.getOperand(back);
+            Constant stride = getStride(step, phi);
+            if (stride == null) {
+                continue;
+            }
+            // One reduced phi for every distinct factor, so repeated i*k share it
+            Map<Object, Instr> reducedByFactor = new HashMap<Object, Instr>();
+            for (Instr user : new ArrayList<Instr>(phi.users)) {
+                if (user.op != Op.MUL || !loop.blockSet.contains(user.block)) {
+                    continue;
+                }
+                Value factor = user.getOperand(0) == phi ? user.getOperand(1) : user.getOperand(0);
+                if (factor == phi || !isInvariant(factor, loop)) {
+                    continue;
+                }
+
+                Object key = factor instanceof Constant ? (Object) ((Constant) factor).value : factor;
+                Instr reduced = reducedByFactor.get(key);
+                if (reduced == null) {
+                    Value init = multiply(phi.getOperand(entry), factor, preheader);
+                    Value scaledStride = multiply(stride, factor, preheader);
+                    reduced = header.addPhi(new Instr(Op.PHI));
+                    Instr next = step.block.addAfter(step, new Instr(step.op, reduced, scaledStride));
+                    for (int i = 0; i < header.preds.size(); i++) {
+                        reduced.addOperand(i == entry ? init : next);
+                    }
+                    reducedByFactor.put(key, reduced);
+                }
+
+                user.replaceAllUsesWith(reduced);
+                user.clearOperands();
+                user.block.instrs.remove(user);
+                user.block = null;
+                numChanged++;
+            }
+        }
+    }
+
+    // c when step is i + c, c + i or i - c for a constant c, otherwise null
+    private static Constant getStride(Instr step, Instr phi) {
+        if (step.op == Op.ADD) {
+            if (step.getOperand(0) == phi && step.getOperand(1) instanceof Constant) {
+                return (Constant) step.getOperand(1);
+            }
+            if (step.getOperand(1) == phi && step.getOperand(0) instanceof Constant) {
+                return (Constant) step.getOperand(0);
+            }
+        } else if (step.op == Op.SUB && step.getOperand(0) == phi && step.getOperand(1) instanceof Constant) {
+            return (Constant) step.getOperand(1);
+        }
+        return null;
+    }
+
+    // a*b, folded when both are constants and computed in the preheader otherwise
+    private static Value multiply(Value a, Value b, BasicBlock preheader) {
+        if (a instanceof Constant && b instanceof Constant) {
+            return new Constant(((Constant) a).value * ((Constant) b).value);
+        }
+        return preheader.addBeforeTerminator(new Instr(Op.MUL, a, b));
+    }
+}
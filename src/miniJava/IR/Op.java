@@ -0,0 +1,48 @@
+package miniJava.IR;
+
+// What an instruction does, operands are listed in the order they are kept in Instr.operands
+public enum Op {
+    // Integer arithmetic on 64 bit values, comparisons produce 0 or 1
+    ADD, SUB, MUL, DIV, NEG, NOT,
+    LT, LTE, GT, GTE, EQ, NE,
+
+    PARAM,        // value of parameter decl on entry
+    THIS,         // the receiver of an instance method
+    PHI,          // one operand per predecessor of the block, in the same order
+
+    LOAD_FIELD,   // object, decl is the field
+    STORE_FIELD,  // object, value
+    LOAD_STATIC,  // decl is the static field
+    STORE_STATIC, // value
+    LOAD_ELEM,    // array, index, bounds checked unless needsBoundsCheck is cleared
+    STORE_ELEM,   // array, index, value, checked the same way
+    NEW_OBJECT,   // decl is the class
+    NEW_ARRAY,    // length
+    CALL,         // arguments, then the receiver for instance methods, decl is the method
+    PRINT,        // value, System.out.println
+
+    JUMP,         // targets[0]
+    BRANCH,       // condition, to targets[0] when it is not 0 and targets[1] otherwise
+    RETURN;       // the returned value if there is one
+
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == RETURN;
+    }
+
+    public boolean isComparison() {
+        return this == LT || this == LTE || this == GT || this == GTE || this == EQ || this == NE;
+    }
+
+    // Whether the instruction does something besides producing its result
+    // Loads are included since they fault on null or reading past the heap
+    public boolean hasSideEffects() {
+        switch (this) {
+            case STORE_FIELD: case STORE_STATIC: case STORE_ELEM: case CALL: case PRINT:
+            case JUMP: case BRANCH: case RETURN:
+            case DIV: case LOAD_FIELD: case LOAD_ELEM:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package miniJava.IR;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Anything an instruction can take as an operand: a constant or the result of another instruction
+public abstract class Value {
+    // Instructions using this value, once for every operand that refers to it
+    public final List<Instr> users = new ArrayList<Instr>();
+
+    // Makes every user refer to value instead
+    public void replaceAllUsesWith(Value value) {
+        for (Instr user : new ArrayList<Instr>(users)) {
+            for (int i = 0; i < user.operands.size(); i++) {
+                if (user.operands.get(i) == this) {
+                    user.setOperand(i, value);
+                }
+            }
+        }
+    }
+}
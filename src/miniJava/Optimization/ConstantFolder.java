@@ -0,0 +1,323 @@
+package miniJava.Optimization;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.SyntacticAnalyzer.SourcePosition;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+// Folds constant subexpressions, replaces locals that are initialised with a constant and never assigned
+// by that constant, and drops if/while statements whose condition is constant
+// Runs after contextual analysis, so identifiers already point at their declarations
+// Integers are folded with the 64 bit arithmetic the generated code uses, and only when the result fits in an int literal
+//
+// Expression visits return the expression that replaces the visited one, statement visits the statement
+public class ConstantFolder implements Visitor<Object, Object> {
+    // Locals that appear on the left of an assignment somewhere in the current method
+    private Set<VarDecl> assignedLocals = new HashSet<VarDecl>();
+    private Map<VarDecl, Expression> constantLocals = new HashMap<VarDecl, Expression>();
+    private int numFolded = 0;
+
+    // Rewrites the tree in place, returns how many expressions and statements were replaced
+    public int fold(Package prog) {
+        prog.visit(this, null);
+        return numFolded;
+    }
+
+    private Expression fold(Expression expr) {
+        return (Expression) expr.visit(this, null);
+    }
+
+    private void foldStatements(StatementList statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            statements.set(i, (Statement) statements.get(i).visit(this, null));
+        }
+    }
+
+    private void foldArguments(ExprList args) {
+        for (int i = 0; i < args.size(); i++) {
+            args.set(i, fold(args.get(i)));
+        }
+    }
+
+    private void collectAssignedLocals(Statement stmt) {
+        if (stmt instanceof AssignStmt) {
+            Reference ref = ((AssignStmt) stmt).ref;
+            if (ref instanceof IdRef && ((IdRef) ref).id.declaration instanceof VarDecl) {
+                assignedLocals.add((VarDecl) ((IdRef) ref).id.declaration);
+            }
+        } else if (stmt instanceof BlockStmt) {
+            for (Statement s : ((BlockStmt) stmt).sl) {
+                collectAssignedLocals(s);
+            }
+        } else if (stmt instanceof IfStmt) {
+            collectAssignedLocals(((IfStmt) stmt).thenStmt);
+            if (((IfStmt) stmt).elseStmt != null) {
+                collectAssignedLocals(((IfStmt) stmt).elseStmt);
+            }
+        } else if (stmt instanceof WhileStmt) {
+            collectAssignedLocals(((WhileStmt) stmt).body);
+        }
+    }
+
+    @Override
+    public Object visitPackage(Package prog, Object arg) {
+        for (ClassDecl classDecl : prog.classDeclList) {
+            classDecl.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitClassDecl(ClassDecl cd, Object arg) {
+        for (MethodDecl methodDecl : cd.methodDeclList) {
+            methodDecl.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override public Object visitFieldDecl(FieldDecl fd, Object arg) { return null; }
+
+    @Override
+    public Object visitMethodDecl(MethodDecl md, Object arg) {
+        assignedLocals.clear();
+        constantLocals.clear();
+        for (Statement statement : md.statementList) {
+            collectAssignedLocals(statement);
+        }
+        foldStatements(md.statementList);
+        return null;
+    }
+
+    @Override public Object visitParameterDecl(ParameterDecl pd, Object arg) { return null; }
+    @Override public Object visitVarDecl(VarDecl decl, Object arg) { return null; }
+    @Override public Object visitBaseType(BaseType type, Object arg) { return null; }
+    @Override public Object visitClassType(ClassType type, Object arg) { return null; }
+    @Override public Object visitArrayType(ArrayType type, Object arg) { return null; }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        foldStatements(stmt.sl);
+        return stmt;
+    }
+
+    @Override
+    public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        stmt.initExp = fold(stmt.initExp);
+        if ((intValue(stmt.initExp) != null || booleanValue(stmt.initExp) != null) && !assignedLocals.contains(stmt.varDecl)) {
+            constantLocals.put(stmt.varDecl, stmt.initExp);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+        stmt.val = fold(stmt.val);
+        return stmt;
+    }
+
+    @Override
+    public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+        stmt.ix = fold(stmt.ix);
+        stmt.exp = fold(stmt.exp);
+        return stmt;
+    }
+
+    @Override
+    public Object visitCallStmt(CallStmt stmt, Object arg) {
+        foldArguments(stmt.argList);
+        return stmt;
+    }
+
+    @Override
+    public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+        if (stmt.returnExpr != null) {
+            stmt.returnExpr = fold(stmt.returnExpr);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        stmt.cond = fold(stmt.cond);
+        stmt.thenStmt = (Statement) stmt.thenStmt.visit(this, null);
+        if (stmt.elseStmt != null) {
+            stmt.elseStmt = (Statement) stmt.elseStmt.visit(this, null);
+        }
+
+        Boolean cond = booleanValue(stmt.cond);
+        if (cond == null) {
+            return stmt;
+        }
+        numFolded++;
+        if (cond) {
+            return stmt.thenStmt;
+        }
+        return stmt.elseStmt != null ? stmt.elseStmt : emptyStatement(stmt.posn);
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        stmt.cond = fold(stmt.cond);
+        if (Boolean.FALSE.equals(booleanValue(stmt.cond))) {
+            numFolded++;
+            return emptyStatement(stmt.posn);
+        }
+        stmt.body = (Statement) stmt.body.visit(this, null);
+        return stmt;
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+        expr.expr = fold(expr.expr);
+        Expression folded = null;
+        if (expr.operator.spelling.equals("-")) {
+            Long value = intValue(expr.expr);
+            folded = value == null ? null : intLiteral(-value, expr.posn);
+        } else if (expr.operator.spelling.equals("!")) {
+            Boolean value = booleanValue(expr.expr);
+            folded = value == null ? null : booleanLiteral(!value, expr.posn);
+        }
+        return replace(expr, folded);
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        expr.left = fold(expr.left);
+        expr.right = fold(expr.right);
+        String op = expr.operator.spelling;
+        SourcePosition posn = expr.posn;
+
+        Long leftInt = intValue(expr.left);
+        Long rightInt = intValue(expr.right);
+        if (leftInt != null && rightInt != null) {
+            long l = leftInt;
+            long r = rightInt;
+            switch (op) {
+                case "+": return replace(expr, intLiteral(l + r, posn));
+                case "-": return replace(expr, intLiteral(l - r, posn));
+                case "*": return replace(expr, intLiteral(l * r, posn));
+                // division by zero is left to fault at run time
+                case "/": return r == 0 ? expr : replace(expr, intLiteral(l / r, posn));
+                case "<": return replace(expr, booleanLiteral(l < r, posn));
+                case ">": return replace(expr, booleanLiteral(l > r, posn));
+                case "<=": return replace(expr, booleanLiteral(l <= r, posn));
+                case ">=": return replace(expr, booleanLiteral(l >= r, posn));
+                case "==": return replace(expr, booleanLiteral(l == r, posn));
+                case "!=": return replace(expr, booleanLiteral(l != r, posn));
+                default: return expr;
+            }
+        }
+
+        Boolean leftBool = booleanValue(expr.left);
+        Boolean rightBool = booleanValue(expr.right);
+        if (leftBool != null && rightBool != null) {
+            switch (op) {
+                case "==": return replace(expr, booleanLiteral(leftBool == rightBool, posn));
+                case "!=": return replace(expr, booleanLiteral(leftBool != rightBool, posn));
+            }
+        }
+        // A constant left operand decides && and || on its own or leaves just the right operand
+        if (leftBool != null && op.equals("&&")) {
+            return replace(expr, leftBool ? expr.right : expr.left);
+        }
+        if (leftBool != null && op.equals("||")) {
+            return replace(expr, leftBool ? expr.left : expr.right);
+        }
+        return expr;
+    }
+
+    @Override
+    public Object visitRefExpr(RefExpr expr, Object arg) {
+        if (expr.ref instanceof IdRef && ((IdRef) expr.ref).id.declaration instanceof VarDecl) {
+            Expression constant = constantLocals.get(((IdRef) expr.ref).id.declaration);
+            if (constant != null) {
+                Long value = intValue(constant);
+                return replace(expr, value != null ? intLiteral(value, expr.posn) : booleanLiteral(booleanValue(constant), expr.posn));
+            }
+        }
+        return expr;
+    }
+
+    @Override
+    public Object visitIxExpr(IxExpr expr, Object arg) {
+        expr.ixExpr = fold(expr.ixExpr);
+        return expr;
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr, Object arg) {
+        foldArguments(expr.argList);
+        return expr;
+    }
+
+    @Override public Object visitLiteralExpr(LiteralExpr expr, Object arg) { return expr; }
+    @Override public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) { return expr; }
+
+    @Override
+    public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        expr.sizeExpr = fold(expr.sizeExpr);
+        return expr;
+    }
+
+    @Override public Object visitThisRef(ThisRef ref, Object arg) { return null; }
+    @Override public Object visitIdRef(IdRef ref, Object arg) { return null; }
+    @Override public Object visitQRef(QualRef ref, Object arg) { return null; }
+    @Override public Object visitIdentifier(Identifier id, Object arg) { return null; }
+    @Override public Object visitOperator(Operator op, Object arg) { return null; }
+    @Override public Object visitIntLiteral(IntLiteral num, Object arg) { return null; }
+    @Override public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) { return null; }
+    @Override public Object visitNullLiteral(NullLiteral num, Object arg) { return null; }
+
+    private Expression replace(Expression original, Expression folded) {
+        if (folded == null || folded == original) {
+            return original;
+        }
+        numFolded++;
+        return folded;
+    }
+
+    private static Long intValue(Expression expr) {
+        if (expr instanceof LiteralExpr && ((LiteralExpr) expr).lit instanceof IntLiteral) {
+            try {
+                return Long.parseLong(((LiteralExpr) expr).lit.spelling);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static Boolean booleanValue(Expression expr) {
+        if (expr instanceof LiteralExpr && ((LiteralExpr) expr).lit instanceof BooleanLiteral) {
+            return ((LiteralExpr) expr).lit.spelling.equals("true");
+        }
+        return null;
+    }
+
+    // null if the value does not fit in an int literal
+    private static Expression intLiteral(long value, SourcePosition posn) {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return null;
+        }
+        LiteralExpr literal = new LiteralExpr(new IntLiteral(new Token(TokenType.Num, Long.toString(value), posn)), posn);
+        literal.type = new BaseType(TypeKind.INT, posn);
+        return literal;
+    }
+
+    private static Expression booleanLiteral(boolean value, SourcePosition posn) {
+        TokenType kind = value ? TokenType.TrueKeyword : TokenType.FalseKeyword;
+        LiteralExpr literal = new LiteralExpr(new BooleanLiteral(new Token(kind, value ? "true" : "false", posn)), posn);
+        literal.type = new BaseType(TypeKind.BOOLEAN, posn);
+        return literal;
+    }
+
+    private static Statement emptyStatement(SourcePosition posn) {
+        return new BlockStmt(new StatementList(), posn);
+    }
+}
@@ -0,0 +1,271 @@
+package miniJava.Optimization;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+
+// Removes statements that can never run, and assignments to locals that are never read
+//   Statements after one that never completes normally are unreachable: a return, a block or if/else
+//   ending in one, or while (true) which has no way out but a return
+//   An assignment to a local that no expression reads is dropped when its value has no side effects, or kept as a
+//   call statement when the value is a call, and the declaration goes with it once no assignment is left
+// Runs after constant folding, so if (false) and while (false) are already gone and while (true) is visible
+// The IR backend does the same on the control flow graph in miniJava.IR.DeadCodeEliminator
+//
+// Statement visits return the statement that replaces the visited one, null when it is removed
+public class DeadStatementEliminator implements Visitor<Object, Object> {
+    // Locals of the current method read somewhere, and those that must stay because an assignment to them stays
+    private Set<Declaration> readLocals = new HashSet<Declaration>();
+    private Set<Declaration> keptLocals = new HashSet<Declaration>();
+    private int numRemoved = 0;
+
+    // Rewrites the tree in place, returns how many statements were removed
+    public int eliminate(Package prog) {
+        prog.visit(this, null);
+        return numRemoved;
+    }
+
+    private StatementList rewriteStatements(StatementList statements) {
+        StatementList rewritten = new StatementList();
+        for (int i = 0; i < statements.size(); i++) {
+            Statement statement = (Statement) statements.get(i).visit(this, null);
+            if (statement == null) {
+                numRemoved++;
+                continue;
+            }
+            rewritten.add(statement);
+            if (neverCompletes(statement)) {
+                numRemoved += statements.size() - i - 1;
+                break;
+            }
+        }
+        return rewritten;
+    }
+
+    // A statement on its own as a branch or loop body cannot just disappear
+    private Statement rewriteNested(Statement stmt) {
+        Statement rewritten = (Statement) stmt.visit(this, null);
+        return rewritten != null ? rewritten : new BlockStmt(new StatementList(), stmt.posn);
+    }
+
+    private static boolean neverCompletes(Statement stmt) {
+        if (stmt instanceof ReturnStmt) {
+            return true;
+        } else if (stmt instanceof BlockStmt) {
+            StatementList sl = ((BlockStmt) stmt).sl;
+            return sl.size() > 0 && neverCompletes(sl.get(sl.size() - 1));
+        } else if (stmt instanceof IfStmt) {
+            IfStmt ifStmt = (IfStmt) stmt;
+            return ifStmt.elseStmt != null && neverCompletes(ifStmt.thenStmt) && neverCompletes(ifStmt.elseStmt);
+        } else if (stmt instanceof WhileStmt) {
+            Expression cond = ((WhileStmt) stmt).cond;
+            return cond instanceof LiteralExpr && ((LiteralExpr) cond).lit.spelling.equals("true");
+        }
+        return false;
+    }
+
+    // Whether evaluating expr can be skipped without changing what the program does, including faulting
+    private static boolean isRemovable(Expression expr) {
+        if (expr instanceof LiteralExpr || expr instanceof NewObjectExpr) {
+            return true;
+        } else if (expr instanceof RefExpr) {
+            return !(((RefExpr) expr).ref instanceof QualRef);
+        } else if (expr instanceof UnaryExpr) {
+            return isRemovable(((UnaryExpr) expr).expr);
+        } else if (expr instanceof BinaryExpr) {
+            BinaryExpr binary = (BinaryExpr) expr;
+            if (binary.operator.spelling.equals("/") && !isNonZeroLiteral(binary.right)) {
+                return false;
+            }
+            return isRemovable(binary.left) && isRemovable(binary.right);
+        }
+        return false;
+    }
+
+    private static boolean isNonZeroLiteral(Expression expr) {
+        return expr instanceof LiteralExpr && ((LiteralExpr) expr).lit instanceof IntLiteral
+            && !((LiteralExpr) expr).lit.spelling.matches("0+");
+    }
+
+    // The local an assignment writes without reading it, null if it writes something else
+    private static Declaration assignedLocal(Reference ref) {
+        if (ref instanceof IdRef && ((IdRef) ref).id.declaration instanceof LocalDecl) {
+            return ((IdRef) ref).id.declaration;
+        }
+        return null;
+    }
+
+    // What replaces an assignment of value to decl, this when it stays
+    private Statement dropAssignment(Statement stmt, Declaration decl, Expression value) {
+        if (readLocals.contains(decl) || keptLocals.contains(decl)) {
+            return stmt;
+        }
+        if (value instanceof CallExpr) {
+            return new CallStmt(((CallExpr) value).functionRef, ((CallExpr) value).argList, stmt.posn);
+        }
+        return null;
+    }
+
+    // Fills readLocals and keptLocals for the statements of a method
+    private void collectLocals(AST node) {
+        if (node instanceof BlockStmt) {
+            for (Statement statement : ((BlockStmt) node).sl) {
+                collectLocals(statement);
+            }
+        } else if (node instanceof VarDeclStmt) {
+            VarDeclStmt stmt = (VarDeclStmt) node;
+            collectAssignment(stmt.varDecl, stmt.initExp);
+        } else if (node instanceof AssignStmt) {
+            AssignStmt stmt = (AssignStmt) node;
+            Declaration local = assignedLocal(stmt.ref);
+            if (local == null) {
+                collectLocals(stmt.ref);
+            }
+            collectAssignment(local, stmt.val);
+        } else if (node instanceof IxAssignStmt) {
+            IxAssignStmt stmt = (IxAssignStmt) node;
+            collectLocals(stmt.ref);
+            collectLocals(stmt.ix);
+            collectLocals(stmt.exp);
+        } else if (node instanceof CallStmt) {
+            collectLocals(((CallStmt) node).methodRef);
+            for (Expression argument : ((CallStmt) node).argList) {
+                collectLocals(argument);
+            }
+        } else if (node instanceof ReturnStmt) {
+            if (((ReturnStmt) node).returnExpr != null) {
+                collectLocals(((ReturnStmt) node).returnExpr);
+            }
+        } else if (node instanceof IfStmt) {
+            IfStmt stmt = (IfStmt) node;
+            collectLocals(stmt.cond);
+            collectLocals(stmt.thenStmt);
+            if (stmt.elseStmt != null) {
+                collectLocals(stmt.elseStmt);
+            }
+        } else if (node instanceof WhileStmt) {
+            collectLocals(((WhileStmt) node).cond);
+            collectLocals(((WhileStmt) node).body);
+        } else if (node instanceof IdRef) {
+            if (((IdRef) node).id.declaration instanceof LocalDecl) {
+                readLocals.add(((IdRef) node).id.declaration);
+            }
+        } else if (node instanceof QualRef) {
+            collectLocals(((QualRef) node).ref);
+        } else if (node instanceof RefExpr) {
+            collectLocals(((RefExpr) node).ref);
+        } else if (node instanceof IxExpr) {
+            collectLocals(((IxExpr) node).ref);
+            collectLocals(((IxExpr) node).ixExpr);
+        } else if (node instanceof UnaryExpr) {
+            collectLocals(((UnaryExpr) node).expr);
+        } else if (node instanceof BinaryExpr) {
+            collectLocals(((BinaryExpr) node).left);
+            collectLocals(((BinaryExpr) node).right);
+        } else if (node instanceof NewArrayExpr) {
+            collectLocals(((NewArrayExpr) node).sizeExpr);
+        } else if (node instanceof CallExpr) {
+            collectLocals(((CallExpr) node).functionRef);
+            for (Expression argument : ((CallExpr) node).argList) {
+                collectLocals(argument);
+            }
+        }
+    }
+
+    private void collectAssignment(Declaration local, Expression value) {
+        collectLocals(value);
+        if (local != null && !isRemovable(value) && !(value instanceof CallExpr)) {
+            keptLocals.add(local);
+        }
+    }
+
+    @Override
+    public Object visitPackage(Package prog, Object arg) {
+        for (ClassDecl cd : prog.classDeclList) {
+            cd.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitClassDecl(ClassDecl cd, Object arg) {
+        for (MethodDecl md : cd.methodDeclList) {
+            md.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override public Object visitFieldDecl(FieldDecl fd, Object arg) { return null; }
+
+    @Override
+    public Object visitMethodDecl(MethodDecl md, Object arg) {
+        readLocals.clear();
+        keptLocals.clear();
+        for (Statement statement : md.statementList) {
+            collectLocals(statement);
+        }
+        md.statementList = rewriteStatements(md.statementList);
+        return null;
+    }
+
+    @Override public Object visitParameterDecl(ParameterDecl pd, Object arg) { return null; }
+    @Override public Object visitVarDecl(VarDecl decl, Object arg) { return null; }
+    @Override public Object visitBaseType(BaseType type, Object arg) { return null; }
+    @Override public Object visitClassType(ClassType type, Object arg) { return null; }
+    @Override public Object visitArrayType(ArrayType type, Object arg) { return null; }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        stmt.sl = rewriteStatements(stmt.sl);
+        return stmt;
+    }
+
+    @Override
+    public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        return dropAssignment(stmt, stmt.varDecl, stmt.initExp);
+    }
+
+    @Override
+    public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+        Declaration local = assignedLocal(stmt.ref);
+        return local != null ? dropAssignment(stmt, local, stmt.val) : stmt;
+    }
+
+    @Override public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) { return stmt; }
+    @Override public Object visitCallStmt(CallStmt stmt, Object arg) { return stmt; }
+    @Override public Object visitReturnStmt(ReturnStmt stmt, Object arg) { return stmt; }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        stmt.thenStmt = rewriteNested(stmt.thenStmt);
+        if (stmt.elseStmt != null) {
+            stmt.elseStmt = rewriteNested(stmt.elseStmt);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        stmt.body = rewriteNested(stmt.body);
+        return stmt;
+    }
+
+    @Override public Object visitUnaryExpr(UnaryExpr expr, Object arg) { return null; }
+    @Override public Object visitBinaryExpr(BinaryExpr expr, Object arg) { return null; }
+    @Override public Object visitRefExpr(RefExpr expr, Object arg) { return null; }
+    @Override public Object visitIxExpr(IxExpr expr, Object arg) { return null; }
+    @Override public Object visitCallExpr(CallExpr expr, Object arg) { return null; }
+    @Override public Object visitLiteralExpr(LiteralExpr expr, Object arg) { return null; }
+    @Override public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) { return null; }
+    @Override public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) { return null; }
+    @Override public Object visitThisRef(ThisRef ref, Object arg) { return null; }
+    @Override public Object visitIdRef(IdRef ref, Object arg) { return null; }
+    @Override public Object visitQRef(QualRef ref, Object arg) { return null; }
+    @Override public Object visitIdentifier(Identifier id, Object arg) { return null; }
+    @Override public Object visitOperator(Operator op, Object arg) { return null; }
+    @Override public Object visitIntLiteral(IntLiteral num, Object arg) { return null; }
+    @Override public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) { return null; }
+    @Override public Object visitNullLiteral(NullLiteral num, Object arg) { return null; }
+}
@@ -0,0 +1,567 @@
+package miniJava.Optimization;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.SyntacticAnalyzer.SourcePosition;
+import miniJava.SyntacticAnalyzer.Token;
+import miniJava.SyntacticAnalyzer.TokenType;
+
+// Replaces calls to small static and private methods that make no calls themselves by a copy of their body
+// Runs after contextual analysis and before constant folding, so literal arguments are folded into the copy
+// Such methods cannot be overridden, so every call site knows its target
+//   A method whose body is a single return is inlined wherever it is called, its parameters replaced by the arguments
+//   A void method without returns is inlined at call statements as a block whose locals hold the arguments
+// Callers are rewritten after their callees, so a method that only called inlined methods can be inlined in turn
+//
+// Expression visits return the expression that replaces the visited one, statement visits the statement
+public class Inliner implements Visitor<Object, Object> {
+    // Methods larger than this many AST nodes are left as calls
+    private static final int MAX_CALLEE_NODES = 40;
+
+    private Map<MethodDecl, ClassDecl> methodClasses = new HashMap<MethodDecl, ClassDecl>();
+    private Set<MethodDecl> started = new HashSet<MethodDecl>();
+    private ASTNodeCounter nodeCounter = new ASTNodeCounter();
+    private int numInlined = 0;
+
+    // Rewrites the tree in place, returns how many calls were replaced
+    public int inline(Package prog) {
+        prog.visit(this, null);
+        return numInlined;
+    }
+
+    private Expression rewrite(Expression expr) {
+        return (Expression) expr.visit(this, null);
+    }
+
+    private void rewriteStatements(StatementList statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            statements.set(i, (Statement) statements.get(i).visit(this, null));
+        }
+    }
+
+    private void rewriteArguments(ExprList args) {
+        for (int i = 0; i < args.size(); i++) {
+            args.set(i, rewrite(args.get(i)));
+        }
+    }
+
+    // Rewrites md first if it has not been yet, a method that is still being rewritten is part of a cycle and stays a call
+    private void rewriteMethod(MethodDecl md) {
+        if (started.add(md)) {
+            rewriteStatements(md.statementList);
+        }
+    }
+
+    @Override
+    public Object visitPackage(Package prog, Object arg) {
+        for (ClassDecl classDecl : prog.classDeclList) {
+            for (MethodDecl methodDecl : classDecl.methodDeclList) {
+                methodClasses.put(methodDecl, classDecl);
+            }
+        }
+        for (ClassDecl classDecl : prog.classDeclList) {
+            classDecl.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitClassDecl(ClassDecl cd, Object arg) {
+        for (MethodDecl methodDecl : cd.methodDeclList) {
+            methodDecl.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override public Object visitFieldDecl(FieldDecl fd, Object arg) { return null; }
+
+    @Override
+    public Object visitMethodDecl(MethodDecl md, Object arg) {
+        rewriteMethod(md);
+        return null;
+    }
+
+    @Override public Object visitParameterDecl(ParameterDecl pd, Object arg) { return null; }
+    @Override public Object visitVarDecl(VarDecl decl, Object arg) { return null; }
+    @Override public Object visitBaseType(BaseType type, Object arg) { return null; }
+    @Override public Object visitClassType(ClassType type, Object arg) { return null; }
+    @Override public Object visitArrayType(ArrayType type, Object arg) { return null; }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        rewriteStatements(stmt.sl);
+        return stmt;
+    }
+
+    @Override
+    public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+        stmt.initExp = rewrite(stmt.initExp);
+        return stmt;
+    }
+
+    @Override
+    public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+        stmt.val = rewrite(stmt.val);
+        return stmt;
+    }
+
+    @Override
+    public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+        stmt.ix = rewrite(stmt.ix);
+        stmt.exp = rewrite(stmt.exp);
+        return stmt;
+    }
+
+    @Override
+    public Object visitCallStmt(CallStmt stmt, Object arg) {
+        rewriteArguments(stmt.argList);
+        Statement inlined = inlineStatement(stmt);
+        if (inlined == null) {
+            return stmt;
+        }
+        numInlined++;
+        return inlined;
+    }
+
+    @Override
+    public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+        if (stmt.returnExpr != null) {
+            stmt.returnExpr = rewrite(stmt.returnExpr);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        stmt.cond = rewrite(stmt.cond);
+        stmt.thenStmt = (Statement) stmt.thenStmt.visit(this, null);
+        if (stmt.elseStmt != null) {
+            stmt.elseStmt = (Statement) stmt.elseStmt.visit(this, null);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        stmt.cond = rewrite(stmt.cond);
+        stmt.body = (Statement) stmt.body.visit(this, null);
+        return stmt;
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+        expr.expr = rewrite(expr.expr);
+        return expr;
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+        expr.left = rewrite(expr.left);
+        expr.right = rewrite(expr.right);
+        return expr;
+    }
+
+    @Override public Object visitRefExpr(RefExpr expr, Object arg) { return expr; }
+
+    @Override
+    public Object visitIxExpr(IxExpr expr, Object arg) {
+        expr.ixExpr = rewrite(expr.ixExpr);
+        return expr;
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr, Object arg) {
+        rewriteArguments(expr.argList);
+        Expression inlined = inlineExpression(expr);
+        if (inlined == null) {
+            return expr;
+        }
+        numInlined++;
+        return inlined;
+    }
+
+    @Override public Object visitLiteralExpr(LiteralExpr expr, Object arg) { return expr; }
+    @Override public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) { return expr; }
+
+    @Override
+    public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+        expr.sizeExpr = rewrite(expr.sizeExpr);
+        return expr;
+    }
+
+    @Override public Object visitThisRef(ThisRef ref, Object arg) { return null; }
+    @Override public Object visitIdRef(IdRef ref, Object arg) { return null; }
+    @Override public Object visitQRef(QualRef ref, Object arg) { return null; }
+    @Override public Object visitIdentifier(Identifier id, Object arg) { return null; }
+    @Override public Object visitOperator(Operator op, Object arg) { return null; }
+    @Override public Object visitIntLiteral(IntLiteral num, Object arg) { return null; }
+    @Override public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) { return null; }
+    @Override public Object visitNullLiteral(NullLiteral num, Object arg) { return null; }
+
+    // The method a call goes to if it may be inlined, rewritten already, null otherwise
+    private MethodDecl inlineTarget(Reference methodRef) {
+        Identifier id = methodRef instanceof QualRef ? ((QualRef) methodRef).id : ((IdRef) methodRef).id;
+        if (!(id.declaration instanceof MethodDecl)) {
+            return null;
+        }
+        MethodDecl md = (MethodDecl) id.declaration;
+        if (!(md.isStatic || md.isPrivate) || !methodClasses.containsKey(md)) {
+            return null;
+        }
+        rewriteMethod(md);
+        if (nodeCounter.countNodes(md) > MAX_CALLEE_NODES) {
+            return null;
+        }
+        return md;
+    }
+
+    // The reference the callee's this stands for, null for static methods
+    private static Reference receiver(MethodDecl md, Reference methodRef, SourcePosition posn) {
+        if (md.isStatic) {
+            return null;
+        }
+        return methodRef instanceof QualRef ? ((QualRef) methodRef).ref : new ThisRef(posn);
+    }
+
+    // The returned expression with the arguments in place of the parameters, null if the call has to stay
+    private Expression inlineExpression(CallExpr call) {
+        MethodDecl md = inlineTarget(call.functionRef);
+        if (md == null || md.statementList.size() != 1 || !(md.statementList.get(0) instanceof ReturnStmt)) {
+            return null;
+        }
+        Expression body = ((ReturnStmt) md.statementList.get(0)).returnExpr;
+
+        // The receiver and arguments are no longer evaluated once each in a fixed order, so each one must either
+        // be a plain value or be free of calls and used exactly once, where it is always evaluated
+        Reference receiver = receiver(md, call.functionRef, call.posn);
+        if (receiver != null && !isPlainReference(receiver)) {
+            return null;
+        }
+        Copier copier = new Copier(receiver);
+        for (int i = 0; i < call.argList.size(); i++) {
+            ParameterDecl pd = md.parameterDeclList.get(i);
+            Expression argument = call.argList.get(i);
+            if (!isPlainValue(argument)) {
+                int[] uses = new int[2];
+                countUses(body, pd, false, uses);
+                if (uses[0] != 1 || uses[1] != 0 || containsCall(argument)) {
+                    return null;
+                }
+            }
+            copier.arguments.put(pd, argument);
+        }
+        Expression inlined = copier.copy(body);
+        return copier.failed ? null : inlined;
+    }
+
+    // A block that stores the arguments into fresh locals and runs a copy of the body, null if the call has to stay
+    // The locals are initialised last argument first and then the receiver, the order the call evaluated them in
+    private Statement inlineStatement(CallStmt call) {
+        MethodDecl md = inlineTarget(call.methodRef);
+        if (md == null || md.type.typeKind != TypeKind.VOID) {
+            return null;
+        }
+        SourcePosition posn = call.posn;
+        StatementList block = new StatementList();
+        Reference receiver = receiver(md, call.methodRef, posn);
+        Copier copier = new Copier(receiver);
+        for (int i = call.argList.size() - 1; i >= 0; i--) {
+            ParameterDecl pd = md.parameterDeclList.get(i);
+            VarDecl local = new VarDecl(pd.type, pd.name, posn);
+            block.add(new VarDeclStmt(local, call.argList.get(i), posn));
+            copier.arguments.put(pd, refExpr(local, posn));
+        }
+        if (receiver != null && !isPlainReference(receiver)) {
+            ClassDecl cd = methodClasses.get(md);
+            Identifier className = new Identifier(new Token(TokenType.Id, cd.name, posn));
+            className.declaration = cd;
+            VarDecl self = new VarDecl(new ClassType(className, posn), "this", posn);
+            RefExpr value = new RefExpr(receiver, posn);
+            value.type = self.type;
+            block.add(new VarDeclStmt(self, value, posn));
+            copier.receiver = idRef(self, posn);
+        }
+
+        int size = md.statementList.size();
+        if (size > 0 && md.statementList.get(size - 1) instanceof ReturnStmt) {
+            size--;
+        }
+        for (int i = 0; i < size; i++) {
+            block.add(copier.copy(md.statementList.get(i)));
+        }
+        return copier.failed ? null : new BlockStmt(block, posn);
+    }
+
+    // Literals and locals, which nothing in an inlined expression can change
+    private static boolean isPlainValue(Expression expr) {
+        return expr instanceof LiteralExpr || (expr instanceof RefExpr && isPlainReference(((RefExpr) expr).ref));
+    }
+
+    private static boolean isPlainReference(Reference ref) {
+        return ref instanceof ThisRef || (ref instanceof IdRef && ((IdRef) ref).id.declaration instanceof LocalDecl);
+    }
+
+    // uses[0] counts the references to decl in node, uses[1] those that are only evaluated on some paths
+    private static void countUses(AST node, Declaration decl, boolean conditional, int[] uses) {
+        if (node instanceof IdRef) {
+            if (((IdRef) node).id.declaration == decl) {
+                uses[0]++;
+                uses[1] += conditional ? 1 : 0;
+            }
+        } else if (node instanceof QualRef) {
+            countUses(((QualRef) node).ref, decl, conditional, uses);
+        } else if (node instanceof RefExpr) {
+            countUses(((RefExpr) node).ref, decl, conditional, uses);
+        } else if (node instanceof IxExpr) {
+            countUses(((IxExpr) node).ref, decl, conditional, uses);
+            countUses(((IxExpr) node).ixExpr, decl, conditional, uses);
+        } else if (node instanceof UnaryExpr) {
+            countUses(((UnaryExpr) node).expr, decl, conditional, uses);
+        } else if (node instanceof BinaryExpr) {
+            BinaryExpr expr = (BinaryExpr) node;
+            String op = expr.operator.spelling;
+            countUses(expr.left, decl, conditional, uses);
+            countUses(expr.right, decl, conditional || op.equals("&&") || op.equals("||"), uses);
+        } else if (node instanceof NewArrayExpr) {
+            countUses(((NewArrayExpr) node).sizeExpr, decl, conditional, uses);
+        } else if (node instanceof CallExpr) {
+            countUses(((CallExpr) node).functionRef, decl, conditional, uses);
+            for (Expression argument : ((CallExpr) node).argList) {
+                countUses(argument, decl, conditional, uses);
+            }
+        }
+    }
+
+    private static boolean containsCall(Expression expr) {
+        if (expr instanceof CallExpr) {
+            return true;
+        } else if (expr instanceof IxExpr) {
+            return containsCall(((IxExpr) expr).ixExpr);
+        } else if (expr instanceof UnaryExpr) {
+            return containsCall(((UnaryExpr) expr).expr);
+        } else if (expr instanceof BinaryExpr) {
+            return containsCall(((BinaryExpr) expr).left) || containsCall(((BinaryExpr) expr).right);
+        } else if (expr instanceof NewArrayExpr) {
+            return containsCall(((NewArrayExpr) expr).sizeExpr);
+        }
+        return false;
+    }
+
+    private static IdRef idRef(Declaration decl, SourcePosition posn) {
+        Identifier id = new Identifier(new Token(TokenType.Id, decl.name, posn));
+        id.declaration = decl;
+        IdRef ref = new IdRef(id, posn);
+        ref.type = decl.type;
+        return ref;
+    }
+
+    private static RefExpr refExpr(Declaration decl, SourcePosition posn) {
+        RefExpr expr = new RefExpr(idRef(decl, posn), posn);
+        expr.type = decl.type;
+        return expr;
+    }
+
+    // Copies a callee's statements or expression into a call site
+    // Parameters become copies of their arguments, the callee's locals become fresh ones, and this and the
+    // fields it leaves implicit are reached through the receiver
+    // Calls and returns cannot be copied, meeting one sets failed
+    // Without arguments or receiver it makes a plain copy of code from the call site itself
+    private static class Copier implements Visitor<Object, Object> {
+        Map<Declaration, Expression> arguments = new HashMap<Declaration, Expression>();
+        Map<Declaration, VarDecl> locals = new HashMap<Declaration, VarDecl>();
+        Reference receiver;
+        boolean failed = false;
+
+        Copier(Reference receiver) {
+            this.receiver = receiver;
+        }
+
+        Expression copy(Expression expr) {
+            return (Expression) expr.visit(this, null);
+        }
+
+        Statement copy(Statement stmt) {
+            return (Statement) stmt.visit(this, null);
+        }
+
+        Reference copy(Reference ref) {
+            return (Reference) ref.visit(this, null);
+        }
+
+        // Copies code that belongs to the call site, which needs no substitution
+        private static Expression plainCopy(Expression expr) {
+            return new Copier(null).copy(expr);
+        }
+
+        private static Reference plainCopy(Reference ref) {
+            return new Copier(null).copy(ref);
+        }
+
+        private StatementList copy(StatementList statements) {
+            StatementList copy = new StatementList();
+            for (Statement statement : statements) {
+                copy.add(copy(statement));
+            }
+            return copy;
+        }
+
+        private ExprList copy(ExprList args) {
+            ExprList copy = new ExprList();
+            for (Expression argument : args) {
+                copy.add(copy(argument));
+            }
+            return copy;
+        }
+
+        private static <T extends Expression> T typed(T copy, Expression original) {
+            copy.type = original.type;
+            return copy;
+        }
+
+        private static <T extends Reference> T typed(T copy, Reference original) {
+            copy.type = original.type;
+            return copy;
+        }
+
+        private static Identifier copy(Identifier id, Declaration decl) {
+            Identifier copy = new Identifier(new Token(TokenType.Id, id.spelling, id.posn));
+            copy.declaration = decl;
+            return copy;
+        }
+
+        @Override public Object visitPackage(Package prog, Object arg) { return null; }
+        @Override public Object visitClassDecl(ClassDecl cd, Object arg) { return null; }
+        @Override public Object visitFieldDecl(FieldDecl fd, Object arg) { return null; }
+        @Override public Object visitMethodDecl(MethodDecl md, Object arg) { return null; }
+        @Override public Object visitParameterDecl(ParameterDecl pd, Object arg) { return null; }
+        @Override public Object visitVarDecl(VarDecl decl, Object arg) { return null; }
+        @Override public Object visitBaseType(BaseType type, Object arg) { return null; }
+        @Override public Object visitClassType(ClassType type, Object arg) { return null; }
+        @Override public Object visitArrayType(ArrayType type, Object arg) { return null; }
+
+        @Override
+        public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+            return new BlockStmt(copy(stmt.sl), stmt.posn);
+        }
+
+        @Override
+        public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) {
+            Expression initExp = copy(stmt.initExp);
+            VarDecl local = new VarDecl(stmt.varDecl.type, stmt.varDecl.name, stmt.varDecl.posn);
+            locals.put(stmt.varDecl, local);
+            return new VarDeclStmt(local, initExp, stmt.posn);
+        }
+
+        @Override
+        public Object visitAssignStmt(AssignStmt stmt, Object arg) {
+            return new AssignStmt(copy(stmt.ref), copy(stmt.val), stmt.posn);
+        }
+
+        @Override
+        public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) {
+            return new IxAssignStmt(copy(stmt.ref), copy(stmt.ix), copy(stmt.exp), stmt.posn);
+        }
+
+        @Override
+        public Object visitCallStmt(CallStmt stmt, Object arg) {
+            failed = true;
+            return stmt;
+        }
+
+        @Override
+        public Object visitReturnStmt(ReturnStmt stmt, Object arg) {
+            failed = true;
+            return stmt;
+        }
+
+        @Override
+        public Object visitIfStmt(IfStmt stmt, Object arg) {
+            Statement elseStmt = stmt.elseStmt == null ? null : copy(stmt.elseStmt);
+            return new IfStmt(copy(stmt.cond), copy(stmt.thenStmt), elseStmt, stmt.posn);
+        }
+
+        @Override
+        public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+            return new WhileStmt(copy(stmt.cond), copy(stmt.body), stmt.posn);
+        }
+
+        @Override
+        public Object visitUnaryExpr(UnaryExpr expr, Object arg) {
+            return typed(new UnaryExpr(expr.operator, copy(expr.expr), expr.posn), expr);
+        }
+
+        @Override
+        public Object visitBinaryExpr(BinaryExpr expr, Object arg) {
+            return typed(new BinaryExpr(expr.operator, copy(expr.left), copy(expr.right), expr.posn), expr);
+        }
+
+        @Override
+        public Object visitRefExpr(RefExpr expr, Object arg) {
+            if (expr.ref instanceof IdRef && arguments.containsKey(((IdRef) expr.ref).id.declaration)) {
+                return plainCopy(arguments.get(((IdRef) expr.ref).id.declaration));
+            }
+            return typed(new RefExpr(copy(expr.ref), expr.posn), expr);
+        }
+
+        @Override
+        public Object visitIxExpr(IxExpr expr, Object arg) {
+            return typed(new IxExpr(copy(expr.ref), copy(expr.ixExpr), expr.posn), expr);
+        }
+
+        @Override
+        public Object visitCallExpr(CallExpr expr, Object arg) {
+            failed = true;
+            return expr;
+        }
+
+        @Override public Object visitLiteralExpr(LiteralExpr expr, Object arg) { return typed(new LiteralExpr(expr.lit, expr.posn), expr); }
+        @Override public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) { return typed(new NewObjectExpr(expr.classtype, expr.posn), expr); }
+
+        @Override
+        public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) {
+            return typed(new NewArrayExpr(expr.eltType, copy(expr.sizeExpr), expr.posn), expr);
+        }
+
+        @Override
+        public Object visitThisRef(ThisRef ref, Object arg) {
+            return receiver == null ? typed(new ThisRef(ref.posn), ref) : plainCopy(receiver);
+        }
+
+        @Override
+        public Object visitIdRef(IdRef ref, Object arg) {
+            Declaration decl = ref.id.declaration;
+            if (arguments.containsKey(decl)) {
+                // Only an argument that is itself a reference can stand where a reference is needed
+                Expression argument = arguments.get(decl);
+                if (!(argument instanceof RefExpr)) {
+                    failed = true;
+                    return ref;
+                }
+                return plainCopy(((RefExpr) argument).ref);
+            }
+            if (locals.containsKey(decl)) {
+                return typed(new IdRef(copy(ref.id, locals.get(decl)), ref.posn), ref);
+            }
+            if (receiver != null && decl instanceof FieldDecl && !((FieldDecl) decl).isStatic) {
+                return typed(new QualRef(plainCopy(receiver), copy(ref.id, decl), ref.posn), ref);
+            }
+            return typed(new IdRef(copy(ref.id, decl), ref.posn), ref);
+        }
+
+        @Override
+        public Object visitQRef(QualRef ref, Object arg) {
+            return typed(new QualRef(copy(ref.ref), copy(ref.id, ref.id.declaration), ref.posn), ref);
+        }
+
+        @Override public Object visitIdentifier(Identifier id, Object arg) { return null; }
+        @Override public Object visitOperator(Operator op, Object arg) { return null; }
+        @Override public Object visitIntLiteral(IntLiteral num, Object arg) { return null; }
+        @Override public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) { return null; }
+        @Override public Object visitNullLiteral(NullLiteral num, Object arg) { return null; }
+    }
+}
@@ -0,0 +1,360 @@
+package miniJava.Optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+
+// Drops the bounds check of a[i] inside loops that already keep 0 <= i < a.length
+// The loops recognised look like
+//   i = <non-negative literal>; ... while (i < bound) { ...a[i]... i = i + <non-negative literal>; ... }
+// where bound is a.length, or the same literal or local that a was last allocated with before the loop
+//   i starts non-negative and only grows, and the condition was just checked, so every a[i] before the step is in
+//   range, as long as nothing in the loop assigns a, the bound, or i anywhere else
+//   When a is a field a call could reassign it, so loops with calls are left alone
+// Runs last on the AST, after folding has turned constant locals into literals, and both backends read the flags
+public class RangeCheckEliminator implements Visitor<Object, Object> {
+    private int numRemoved = 0;
+
+    // Clears needsBoundsCheck on the accesses it proves, returns how many
+    public int eliminate(Package prog) {
+        prog.visit(this, null);
+        return numRemoved;
+    }
+
+    private void visitStatements(StatementList statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            if (statements.get(i) instanceof WhileStmt) {
+                eliminateInLoop(statements, i);
+            }
+            statements.get(i).visit(this, null);
+        }
+    }
+
+    private void eliminateInLoop(StatementList statements, int loopIdx) {
+        WhileStmt loop = (WhileStmt) statements.get(loopIdx);
+        if (!(loop.cond instanceof BinaryExpr) || !((BinaryExpr) loop.cond).operator.spelling.equals("<")) {
+            return;
+        }
+        Declaration counter = localOf(((BinaryExpr) loop.cond).left);
+        Expression bound = ((BinaryExpr) loop.cond).right;
+        if (counter == null || !startsNonNegative(statements, loopIdx, counter)) {
+            return;
+        }
+
+        // Accesses are proven up to the only statement that changes the counter, the whole body if none does
+        StatementList body = new StatementList();
+        if (loop.body instanceof BlockStmt) {
+            body = ((BlockStmt) loop.body).sl;
+        } else {
+            body.add(loop.body);
+        }
+        int stepIdx = body.size();
+        for (int i = 0; i < body.size(); i++) {
+            if (isStep(body.get(i), counter) && stepIdx == body.size()) {
+                stepIdx = i;
+            } else if (assigns(body.get(i), counter)) {
+                return;
+            }
+        }
+
+        Declaration array = boundedArray(statements, loopIdx, bound);
+        if (array == null || assigns(loop.body, array)) {
+            return;
+        }
+        if (array instanceof FieldDecl && contains(loop.body, CallStmt.class, CallExpr.class)) {
+            return;
+        }
+        for (int i = 0; i < stepIdx; i++) {
+            markAccesses(body.get(i), array, counter);
+        }
+    }
+
+    // Whether the last assignment to counter before the loop sets it to a literal that is not negative
+    private static boolean startsNonNegative(StatementList statements, int loopIdx, Declaration counter) {
+        for (int i = loopIdx - 1; i >= 0; i--) {
+            Statement stmt = statements.get(i);
+            if (assigns(stmt, counter)) {
+                return isNonNegativeLiteral(assignedValue(stmt, counter));
+            }
+        }
+        return false;
+    }
+
+    // i = i + c or i = c + i for a literal c >= 0
+    private static boolean isStep(Statement stmt, Declaration counter) {
+        if (!(stmt instanceof AssignStmt) || !(((AssignStmt) stmt).val instanceof BinaryExpr)) {
+            return false;
+        }
+        BinaryExpr value = (BinaryExpr) ((AssignStmt) stmt).val;
+        if (assignedValue(stmt, counter) == null || !value.operator.spelling.equals("+")) {
+            return false;
+        }
+        return (localOf(value.left) == counter && isNonNegativeLiteral(value.right))
+            || (localOf(value.right) == counter && isNonNegativeLiteral(value.left));
+    }
+
+    // The array whose length bound is known not to exceed, null if there is none
+    private static Declaration boundedArray(StatementList statements, int loopIdx, Expression bound) {
+        WhileStmt loop = (WhileStmt) statements.get(loopIdx);
+        if (bound instanceof RefExpr && ((RefExpr) bound).ref instanceof QualRef) {
+            QualRef length = (QualRef) ((RefExpr) bound).ref;
+            // Only the length of an array resolves from a reference of array type
+            if (!(length.ref instanceof IdRef) || !(((IdRef) length.ref).id.declaration.type instanceof ArrayType)) {
+                return null;
+            }
+            return ((IdRef) length.ref).id.declaration;
+        }
+
+        // Otherwise the array must have been allocated with the bound, and neither changed since
+        Declaration boundLocal = localOf(bound);
+        if (boundLocal == null && !isIntLiteral(bound)) {
+            return null;
+        }
+        if (boundLocal != null && assigns(loop.body, boundLocal)) {
+            return null;
+        }
+        for (int i = loopIdx - 1; i >= 0; i--) {
+            Statement stmt = statements.get(i);
+            if (boundLocal != null && assigns(stmt, boundLocal)) {
+                return null;
+            }
+            Declaration array = stmt instanceof VarDeclStmt ? ((VarDeclStmt) stmt).varDecl
+                : stmt instanceof AssignStmt ? localOf(((AssignStmt) stmt).ref) : null;
+            if (array != null && assignedValue(stmt, array) instanceof NewArrayExpr) {
+                Expression size = ((NewArrayExpr) assignedValue(stmt, array)).sizeExpr;
+                boolean sameSize = boundLocal != null ? localOf(size) == boundLocal
+                    : isIntLiteral(size) && ((LiteralExpr) size).lit.spelling.equals(((LiteralExpr) bound).lit.spelling);
+                if (sameSize && nothingAssigns(statements, i + 1, loopIdx, array)) {
+                    return array;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean nothingAssigns(StatementList statements, int from, int to, Declaration decl) {
+        for (int i = from; i < to; i++) {
+            if (assigns(statements.get(i), decl)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void markAccesses(AST node, Declaration array, Declaration counter) {
+        if (node instanceof IxExpr) {
+            IxExpr expr = (IxExpr) node;
+            if (expr.needsBoundsCheck && isReferenceTo(expr.ref, array) && localOf(expr.ixExpr) == counter) {
+                expr.needsBoundsCheck = false;
+                numRemoved++;
+            }
+        } else if (node instanceof IxAssignStmt) {
+            IxAssignStmt stmt = (IxAssignStmt) node;
+            if (stmt.needsBoundsCheck && isReferenceTo(stmt.ref, array) && localOf(stmt.ix) == counter) {
+                stmt.needsBoundsCheck = false;
+                numRemoved++;
+            }
+        }
+        for (AST child : children(node)) {
+            markAccesses(child, array, counter);
+        }
+    }
+
+    // The value stmt gives decl when it is a plain assignment or declaration of it, null otherwise
+    private static Expression assignedValue(Statement stmt, Declaration decl) {
+        if (stmt instanceof VarDeclStmt && ((VarDeclStmt) stmt).varDecl == decl) {
+            return ((VarDeclStmt) stmt).initExp;
+        }
+        if (stmt instanceof AssignStmt && isReferenceTo(((AssignStmt) stmt).ref, decl)) {
+            return ((AssignStmt) stmt).val;
+        }
+        return null;
+    }
+
+    // Whether anything in node assigns decl, locals can only be assigned by name but fields through any qualifier
+    private static boolean assigns(AST node, Declaration decl) {
+        if (assignedValue(node instanceof Statement ? (Statement) node : null, decl) != null) {
+            return true;
+        }
+        if (node instanceof AssignStmt && ((AssignStmt) node).ref instanceof QualRef
+                && ((QualRef) ((AssignStmt) node).ref).id.declaration == decl) {
+            return true;
+        }
+        for (AST child : children(node)) {
+            if (child instanceof Statement && assigns(child, decl)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(AST node, Class<?>... kinds) {
+        for (Class<?> kind : kinds) {
+            if (kind.isInstance(node)) {
+                return true;
+            }
+        }
+        for (AST child : children(node)) {
+            if (contains(child, kinds)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isReferenceTo(Reference ref, Declaration decl) {
+        return ref instanceof IdRef && ((IdRef) ref).id.declaration == decl;
+    }
+
+    private static Declaration localOf(Expression expr) {
+        return expr instanceof RefExpr ? localOf(((RefExpr) expr).ref) : null;
+    }
+
+    private static Declaration localOf(Reference ref) {
+        if (ref instanceof IdRef && ((IdRef) ref).id.declaration instanceof LocalDecl) {
+            return ((IdRef) ref).id.declaration;
+        }
+        return null;
+    }
+
+    private static boolean isIntLiteral(Expression expr) {
+        return expr instanceof LiteralExpr && ((LiteralExpr) expr).lit instanceof IntLiteral;
+    }
+
+    private static boolean isNonNegativeLiteral(Expression expr) {
+        return isIntLiteral(expr) && !((LiteralExpr) expr).lit.spelling.startsWith("-");
+    }
+
+    // Statements, expressions and references directly inside node
+    private static List<AST> children(AST node) {
+        List<AST> children = new ArrayList<AST>();
+        if (node instanceof BlockStmt) {
+            for (Statement statement : ((BlockStmt) node).sl) {
+                children.add(statement);
+            }
+        } else if (node instanceof VarDeclStmt) {
+            children.add(((VarDeclStmt) node).initExp);
+        } else if (node instanceof AssignStmt) {
+            children.add(((AssignStmt) node).ref);
+            children.add(((AssignStmt) node).val);
+        } else if (node instanceof IxAssignStmt) {
+            children.add(((IxAssignStmt) node).ref);
+            children.add(((IxAssignStmt) node).ix);
+            children.add(((IxAssignStmt) node).exp);
+        } else if (node instanceof CallStmt) {
+            children.add(((CallStmt) node).methodRef);
+            for (Expression argument : ((CallStmt) node).argList) {
+                children.add(argument);
+            }
+        } else if (node instanceof ReturnStmt) {
+            if (((ReturnStmt) node).returnExpr != null) {
+                children.add(((ReturnStmt) node).returnExpr);
+            }
+        } else if (node instanceof IfStmt) {
+            children.add(((IfStmt) node).cond);
+            children.add(((IfStmt) node).thenStmt);
+            if (((IfStmt) node).elseStmt != null) {
+                children.add(((IfStmt) node).elseStmt);
+            }
+        } else if (node instanceof WhileStmt) {
+            children.add(((WhileStmt) node).cond);
+            children.add(((WhileStmt) node).body);
+        } else if (node instanceof QualRef) {
+            children.add(((QualRef) node).ref);
+        } else if (node instanceof RefExpr) {
+            children.add(((RefExpr) node).ref);
+        } else if (node instanceof IxExpr) {
+            children.add(((IxExpr) node).ref);
+            children.add(((IxExpr) node).ixExpr);
+        } else if (node instanceof UnaryExpr) {
+            children.add(((UnaryExpr) node).expr);
+        } else if (node instanceof BinaryExpr) {
+            children.add(((BinaryExpr) node).left);
+            children.add(((BinaryExpr) node).right);
+        } else if (node instanceof NewArrayExpr) {
+            children.add(((NewArrayExpr) node).sizeExpr);
+        } else if (node instanceof CallExpr) {
+            children.add(((CallExpr) node).functionRef);
+            for (Expression argument : ((CallExpr) node).argList) {
+                children.add(argument);
+            }
+        }
+        return children;
+    }
+
+    @Override
+    public Object visitPackage(Package prog, Object arg) {
+        for (ClassDecl cd : prog.classDeclList) {
+            cd.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitClassDecl(ClassDecl cd, Object arg) {
+        for (MethodDecl md : cd.methodDeclList) {
+            md.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override public Object visitFieldDecl(FieldDecl fd, Object arg) { return null; }
+
+    @Override
+    public Object visitMethodDecl(MethodDecl md, Object arg) {
+        visitStatements(md.statementList);
+        return null;
+    }
+
+    @Override public Object visitParameterDecl(ParameterDecl pd, Object arg) { return null; }
+    @Override public Object visitVarDecl(VarDecl decl, Object arg) { return null; }
+    @Override public Object visitBaseType(BaseType type, Object arg) { return null; }
+    @Override public Object visitClassType(ClassType type, Object arg) { return null; }
+    @Override public Object visitArrayType(ArrayType type, Object arg) { return null; }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt, Object arg) {
+        visitStatements(stmt.sl);
+        return null;
+    }
+
+    @Override public Object visitVardeclStmt(VarDeclStmt stmt, Object arg) { return null; }
+    @Override public Object visitAssignStmt(AssignStmt stmt, Object arg) { return null; }
+    @Override public Object visitIxAssignStmt(IxAssignStmt stmt, Object arg) { return null; }
+    @Override public Object visitCallStmt(CallStmt stmt, Object arg) { return null; }
+    @Override public Object visitReturnStmt(ReturnStmt stmt, Object arg) { return null; }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt, Object arg) {
+        stmt.thenStmt.visit(this, null);
+        if (stmt.elseStmt != null) {
+            stmt.elseStmt.visit(this, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt, Object arg) {
+        stmt.body.visit(this, null);
+        return null;
+    }
+
+    @Override public Object visitUnaryExpr(UnaryExpr expr, Object arg) { return null; }
+    @Override public Object visitBinaryExpr(BinaryExpr expr, Object arg) { return null; }
+    @Override public Object visitRefExpr(RefExpr expr, Object arg) { return null; }
+    @Override public Object visitIxExpr(IxExpr expr, Object arg) { return null; }
+    @Override public Object visitCallExpr(CallExpr expr, Object arg) { return null; }
+    @Override public Object visitLiteralExpr(LiteralExpr expr, Object arg) { return null; }
+    @Override public Object visitNewObjectExpr(NewObjectExpr expr, Object arg) { return null; }
+    @Override public Object visitNewArrayExpr(NewArrayExpr expr, Object arg) { return null; }
+    @Override public Object visitThisRef(ThisRef ref, Object arg) { return null; }
+    @Override public Object visitIdRef(IdRef ref, Object arg) { return null; }
+    @Override public Object visitQRef(QualRef ref, Object arg) { return null; }
+    @Override public Object visitIdentifier(Identifier id, Object arg) { return null; }
+    @Override public Object visitOperator(Operator op, Object arg) { return null; }
+    @Override public Object visitIntLiteral(IntLiteral num, Object arg) { return null; }
+    @Override public Object visitBooleanLiteral(BooleanLiteral bool, Object arg) { return null; }
+    @Override public Object visitNullLiteral(NullLiteral num, Object arg) { return null; }
+}
@@ -0,0 +1,40 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.util.Arrays;
+
+// Offsets of the first character of every line seen so far by the scanner
+// Line and column numbers are only computed from this when a position is actually displayed
+public class LineMap {
+    private int[] lineStarts = new int[256];
+    private int lineCount = 1; // line 1 starts at offset 0
+
+    public void addLineStart(int offset) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+        }
+        lineStarts[lineCount++] = offset;
+    }
+
+    // Index of the last line starting at or before offset
+    private int lineIndex(int offset) {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int getLineNumber(int offset) {
+        return lineIndex(offset) + 1;
+    }
+
+    public int getColumnNumber(int offset) {
+        return offset - lineStarts[lineIndex(offset)] + 1;
+    }
+}
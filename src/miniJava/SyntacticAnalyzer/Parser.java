@@ -10,10 +10,19 @@ import miniJava.AbstractSyntaxTrees.*;
 public class Parser {
     public boolean printTokens = false;
     private Scanner tokenStream;
+    // Tokens scanned ahead of time with Scanner.scanAll, null when scanning on demand
+    private TokenArray tokens;
+    private int tokenIdx = 0;
+    private Token readToken() throws IOException {
+        if (tokens == null) {
+            return tokenStream.scan();
+        }
+        return tokenIdx < tokens.size() ? tokenStream.getToken(tokens, tokenIdx++) : null;
+    }
     private Token lookAheadBuffer = null;
     private Token lookAhead() throws IOException, TerminalParseException {
         if (lookAheadBuffer == null) {
-            lookAheadBuffer = tokenStream.scan();
+            lookAheadBuffer = readToken();
             if (lookAheadBuffer == null) {
                 throw new TerminalParseException(String.format("Invalid token at source position %s", tokenStream.getCurrentPosition()));
             }
@@ -26,7 +35,7 @@ public class Parser {
             res = lookAheadBuffer;
             lookAheadBuffer = null;
         } else {
-            res = tokenStream.scan();
+            res = readToken();
             if (res == null) {
                 throw new TerminalParseException(String.format("Invalid token at source position %s", tokenStream.getCurrentPosition()));
             }
@@ -69,6 +78,12 @@ public class Parser {
         this.tokenStream = tokenStream;
     }
 
+    // Parses tokens already produced by tokenStream.scanAll()
+    public Parser(Scanner tokenStream, TokenArray tokens) {
+        this.tokenStream = tokenStream;
+        this.tokens = tokens;
+    }
+
     private boolean completedParse = false;
     private Package parseResult;
     public Package parseTokenStream() throws IOException {
@@ -136,6 +151,11 @@ public class Parser {
     private ClassDecl cfg_ClassDeclaration() throws IOException, TerminalParseException {
         SourcePosition pos = expectTokenType(TokenType.ClassKeyword).getTokenPosition();
         String className = expectTokenType(TokenType.Id).text;
+        Identifier superClassName = null;
+        if (lookAhead().type == TokenType.ExtendsKeyword) {
+            expectTokenType(TokenType.ExtendsKeyword);
+            superClassName = new Identifier(expectTokenType(TokenType.Id));
+        }
         FieldDeclList fields = new FieldDeclList();
         MethodDeclList methods = new MethodDeclList();
         expectTokenType(TokenType.LCurly);
@@ -148,7 +168,9 @@ public class Parser {
             }
         }
         expectTokenType(TokenType.RCurly);
-        return new ClassDecl(className, fields, methods, pos);
+        ClassDecl classDecl = new ClassDecl(className, fields, methods, pos);
+        classDecl.superClassName = superClassName;
+        return classDecl;
     }
 
     private MemberDecl cfg_ClassMemberDeclaration() throws IOException, TerminalParseException {
@@ -2,93 +2,100 @@ package miniJava.SyntacticAnalyzer;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 public class Scanner {
-    private FileInputStream fStream;
-    private List<Integer> lookAheadBuffer = new ArrayList<Integer>();
-    private int currentLineNumber = 1;
-    private int currentColumnNumber = 1;
-    private int lookAhead(int n) throws IOException {
-        if (lookAheadBuffer.size() - 1 >= n) {
-            return lookAheadBuffer.get(n);
-        } else {
-            for (int i = lookAheadBuffer.size(); i <= n; i++) {
-                lookAheadBuffer.add(fStream.read());
-            }
-            return lookAheadBuffer.get(n);
+    // Source is read by cursor from a buffer that may be memory mapped, no per character syscalls or boxing
+    // Positions are tracked as offsets, line starts are only recorded while skipping whitespace and comments
+    private ByteBuffer source;
+    private int sourceLength;
+    private int cursor = 0;
+    private LineMap lineMap = new LineMap();
+    private int lookAhead(int n) {
+        int idx = cursor + n;
+        if (idx < sourceLength) {
+            return source.get(idx) & 0xFF;
         }
+        return -1;
     }
-    private int nextChar() throws IOException {
-        int res;
-        if (lookAheadBuffer.size() > 0) {
-            res = lookAheadBuffer.remove(0);
-        } else {
-            res = fStream.read();
+    private int nextChar() {
+        if (cursor >= sourceLength) {
+            return -1;
         }
-        if ((char) res == '\n') {
-            currentLineNumber += 1;
-            currentColumnNumber = 1;
-        } else {
-            currentColumnNumber += 1;
+        return source.get(cursor++) & 0xFF;
+    }
+    // Tokens never span lines, so only ignored characters can start a new line
+    private int nextIgnoredChar() {
+        int res = nextChar();
+        if (res == '\n') {
+            lineMap.addLineStart(cursor);
         }
         return res;
     }
 
+    // Character classes are looked up in a table covering 7 bit ASCII, anything outside it is invalid
+    private static int charClass(int n) {
+        return (n & ~0x7F) == 0 ? charClasses[n] : OTHER;
+    }
+
     private boolean isWhitespace(int n) {
-        char c = (char) n;
-        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+        return charClass(n) == WHITESPACE;
     }
 
     private boolean isNumeric(int n) {
-        char c = (char) n;
-        return c >= '0' && c <= '9';
+        return charClass(n) == DIGIT;
     }
 
     private boolean isAlpha(int n) {
-        char c = (char) n;
-        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        return charClass(n) == LETTER;
     }
 
     private boolean isValidIdChar(int n) {
-        return isNumeric(n) || isAlpha(n) || (char) n == '_';
+        int c = charClass(n);
+        return c == LETTER || c == DIGIT || c == UNDERSCORE;
     }
 
-    private boolean consumeWhitespaceAndComments() throws IOException {
+    private boolean consumeWhitespaceAndComments() {
         while (true) {
             boolean foundIgnoredChars = false;
 
             // Line comment
             if ((char) lookAhead(0) == '/' && (char) lookAhead(1) == '/') {
                 foundIgnoredChars = true;
-                int currentChar = nextChar();
+                int currentChar = nextIgnoredChar();
                 while ((char) currentChar != '\n' && (char) currentChar != '\r' && currentChar != -1) {
-                    currentChar = nextChar();
+                    currentChar = nextIgnoredChar();
                 }
 
             // Block comment
             } else if ((char) lookAhead(0) == '/' && (char) lookAhead(1) == '*') {
                 foundIgnoredChars = true;
-                nextChar();
-                nextChar();
+                nextIgnoredChar();
+                nextIgnoredChar();
                 while (!((char) lookAhead(0) == '*' && (char) lookAhead(1) == '/') && lookAhead(0) != -1) {
-                    nextChar();
+                    nextIgnoredChar();
                 }
                 if (lookAhead(0) == -1) {
                     // Unclosed block comment
                     return false;
                 }
-                nextChar();
-                nextChar();
+                nextIgnoredChar();
+                nextIgnoredChar();
 
             // Whitespace
             } else if (isWhitespace(lookAhead(0))) {
                 foundIgnoredChars = true;
                 while (isWhitespace(lookAhead(0))) {
-                    nextChar();
+                    nextIgnoredChar();
                 }
             }
             if (!foundIgnoredChars) { break; }
@@ -97,127 +104,370 @@ public class Scanner {
     }
 
 
-    public Scanner(FileInputStream fStream) {
-        this.fStream = fStream;
+    public Scanner(FileInputStream fStream) throws IOException {
+        this(fStream.readAllBytes());
+    }
+
+    public Scanner(byte[] source) {
+        this(ByteBuffer.wrap(source));
+    }
+
+    // Accepts heap buffers as well as FileChannel.map buffers, sources are limited to 2 GB
+    public Scanner(ByteBuffer source) {
+        this.source = source;
+        this.sourceLength = source.limit();
+    }
+
+    // Map a whole file read only so the source is never copied onto the heap
+    public static Scanner fromFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Scanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
     }
 
     public SourcePosition getCurrentPosition() {
-        return new SourcePosition(currentLineNumber, currentColumnNumber);
+        return new SourcePosition(lineMap, cursor);
     }
 
     private TokenType prevTokenType = null;
+    // Offsets of the token most recently recognised by scanToken
+    private int tokenStart;
+    private int tokenEnd;
+    // Text and symbol of the last word scanned, so it is only looked up once
+    private String lastWord;
+    private int lastSymbol;
+
     public Token scan() throws IOException {
-        if (!consumeWhitespaceAndComments()) {
+        TokenType type = scanToken();
+        if (type == null) {
             return null;
         }
-        StringBuilder tokenText = new StringBuilder();
+        if (type == TokenType.Id) {
+            return new Token(type, lastWord, lastSymbol, tokenStart, tokenEnd, lineMap);
+        }
+        return new Token(type, tokenText(type, tokenStart, tokenEnd), -1, tokenStart, tokenEnd, lineMap);
+    }
+
+    // Scans the whole source up front into packed form, stops after EOT or at the first invalid token
+    // On an invalid token the cursor is left where scan() would have left it
+    public TokenArray scanAll() {
+        TokenArray tokens = new TokenArray();
+        TokenType type;
+        do {
+            type = scanToken();
+            if (type == null || tokenEnd - tokenStart > TokenArray.MAX_TOKEN_LENGTH) {
+                break;
+            }
+            tokens.add(type, tokenStart, tokenEnd);
+        } while (type != TokenType.EOT);
+        return tokens;
+    }
 
+    // Materialises one token of a TokenArray produced by this scanner
+    public Token getToken(TokenArray tokens, int idx) {
+        TokenType type = tokens.getType(idx);
+        int start = tokens.getStart(idx);
+        int end = tokens.getEnd(idx);
+        if (type == TokenType.Id) {
+            word(start, end);
+            return new Token(type, lastWord, lastSymbol, start, end, lineMap);
+        }
+        return new Token(type, tokenText(type, start, end), -1, start, end, lineMap);
+    }
+
+    private TokenType scanToken() {
+        if (!consumeWhitespaceAndComments()) {
+            return null;
+        }
+        tokenStart = cursor;
+        TokenType type = null;
         int currentChar = nextChar();
-        tokenText.append((char) currentChar);
-        String nextTwoChars = String.valueOf((char) currentChar) + (char) lookAhead(0);
 
         // EOT token
         if (currentChar == -1) {
-            prevTokenType = TokenType.EOT;
-            return new Token(TokenType.EOT, new SourcePosition(currentLineNumber, currentColumnNumber - 1));
+            type = TokenType.EOT;
 
         // Double char operators
-        } else if (doubleCharTokenTypes.containsKey(nextTwoChars)) {
-            tokenText.append((char) nextChar());
-            prevTokenType = doubleCharTokenTypes.get(nextTwoChars);
-            return new Token(prevTokenType, tokenText.toString(), new SourcePosition(currentLineNumber, currentColumnNumber - 2));
+        } else if (isDoubleCharOperator(currentChar, lookAhead(0))) {
+            nextChar();
+            type = TokenType.BinOp;
 
         // Single char tokens and single character operators
-        } else if (singleCharTokenTypes.containsKey((char) currentChar)) {
+        } else if (charClass(currentChar) == PUNCTUATION) {
             // minus operator is a special case because it may also be a UnOp
             // assume that minus is BinOp and treat is as UnOp if previous token was one that can come before UnOp
             // these tokens are disjoint with those that can come before a BinOp so there is no ambiguity
             if (currentChar == '-' && prevTokenType != null && ValidUnOpPrecedingTokens.contains(prevTokenType)) {
-                prevTokenType = TokenType.UnOp;
-                return new Token(TokenType.UnOp, tokenText.toString(), new SourcePosition(currentLineNumber, currentColumnNumber - 1));
+                type = TokenType.UnOp;
+            } else {
+                type = singleCharTokenTypes[currentChar];
             }
 
-            prevTokenType = singleCharTokenTypes.get((char) currentChar);
-            return new Token(prevTokenType, tokenText.toString(), new SourcePosition(currentLineNumber, currentColumnNumber - 1));
-
         // Id and keyword tokens
         } else if (isAlpha(currentChar)) {
-            SourcePosition pos = new SourcePosition(currentLineNumber, currentColumnNumber - 1);
             while (isValidIdChar(lookAhead(0))) {
-                tokenText.append((char) nextChar());
+                nextChar();
             }
-            String text = tokenText.toString();
-            if (keywordTokenTypes.containsKey(text)) {
-                prevTokenType = keywordTokenTypes.get(text);
-                return new Token(prevTokenType, text, pos);
+            type = keywordType(tokenStart, cursor - tokenStart);
+            if (type == null) {
+                word(tokenStart, cursor);
+                type = TokenType.Id;
             }
-            prevTokenType= TokenType.Id;
-            return new Token(prevTokenType, text, pos);
 
         // Num token
         } else if (isNumeric(currentChar)) {
             while (isNumeric(lookAhead(0))) {
-                tokenText.append((char) nextChar());
+                nextChar();
+            }
+            type = TokenType.Num;
+        }
+
+        tokenEnd = cursor;
+        if (type != null) {
+            prevTokenType = type;
+        }
+        return type;
+    }
+
+    // Keywords are recognised by length and first character, then the remaining bytes are compared in place
+    private TokenType keywordType(int start, int length) {
+        int first = source.get(start);
+        switch (length) {
+            case 2:
+                return matches(start, "if", TokenType.IfKeyword);
+            case 3:
+                switch (first) {
+                    case 'i': return matches(start, "int", TokenType.IntKeyword);
+                    case 'n': return matches(start, "new", TokenType.NewKeyword);
+                }
+                return null;
+            case 4:
+                switch (first) {
+                    case 'v': return matches(start, "void", TokenType.VoidKeyword);
+                    case 't':
+                        TokenType type = matches(start, "this", TokenType.ThisKeyword);
+                        return type != null ? type : matches(start, "true", TokenType.TrueKeyword);
+                    case 'e': return matches(start, "else", TokenType.ElseKeyword);
+                    case 'n': return matches(start, "null", TokenType.NullKeyword);
+                }
+                return null;
+            case 5:
+                switch (first) {
+                    case 'c': return matches(start, "class", TokenType.ClassKeyword);
+                    case 'w': return matches(start, "while", TokenType.WhileKeyword);
+                    case 'f': return matches(start, "false", TokenType.FalseKeyword);
+                }
+                return null;
+            case 6:
+                switch (first) {
+                    case 'p': return matches(start, "public", TokenType.PublicKeyword);
+                    case 's': return matches(start, "static", TokenType.StaticKeyword);
+                    case 'r': return matches(start, "return", TokenType.ReturnKeyword);
+                }
+                return null;
+            case 7:
+                switch (first) {
+                    case 'p': return matches(start, "private", TokenType.PrivateKeyword);
+                    case 'b': return matches(start, "boolean", TokenType.BooleanKeyword);
+                    case 'e': return matches(start, "extends", TokenType.ExtendsKeyword);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private TokenType matches(int start, String keyword, TokenType type) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (source.get(start + i) != keyword.charAt(i)) {
+                return null;
+            }
+        }
+        return type;
+    }
+
+    private boolean isDoubleCharOperator(int first, int second) {
+        switch (first) {
+            case '=': case '<': case '>': case '!':
+                return second == '=';
+            case '&': case '|':
+                return second == first;
+            default:
+                return false;
+        }
+    }
+
+    // Canonical spelling of a token, only Id and Num tokens allocate
+    private String tokenText(TokenType type, int start, int end) {
+        switch (type) {
+            case EOT:
+                return null;
+            case Id:
+                word(start, end);
+                return lastWord;
+            case Num:
+                return text(start, end);
+            default:
+                String keyword = keywordTexts.get(type);
+                if (keyword != null) {
+                    return keyword;
+                }
+                int first = source.get(start) & 0xFF;
+                return end - start == 2 ? doubleCharTexts[first] : singleCharTexts[first];
+        }
+    }
+
+    // Words already seen by this scanner, keyed by their bytes, so every occurrence of an identifier
+    // shares one String and the global interner is only consulted once per distinct spelling
+    private String[] wordTexts = new String[256];
+    private int[] wordSymbols = new int[256];
+    private int wordCount = 0;
+    private void word(int start, int end) {
+        // Same as String.hashCode for the ASCII characters identifiers are made of
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.get(i);
+        }
+        int mask = wordTexts.length - 1;
+        int idx = (hash ^ (hash >>> 16)) & mask;
+        while (wordTexts[idx] != null) {
+            if (sameWord(wordTexts[idx], start, end)) {
+                lastWord = wordTexts[idx];
+                lastSymbol = wordSymbols[idx];
+                return;
             }
-            prevTokenType = TokenType.Num;
-            return new Token(prevTokenType, tokenText.toString(), new SourcePosition(currentLineNumber, currentColumnNumber));
+            idx = (idx + 1) & mask;
+        }
+        lastWord = text(start, end);
+        lastSymbol = Symbols.intern(lastWord);
+        wordTexts[idx] = lastWord;
+        wordSymbols[idx] = lastSymbol;
+        if (++wordCount * 2 > wordTexts.length) {
+            growWords();
         }
-        return null;
+    }
+
+    private boolean sameWord(String word, int start, int end) {
+        if (word.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) != source.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growWords() {
+        String[] oldTexts = wordTexts;
+        int[] oldSymbols = wordSymbols;
+        wordTexts = new String[oldTexts.length * 2];
+        wordSymbols = new int[oldTexts.length * 2];
+        int mask = wordTexts.length - 1;
+        for (int i = 0; i < oldTexts.length; i++) {
+            if (oldTexts[i] != null) {
+                int hash = oldTexts[i].hashCode();
+                int idx = (hash ^ (hash >>> 16)) & mask;
+                while (wordTexts[idx] != null) {
+                    idx = (idx + 1) & mask;
+                }
+                wordTexts[idx] = oldTexts[i];
+                wordSymbols[idx] = oldSymbols[i];
+            }
+        }
+    }
+
+    private byte[] textBuffer = new byte[64];
+    private String text(int start, int end) {
+        int length = end - start;
+        if (length > textBuffer.length) {
+            textBuffer = new byte[Math.max(length, textBuffer.length * 2)];
+        }
+        source.get(start, textBuffer, 0, length);
+        return new String(textBuffer, 0, length, StandardCharsets.ISO_8859_1);
     }
 
     // Grouping tokens by how they can be parsed
-    private static Map<Character, TokenType> singleCharTokenTypes = Map.ofEntries(
-        Map.entry('(', TokenType.LParen),
-        Map.entry(')', TokenType.RParen),
-        Map.entry('[', TokenType.LBrack),
-        Map.entry(']', TokenType.RBrack),
-        Map.entry('{', TokenType.LCurly),
-        Map.entry('}', TokenType.RCurly),
-        Map.entry('=', TokenType.Equals),
-        Map.entry('.', TokenType.Dot),
-        Map.entry(',', TokenType.Comma),
-        Map.entry(';', TokenType.Semicolon),
-
-        Map.entry('>', TokenType.BinOp),
-        Map.entry('<', TokenType.BinOp),
-        Map.entry('+', TokenType.BinOp),
-        Map.entry('-', TokenType.BinOp),
-        Map.entry('*', TokenType.BinOp),
-        Map.entry('/', TokenType.BinOp),
-        Map.entry('!', TokenType.UnOp)
-    );
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte LETTER = 3;
+    private static final byte UNDERSCORE = 4;
+    private static final byte PUNCTUATION = 5; // any character that is a token on its own
 
-    private static Map<String, TokenType> doubleCharTokenTypes = Map.ofEntries(
-        Map.entry("==", TokenType.BinOp),
-        Map.entry("<=", TokenType.BinOp),
-        Map.entry(">=", TokenType.BinOp),
-        Map.entry("!=", TokenType.BinOp),
-        Map.entry("&&", TokenType.BinOp),
-        Map.entry("||", TokenType.BinOp)
-    );
+    private static final byte[] charClasses = new byte[128];
+    private static final TokenType[] singleCharTokenTypes = new TokenType[128];
+    private static final String[] singleCharTexts = new String[128];
+    private static final String[] doubleCharTexts = new String[128];
 
-    private static Map<String, TokenType> keywordTokenTypes = Map.ofEntries(
-        Map.entry("class", TokenType.ClassKeyword),
-        Map.entry("void", TokenType.VoidKeyword),
-        Map.entry("public", TokenType.PublicKeyword),
-        Map.entry("private", TokenType.PrivateKeyword),
-        Map.entry("static", TokenType.StaticKeyword),
-        Map.entry("int", TokenType.IntKeyword),
-        Map.entry("boolean", TokenType.BooleanKeyword),
-        Map.entry("this", TokenType.ThisKeyword),
-        Map.entry("return", TokenType.ReturnKeyword),
-        Map.entry("if", TokenType.IfKeyword),
-        Map.entry("else", TokenType.ElseKeyword),
-        Map.entry("while", TokenType.WhileKeyword),
-        Map.entry("true", TokenType.TrueKeyword),
-        Map.entry("false", TokenType.FalseKeyword),
-        Map.entry("new", TokenType.NewKeyword),
-        Map.entry("null", TokenType.NullKeyword)
-    );
+    private static void addSingleCharToken(char c, TokenType type) {
+        charClasses[c] = PUNCTUATION;
+        singleCharTokenTypes[c] = type;
+        singleCharTexts[c] = String.valueOf(c);
+    }
+
+    static {
+        for (char c : " \t\n\r".toCharArray()) {
+            charClasses[c] = WHITESPACE;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            charClasses[c] = DIGIT;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            charClasses[c] = LETTER;
+            charClasses[Character.toUpperCase(c)] = LETTER;
+        }
+        charClasses['_'] = UNDERSCORE;
+
+        addSingleCharToken('(', TokenType.LParen);
+        addSingleCharToken(')', TokenType.RParen);
+        addSingleCharToken('[', TokenType.LBrack);
+        addSingleCharToken(']', TokenType.RBrack);
+        addSingleCharToken('{', TokenType.LCurly);
+        addSingleCharToken('}', TokenType.RCurly);
+        addSingleCharToken('=', TokenType.Equals);
+        addSingleCharToken('.', TokenType.Dot);
+        addSingleCharToken(',', TokenType.Comma);
+        addSingleCharToken(';', TokenType.Semicolon);
+
+        addSingleCharToken('>', TokenType.BinOp);
+        addSingleCharToken('<', TokenType.BinOp);
+        addSingleCharToken('+', TokenType.BinOp);
+        addSingleCharToken('-', TokenType.BinOp);
+        addSingleCharToken('*', TokenType.BinOp);
+        addSingleCharToken('/', TokenType.BinOp);
+        addSingleCharToken('!', TokenType.UnOp);
+
+        for (String op : List.of("==", "<=", ">=", "!=", "&&", "||")) {
+            doubleCharTexts[op.charAt(0)] = op;
+        }
+    }
+
+    // Canonical keyword spellings, recognition itself is done by keywordType
+    private static final Map<TokenType, String> keywordTexts = new EnumMap<TokenType, String>(Map.ofEntries(
+        Map.entry(TokenType.ClassKeyword, "class"),
+        Map.entry(TokenType.ExtendsKeyword, "extends"),
+        Map.entry(TokenType.VoidKeyword, "void"),
+        Map.entry(TokenType.PublicKeyword, "public"),
+        Map.entry(TokenType.PrivateKeyword, "private"),
+        Map.entry(TokenType.StaticKeyword, "static"),
+        Map.entry(TokenType.IntKeyword, "int"),
+        Map.entry(TokenType.BooleanKeyword, "boolean"),
+        Map.entry(TokenType.ThisKeyword, "this"),
+        Map.entry(TokenType.ReturnKeyword, "return"),
+        Map.entry(TokenType.IfKeyword, "if"),
+        Map.entry(TokenType.ElseKeyword, "else"),
+        Map.entry(TokenType.WhileKeyword, "while"),
+        Map.entry(TokenType.TrueKeyword, "true"),
+        Map.entry(TokenType.FalseKeyword, "false"),
+        Map.entry(TokenType.NewKeyword, "new"),
+        Map.entry(TokenType.NullKeyword, "null")
+    ));
 
     // from examining the grammar, only the following tokens may come before a UnOp in a valid string:
     // Comma, Equals, LBrack, ReturnKeyword, LParen, UnOp, BinOp
-    private static Set<TokenType> ValidUnOpPrecedingTokens = Set.of(
+    private static final Set<TokenType> ValidUnOpPrecedingTokens = EnumSet.of(
         TokenType.Comma,
         TokenType.Equals,
         TokenType.LBrack,
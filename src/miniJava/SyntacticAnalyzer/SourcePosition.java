@@ -5,21 +5,41 @@ public class SourcePosition {
     private int lineNumber;
     private int columnNumber;
 
+    // Positions created by the scanner only hold an offset, line and column are resolved on first use
+    private LineMap lineMap;
+    private int offset;
+
     public SourcePosition(int lineNumber, int columnNumber) {
         this.lineNumber = lineNumber;
         this.columnNumber = columnNumber;
     }
 
+    public SourcePosition(LineMap lineMap, int offset) {
+        this.lineMap = lineMap;
+        this.offset = offset;
+    }
+
+    private void resolve() {
+        if (lineMap != null) {
+            lineNumber = lineMap.getLineNumber(offset);
+            columnNumber = lineMap.getColumnNumber(offset);
+            lineMap = null;
+        }
+    }
+
     public int getLineNumber() {
+        resolve();
         return lineNumber;
     }
 
     public int getColumnNumber() {
+        resolve();
         return columnNumber;
     }
 
 	@Override
 	public String toString() {
+        resolve();
 		return String.format("(%d, %d)", this.lineNumber, this.columnNumber);
 	}
 }
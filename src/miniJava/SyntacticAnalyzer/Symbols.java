@@ -0,0 +1,57 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Global identifier interner, every distinct spelling gets a dense int id starting at 0
+// Safe to share between scanners running on different threads
+// Ids only mean something to the compilations that interned them. A long lived process brackets each compilation
+// with beginCompilation and endCompilation, and once the table holds more than RESET_SIZE spellings it is emptied
+// the next time no compilation is running, so it does not keep every identifier it has ever seen
+public final class Symbols {
+    private static final int RESET_SIZE = 1 << 16;
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private static volatile String[] spellings = new String[1024];
+    private static int count = 0;
+    private static int activeCompilations = 0;
+
+    private Symbols() {}
+
+    public static synchronized void beginCompilation() {
+        activeCompilations++;
+    }
+
+    // Ids handed out before the last endCompilation may be reused afterwards
+    public static synchronized void endCompilation() {
+        activeCompilations--;
+        if (activeCompilations == 0 && count > RESET_SIZE) {
+            ids.clear();
+            spellings = new String[1024];
+            count = 0;
+        }
+    }
+
+    public static int intern(String spelling) {
+        Integer id = ids.get(spelling);
+        if (id != null) {
+            return id;
+        }
+        return ids.computeIfAbsent(spelling, Symbols::newSymbol);
+    }
+
+    // Called at most once per spelling by computeIfAbsent
+    private static synchronized int newSymbol(String spelling) {
+        String[] table = spellings;
+        if (count == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[count] = spelling;
+        spellings = table;
+        return count++;
+    }
+
+    public static String spelling(int symbol) {
+        return spellings[symbol];
+    }
+}
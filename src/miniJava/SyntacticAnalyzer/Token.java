@@ -2,20 +2,41 @@ package miniJava.SyntacticAnalyzer;
 
 public class Token {
     public final TokenType type;
+    // Only Id and Num tokens own their text, every other token shares a canonical spelling
     public final String text;
-    private final SourcePosition position;
+    // Offsets into the source buffer, -1 for tokens that were not scanned from a source
+    public final int start;
+    public final int end;
+    // Interned id of the spelling for Id tokens, -1 otherwise
+    public final int symbol;
+    private LineMap lineMap;
+    private SourcePosition position;
     public Token(TokenType type, String text, SourcePosition position) {
         this.type = type;
         this.text = text;
+        this.start = -1;
+        this.end = -1;
+        this.symbol = type == TokenType.Id && text != null ? Symbols.intern(text) : -1;
         this.position = position;
     }
     public Token(TokenType type, SourcePosition position) {
+        this(type, null, position);
+    }
+    public Token(TokenType type, String text, int symbol, int start, int end, LineMap lineMap) {
         this.type = type;
-        this.text = null;
-        this.position = position;
+        this.text = text;
+        this.symbol = symbol;
+        this.start = start;
+        this.end = end;
+        this.lineMap = lineMap;
     }
 
+    // Scanned tokens only create their position when something asks for it
     public SourcePosition getTokenPosition() {
+        if (this.position == null && this.lineMap != null) {
+            this.position = new SourcePosition(this.lineMap, this.start);
+            this.lineMap = null;
+        }
         return this.position;
     }
 
@@ -30,9 +51,9 @@ public class Token {
     @Override
     public String toString() {
         if (this.text != null && this.text.length() > 0) {
-            return String.format("(%s, \"%s\", %s)", this.type, this.text, this.position);
+            return String.format("(%s, \"%s\", %s)", this.type, this.text, getTokenPosition());
         } else {
-            return String.format("(%s, %s)", this.type, this.position);
+            return String.format("(%s, %s)", this.type, getTokenPosition());
         }
     }
 }
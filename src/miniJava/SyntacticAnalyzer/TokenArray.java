@@ -0,0 +1,36 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.util.Arrays;
+
+// Packed token stream produced by Scanner.scanAll, one long per token and no per token objects
+// Layout: type ordinal (8 bits) | length (24 bits) | start offset (32 bits)
+public class TokenArray {
+    public static final int MAX_TOKEN_LENGTH = (1 << 24) - 1;
+    private static final TokenType[] types = TokenType.values();
+
+    private long[] tokens = new long[1024];
+    private int size = 0;
+
+    public void add(TokenType type, int start, int end) {
+        if (size == tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        }
+        tokens[size++] = ((long) type.ordinal() << 56) | ((long) (end - start) << 32) | (start & 0xFFFFFFFFL);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType getType(int idx) {
+        return types[(int) (tokens[idx] >>> 56)];
+    }
+
+    public int getStart(int idx) {
+        return (int) tokens[idx];
+    }
+
+    public int getEnd(int idx) {
+        return getStart(idx) + (int) ((tokens[idx] >>> 32) & MAX_TOKEN_LENGTH);
+    }
+}
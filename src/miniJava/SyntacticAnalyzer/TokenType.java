@@ -3,6 +3,7 @@ package miniJava.SyntacticAnalyzer;
 public enum TokenType {
     EOT,
     ClassKeyword,
+    ExtendsKeyword,
     Id,
     VoidKeyword,
     PublicKeyword,
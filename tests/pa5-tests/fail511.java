@@ -0,0 +1,10 @@
+/**
+ * COMP 520
+ * Constant folding: division by zero is left in place and fails at run time
+ */
+class MainClass {
+    public static void main (String [] args) {
+        int zero = 3 - 3;
+        System.out.println(10 / zero);
+    }
+}
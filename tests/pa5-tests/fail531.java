@@ -0,0 +1,17 @@
+/**
+ * COMP 520
+ * Output buffer: what was printed before a null dereference is still written out
+ */
+class MainClass {
+    public static void main (String [] args) {
+        System.out.println(79);
+        System.out.println(75);
+        Node n = null;
+        n.next = n;
+        System.out.println(33);
+    }
+}
+
+class Node {
+    Node next;
+}
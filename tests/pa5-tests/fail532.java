@@ -0,0 +1,14 @@
+/**
+ * COMP 520
+ * Output buffer: what was printed before a division by zero is still written out
+ */
+class MainClass {
+    public static void main (String [] args) {
+        int i = 0;
+        while (i < 3) {
+            System.out.println(48 + i);
+            i = i + 1;
+        }
+        System.out.println(10 / (i - 3));
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * COMP 520
+ * Bounds checks: reading past the end exits with status 1 after writing out what was printed
+ */
+class MainClass {
+    public static void main (String [] args) {
+        int[] a = new int[3];
+        int i = 0;
+        while (i <= a.length) {
+            System.out.println(65 + i);
+            a[i] = i;
+            i = i + 1;
+        }
+        System.out.println(33);
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * COMP 520
+ * Bounds checks: a negative index fails too
+ */
+class MainClass {
+    public static void main (String [] args) {
+        int[] a = new int[3];
+        a[0] = 79;
+        System.out.println(a[0]);
+        int i = 1 - 2;
+        System.out.println(a[i]);
+        System.out.println(33);
+    }
+}
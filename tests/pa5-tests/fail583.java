@@ -0,0 +1,13 @@
+/**
+ * COMP 520
+ * A negative array length exits with status 1 after writing out what was printed
+ */
+class MainClass {
+    public static void main (String [] args) {
+        int n = 2;
+        System.out.println(65);
+        int[] a = new int[n - 3];
+        System.out.println(66);
+        a[0] = 1;
+    }
+}
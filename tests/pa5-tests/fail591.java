@@ -0,0 +1,18 @@
+/**
+ * COMP 520
+ * Inheritance: a class cannot extend itself through its superclasses
+ */
+class MainClass {
+    public static void main (String [] args) {
+        A a = new A();
+    }
+}
+
+class A extends C {
+}
+
+class B extends A {
+}
+
+class C extends B {
+}
@@ -0,0 +1,12 @@
+/**
+ * COMP 520
+ * Inheritance: the superclass must exist
+ */
+class MainClass {
+    public static void main (String [] args) {
+        A a = new A();
+    }
+}
+
+class A extends Missing {
+}
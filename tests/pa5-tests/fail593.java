@@ -0,0 +1,22 @@
+/**
+ * COMP 520
+ * Inheritance: an override must keep the signature of the method it overrides
+ */
+class MainClass {
+    public static void main (String [] args) {
+        A a = new B();
+        System.out.println(a.f(1));
+    }
+}
+
+class A {
+    int f(int x) {
+        return x;
+    }
+}
+
+class B extends A {
+    int f(boolean x) {
+        return 2;
+    }
+}
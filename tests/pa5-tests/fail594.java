@@ -0,0 +1,20 @@
+/**
+ * COMP 520
+ * Inheritance: private fields are not visible in subclasses
+ */
+class MainClass {
+    public static void main (String [] args) {
+        B b = new B();
+        System.out.println(b.peek());
+    }
+}
+
+class A {
+    private int secret;
+}
+
+class B extends A {
+    int peek() {
+        return secret;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * COMP 520
+ * Inheritance: a superclass object cannot be assigned to a subclass variable
+ */
+class MainClass {
+    public static void main (String [] args) {
+        A a = new B();
+        B b = a;
+    }
+}
+
+class A {
+}
+
+class B extends A {
+}
@@ -0,0 +1,22 @@
+/**
+ * COMP 520
+ * Inheritance: private methods are not visible in subclasses
+ */
+class MainClass {
+    public static void main (String [] args) {
+        B b = new B();
+        System.out.println(b.peek());
+    }
+}
+
+class A {
+    private int hidden() {
+        return 1;
+    }
+}
+
+class B extends A {
+    int peek() {
+        return hidden();
+    }
+}
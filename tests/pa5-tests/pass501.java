@@ -0,0 +1,46 @@
+/**
+ * COMP 520
+ * Peephole: element and field addresses inside nested expressions
+ */
+class MainClass {
+    public static void main (String [] args) {
+        Holder h = new Holder();
+        h.vals = new int[4];
+        h.base = 40;
+        int i = 0;
+        while (i < 4) {
+            h.vals[i] = h.base + i * 2;
+            i = i + 1;
+        }
+        h.vals[3] = h.vals[1] + h.vals[2] - h.base;
+        System.out.println(h.vals[3] + 3);
+        System.out.println(h.sum(h.vals[0], h.get(2)) - 34);
+        Holder other = h.self();
+        other.base = other.base + h.vals[0] / 4;
+        System.out.println(h.base + 1);
+        System.out.println(h.pick(true, h.vals[1], h.vals[2]) + 10);
+    }
+}
+
+class Holder {
+    int[] vals;
+    int base;
+
+    int get(int k) {
+        return vals[k];
+    }
+
+    int sum(int a, int b) {
+        return a + b;
+    }
+
+    Holder self() {
+        return this;
+    }
+
+    int pick(boolean first, int a, int b) {
+        if (first)
+            return a;
+        return b;
+    }
+}
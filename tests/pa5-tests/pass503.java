@@ -0,0 +1,44 @@
+/**
+ * COMP 520
+ * Bump allocation: a linked structure that takes more than one 64mb chunk keeps its values
+ */
+class MainClass {
+    public static void main (String [] args) {
+        // 20000 arrays of 500 ints take about 80mb
+        Node head = null;
+        int i = 0;
+        while (i < 20000) {
+            Node n = new Node();
+            n.values = new int[500];
+            n.values[0] = i;
+            n.values[499] = i / 100;
+            n.next = head;
+            head = n;
+            i = i + 1;
+        }
+
+        // Walk back and check every node
+        int bad = 0;
+        int count = 0;
+        int expected = 19999;
+        while (head != null) {
+            if (head.values[0] != expected)
+                bad = bad + 1;
+            if (head.values[499] != expected / 100)
+                bad = bad + 1;
+            if (head.values[250] != 0)
+                bad = bad + 1;
+            expected = expected - 1;
+            count = count + 1;
+            head = head.next;
+        }
+        System.out.println(bad + 48);
+        System.out.println(count / 1000 + 48);
+        System.out.println(expected + 49);
+    }
+}
+
+class Node {
+    int[] values;
+    Node next;
+}
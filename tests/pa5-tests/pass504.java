@@ -0,0 +1,62 @@
+/**
+ * COMP 520
+ * Allocation sizes: arrays larger than the old fixed 4kb block, and many small objects packed next to each other
+ */
+class MainClass {
+    public static void main (String [] args) {
+        // 2000 ints, more than 512
+        int[] a = new int[2000];
+        int[] b = new int[3];
+        int i = 0;
+        while (i < 2000) {
+            a[i] = i / 40;
+            i = i + 1;
+        }
+        b[0] = 66;
+        System.out.println(a[1999]);
+        System.out.println(a[1000] + 48);
+        System.out.println(b[0]);
+        System.out.println(b[2] + 48);
+
+        // 10000 objects of two fields, each written once and checked afterwards
+        Point[] points = new Point[10000];
+        i = 0;
+        while (i < 10000) {
+            Point p = new Point();
+            p.x = i;
+            p.y = 0 - i;
+            points[i] = p;
+            i = i + 1;
+        }
+        int bad = 0;
+        i = 0;
+        while (i < 10000) {
+            Point p = points[i];
+            if (p.x + p.y != 0 || p.x != i)
+                bad = bad + 1;
+            i = i + 1;
+        }
+        System.out.println(bad + 48);
+
+        // An object without fields still gets its own address
+        Empty e1 = new Empty();
+        Empty e2 = new Empty();
+        if (e1 != e2)
+            System.out.println(89);
+
+        // Larger than a whole 64mb heap chunk
+        int[] big = new int[10000000];
+        big[9999999] = 67;
+        System.out.println(big[9999999]);
+        System.out.println(big[5000000] + 48);
+        System.out.println(a[1999]);
+    }
+}
+
+class Point {
+    int x;
+    int y;
+}
+
+class Empty {
+}
@@ -0,0 +1,81 @@
+/**
+ * COMP 520
+ * Garbage collection: a linked structure stays intact while far more garbage than the heap holds is allocated
+ */
+class MainClass {
+    public static void main (String [] args) {
+        // 1000 nodes of 100 ints, reachable only from this frame and through fields
+        Node head = null;
+        int i = 0;
+        while (i < 1000) {
+            Node n = new Node();
+            n.id = i;
+            n.values = new int[100];
+            n.values[99] = i;
+            n.next = head;
+            head = n;
+            i = i + 1;
+        }
+
+        // About 700mb of garbage allocated in a deeper frame, more than the collector can hold without freeing any
+        Churn c = new Churn();
+        System.out.println(c.garbage(3000) / 100 + 40);
+
+        // Every round replaces the array of one node, the old arrays become garbage
+        System.out.println(c.replace(head, 3000) / 100 + 40);
+
+        int bad = 0;
+        int count = 0;
+        Node n = head;
+        while (n != null) {
+            if (n.values[99] != n.id)
+                bad = bad + 1;
+            if (n.values[0] != 2000 + 999 - n.id)
+                bad = bad + 1;
+            if (n.values[50] != 0)
+                bad = bad + 1;
+            count = count + 1;
+            n = n.next;
+        }
+        System.out.println(bad + 48);
+        System.out.println(count / 1000 + 48);
+    }
+}
+
+class Node {
+    int id;
+    int[] values;
+    Node next;
+}
+
+class Churn {
+    int garbage(int rounds) {
+        int r = 0;
+        while (r < rounds) {
+            int[] block = new int[30000];
+            block[29999] = r;
+            r = r + 1;
+        }
+        return r;
+    }
+
+    // Round r gives the node at position r % 1000 from the head a new array marked with r
+    int replace(Node head, int rounds) {
+        int r = 0;
+        while (r < rounds) {
+            int[] block = new int[30000];
+            block[0] = r;
+            Node n = head;
+            int p = 0;
+            while (p < r - r / 1000 * 1000) {
+                n = n.next;
+                p = p + 1;
+            }
+            n.values = new int[100];
+            n.values[0] = r;
+            n.values[99] = n.id;
+            r = r + 1;
+        }
+        return r;
+    }
+}
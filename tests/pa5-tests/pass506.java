@@ -0,0 +1,59 @@
+/**
+ * COMP 520
+ * Static fields: zero initialised, kept per class, and roots for the garbage collector
+ */
+class MainClass {
+    static int count;
+    static Node keep;
+
+    public static void main (String [] args) {
+        System.out.println(count + 48);
+        count = 65;
+        Other.total = 66;
+        Other.values = new int[4];
+        Other.values[3] = 67;
+        Counter c = new Counter();
+        c.add(3);
+        c.add(4);
+        System.out.println(count);
+        System.out.println(Other.total);
+        System.out.println(Other.values[3]);
+        System.out.println(Counter.sum + 48);
+        System.out.println(Counter.calls + 48);
+
+        // Objects held only by static fields survive about 700mb of garbage
+        keep = new Node();
+        keep.v = 68;
+        keep.next = new Node();
+        keep.next.v = 69;
+        int i = 0;
+        while (i < 3000) {
+            int[] block = new int[30000];
+            block[0] = i;
+            i = i + 1;
+        }
+        System.out.println(keep.v);
+        System.out.println(keep.next.v);
+        System.out.println(Other.values[3]);
+    }
+}
+
+class Node {
+    int v;
+    Node next;
+}
+
+class Other {
+    static int total;
+    static int[] values;
+}
+
+class Counter {
+    static int sum;
+    static int calls;
+
+    void add(int n) {
+        sum = sum + n;
+        calls = calls + 1;
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * COMP 520
+ * Constant folding: results that do not fit in an int are left to run time
+ */
+class MainClass {
+    public static void main (String [] args) {
+        int big = 2147483647;
+        // folded and computed at run time, both must agree
+        System.out.println((2147483647 + 1) / 3 - (big + 1) / 3 + 48);
+        System.out.println(2147483647 * 4 / 8 - big * 4 / 8 + 49);
+        int x = 7;
+        int y = x + 1;
+        System.out.println(x * 6 + y);
+        if (y == 8 && !(x > 7))
+            System.out.println(51);
+        while (false)
+            System.out.println(0);
+        System.out.println(-(-52));
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * COMP 520
+ * Short-circuit && and || skip calls with side effects
+ */
+class MainClass {
+    public static void main (String [] args) {
+        Counter k = new Counter();
+        k.calls = 48;
+        if (false && k.bump())
+            k.calls = 0;
+        if (true || k.bump())
+            k.calls = k.calls + 0;
+        System.out.println(k.calls);
+        boolean b = k.bump() && k.bump();
+        if (b)
+            System.out.println(k.calls);
+        int z = 0;
+        if (z != 0 && 10 / z > 1)
+            k.calls = 0;
+        boolean c = k.no() || k.bump();
+        System.out.println(k.calls);
+        boolean d = k.no() && k.bump();
+        if (!d)
+            System.out.println(k.calls);
+        while (k.calls < 60 && k.bump()) {
+        }
+        System.out.println(k.calls);
+        if (b || k.bump())
+            System.out.println(k.calls);
+    }
+}
+
+class Counter {
+    int calls;
+
+    public boolean bump() {
+        calls = calls + 1;
+        return true;
+    }
+
+    public boolean no() {
+        calls = calls + 1;
+        return false;
+    }
+}
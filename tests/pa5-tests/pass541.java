@@ -0,0 +1,98 @@
+/**
+ * COMP 520
+ * Inlining keeps the evaluation order of arguments and evaluates each of them once
+ */
+class MainClass {
+    static int trace;
+
+    public static void main (String [] args) {
+        // Arguments are evaluated last first, an argument with a call keeps the call
+        trace = 0;
+        int s = add(step(5), step(6));
+        System.out.println(trace);
+        System.out.println(s + 37);
+
+        // A void call becomes a block whose locals take the arguments in the same order
+        trace = 0;
+        record(step(6), step(7));
+        System.out.println(trace);
+
+        // An argument used twice is still evaluated once
+        int n = 3;
+        System.out.println(twice(n + 30));
+        System.out.println(square(n) + 40);
+        trace = 0;
+        System.out.println(twice(step(4)) + 40);
+        System.out.println(trace + 48);
+
+        // An unused argument still runs
+        trace = 0;
+        System.out.println(first(72, step(5)));
+        System.out.println(trace + 48);
+
+        // Parameters are copies, assigning one leaves the argument alone
+        bumpParam(n);
+        System.out.println(n + 48);
+        System.out.println(trace);
+
+        // Private methods with a receiver
+        Counter c = new Counter();
+        c.v = 70;
+        System.out.println(c.peek());
+        c.incBy(2);
+        System.out.println(c.v);
+        Counter other = c;
+        other.incBy(c.v - 70);
+        System.out.println(c.peek());
+    }
+
+    static int step(int k) {
+        trace = trace * 10 + k;
+        return k;
+    }
+
+    static int add(int a, int b) {
+        return a + b;
+    }
+
+    static void record(int a, int b) {
+        trace = trace - a * b;
+    }
+
+    static int twice(int x) {
+        return x + x;
+    }
+
+    static int square(int x) {
+        return x * x;
+    }
+
+    static int first(int a, int b) {
+        return a;
+    }
+
+    static void bumpParam(int x) {
+        x = x + 60;
+        trace = x;
+    }
+}
+
+class Counter {
+    int v;
+
+    int peek() {
+        return get();
+    }
+
+    void incBy(int d) {
+        inc(d);
+    }
+
+    private int get() {
+        return v;
+    }
+
+    private void inc(int d) {
+        v = v + d;
+    }
+}
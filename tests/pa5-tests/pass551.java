@@ -0,0 +1,87 @@
+/**
+ * COMP 520
+ * SSA: values merged after branches and carried around loops
+ */
+class MainClass {
+    public static void main (String [] args) {
+        // Loop-carried values that feed each other
+        int a = 0;
+        int b = 1;
+        int i = 0;
+        while (i < 10) {
+            int t = a;
+            a = b;
+            b = t + b;
+            i = i + 1;
+        }
+        System.out.println(a);
+        System.out.println(b - 40);
+
+        // Values that swap every iteration
+        int x = 65;
+        int y = 66;
+        int j = 0;
+        while (j < 3) {
+            int t = x;
+            x = y;
+            y = t;
+            j = j + 1;
+        }
+        System.out.println(x);
+        System.out.println(y);
+
+        // A value assigned on one branch only
+        int k = 0;
+        int m = 48;
+        while (k < 6) {
+            if (k / 2 * 2 == k)
+                m = m + 1;
+            k = k + 1;
+        }
+        System.out.println(m);
+
+        // An inner loop that starts over on every outer iteration
+        int sum = 0;
+        int p = 0;
+        while (p < 4) {
+            int q = 0;
+            while (q < p) {
+                sum = sum + q;
+                q = q + 1;
+            }
+            p = p + 1;
+        }
+        System.out.println(sum + 60);
+
+        // Values set on both branches and a loop left through its condition
+        boolean found = false;
+        int at = 0;
+        int r = 0;
+        while (r < 8 && !found) {
+            if (r * r > 20) {
+                found = true;
+                at = r;
+            } else {
+                at = at + 10;
+            }
+            r = r + 1;
+        }
+        if (found)
+            System.out.println(at + 64);
+        else
+            System.out.println(63);
+        System.out.println(r + 48);
+
+        System.out.println(countdown(5));
+    }
+
+    // A parameter reassigned in a loop
+    static int countdown(int n) {
+        int steps = 0;
+        while (n > 0) {
+            n = n - 2;
+            steps = steps + 1;
+        }
+        return steps + n + 70;
+    }
+}
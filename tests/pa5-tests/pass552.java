@@ -0,0 +1,46 @@
+/**
+ * COMP 520
+ * Element assignment whose value replaces the array it is stored into
+ */
+class MainClass {
+    public static void main (String [] args) {
+        A a = new A();
+        a.arr = new int[3];
+        a.arr[0] = a.f();
+        System.out.println(a.arr[0]);
+        System.out.println(a.arr[1]);
+
+        a.g();
+
+        B.arr = new int[2];
+        B.arr[1] = B.h();
+        System.out.println(B.arr[1]);
+        System.out.println(B.arr[0]);
+    }
+}
+
+class A {
+    int[] arr;
+
+    public int f() {
+        arr = new int[5];
+        arr[1] = 65;
+        return 66;
+    }
+
+    public void g() {
+        arr[2] = f() + 1;
+        System.out.println(arr[2]);
+        System.out.println(arr[1]);
+    }
+}
+
+class B {
+    static int[] arr;
+
+    public static int h() {
+        arr = new int[4];
+        arr[0] = 68;
+        return 69;
+    }
+}
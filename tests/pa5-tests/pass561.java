@@ -0,0 +1,62 @@
+/**
+ * COMP 520
+ * Dead statement elimination: dropped values that are calls still run, code after a return never does
+ */
+class MainClass {
+    static int calls;
+
+    public static void main (String [] args) {
+        calls = 48;
+
+        // A local that is never read, its value is a call
+        int unused = bump();
+        System.out.println(calls);
+
+        // Overwritten before it is read
+        int v = bump();
+        v = 65;
+        System.out.println(v);
+        System.out.println(calls);
+
+        // A call inside a larger value
+        int w = bump() * 2 + 1;
+        System.out.println(calls);
+
+        // Dead stores in a loop
+        int last = 0;
+        int i = 0;
+        while (i < 3) {
+            last = bump();
+            i = i + 1;
+        }
+        System.out.println(calls);
+
+        System.out.println(early());
+        System.out.println(loopReturn());
+        System.out.println(calls);
+    }
+
+    static int bump() {
+        calls = calls + 1;
+        return calls;
+    }
+
+    static int early() {
+        bump();
+        return calls + 10;
+        System.out.println(33);
+        bump();
+        return 0;
+    }
+
+    static int loopReturn() {
+        int n = 0;
+        while (true) {
+            n = n + 1;
+            if (n > 4)
+                return n + 66;
+        }
+        System.out.println(33);
+        return 0;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * COMP 520
+ * Loop optimization: reduced induction multiplies and hoisted invariants, and loads that must not be hoisted
+ */
+class MainClass {
+    public static void main (String [] args) {
+        // i*k where i steps by a constant
+        System.out.println(scaled(4) + 25);
+        System.out.println(down(2) + 30);
+        // i doubles, which is not a constant step
+        System.out.println(doubling(1));
+
+        // Rows of a grid laid out in one array
+        int w = 4;
+        int[] grid = new int[12];
+        int r = 0;
+        while (r < 3) {
+            int c = 0;
+            while (c < w) {
+                grid[r * w + c] = r * 10 + c;
+                c = c + 1;
+            }
+            r = r + 1;
+        }
+        System.out.println(grid[1 * w + 2] + 60);
+        int sum = 0;
+        r = 0;
+        while (r < 3) {
+            int c = 0;
+            while (c < w) {
+                sum = sum + grid[r * w + c];
+                c = c + 1;
+            }
+            r = r + 1;
+        }
+        System.out.println(sum - 70);
+
+        // A field the loop stores to is loaded again every iteration
+        Holder h = new Holder();
+        h.v = 1;
+        int total = 0;
+        int i = 0;
+        while (i < 4) {
+            total = total + h.v;
+            h.v = h.v + 1;
+            i = i + 1;
+        }
+        System.out.println(total + 60);
+
+        // So is a field when the loop makes a call
+        h.v = 2;
+        total = 0;
+        i = 0;
+        while (i < 4) {
+            total = total + h.v;
+            h.bump(3);
+            i = i + 1;
+        }
+        System.out.println(total + 60);
+
+        // And an element the loop stores to
+        int[] a = new int[2];
+        a[0] = 1;
+        total = 0;
+        i = 0;
+        while (i < 3) {
+            total = total + a[0];
+            a[0] = a[0] + 1;
+            i = i + 1;
+        }
+        System.out.println(total + 60);
+
+        // Loads and divisions that would fault stay in a loop that never runs
+        int d = 0;
+        int n = 0;
+        total = 0;
+        i = 0;
+        while (i < n) {
+            total = total + 10 / d;
+            i = i + 1;
+        }
+        System.out.println(total + 48);
+        Holder none = null;
+        i = 0;
+        while (i < n) {
+            total = total + none.v;
+            i = i + 1;
+        }
+        System.out.println(total + 48);
+
+        // Invariants of an inner loop move out of the outer loop as well
+        System.out.println(nested(1) + 20);
+    }
+
+    static int scaled(int k) {
+        int s = 0;
+        int i = 0;
+        while (i < 5) {
+            s = s + i * k;
+            i = i + 1;
+        }
+        return s;
+    }
+
+    static int down(int k) {
+        int s = 0;
+        int i = 9;
+        while (i > 0) {
+            s = s + k * i;
+            i = i - 3;
+        }
+        return s;
+    }
+
+    static int doubling(int k) {
+        int s = 0;
+        int i = 1;
+        while (i < 40) {
+            s = s + i * k;
+            i = i + i;
+        }
+        return s;
+    }
+
+    static int nested(int k) {
+        int s = 0;
+        int p = 0;
+        while (p < 3) {
+            int q = 0;
+            while (q < 2) {
+                s = s + k * 7 + q;
+                q = q + 1;
+            }
+            p = p + 1;
+        }
+        return s;
+    }
+}
+
+class Holder {
+    int v;
+
+    // Recursive so the inliner leaves the call in place
+    void bump(int n) {
+        if (n > 0)
+            bump(n - 1);
+        else
+            v = v + 1;
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * COMP 520
+ * Bounds checks: loops that stay inside the array, whose checks are dropped
+ */
+class MainClass {
+    public static void main (String [] args) {
+        // Bounded by the length
+        int[] a = new int[5];
+        int i = 0;
+        while (i < a.length) {
+            a[i] = 65 + i;
+            i = i + 1;
+        }
+        i = 1;
+        while (i < a.length) {
+            System.out.println(a[i]);
+            i = i + 2;
+        }
+
+        // Bounded by the size the array was allocated with
+        int n = 4;
+        int[] b = new int[n];
+        int j = 0;
+        while (j < n) {
+            b[j] = a[j] + 32;
+            j = j + 1;
+        }
+        System.out.println(b[3]);
+
+        // Checks outside such loops still pass for valid indices
+        System.out.println(a[a.length - 1]);
+        System.out.println(b[0]);
+    }
+}
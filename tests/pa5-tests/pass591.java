@@ -0,0 +1,79 @@
+/**
+ * COMP 520
+ * Inheritance: dispatch through every vtable slot, inherited entries and a grandchild override
+ */
+class MainClass {
+    public static void main (String [] args) {
+        Animal a = new Animal();
+        Animal d = new Dog();
+        Animal p = new Puppy();
+
+        // legs is in slot 1, Dog inherits it and Puppy overrides it
+        System.out.println(d.legs());
+        System.out.println(p.legs());
+        System.out.println(p.sound());
+        System.out.println(a.sound());
+
+        // describe is never overridden and calls through slots 0 and 1 on this
+        System.out.println(p.describe());
+        System.out.println(d.describe());
+        System.out.println(a.describe());
+
+        // Fields of the superclass come first, after the vtable pointer
+        Puppy pp = new Puppy();
+        pp.age = 70;
+        pp.tricks = 71;
+        System.out.println(pp.age);
+        System.out.println(pp.tricks);
+        Animal ap = pp;
+        System.out.println(ap.age);
+        System.out.println(speak(pp));
+
+        // Objects of every class in one array
+        Animal[] zoo = new Animal[3];
+        zoo[0] = a;
+        zoo[1] = d;
+        zoo[2] = p;
+        int i = 0;
+        while (i < zoo.length) {
+            Animal z = zoo[i];
+            System.out.println(z.sound());
+            System.out.println(z.legs());
+            i = i + 1;
+        }
+    }
+
+    static int speak(Animal x) {
+        return x.sound();
+    }
+}
+
+class Animal {
+    int age;
+
+    int sound() {
+        return 65;
+    }
+
+    int legs() {
+        return 52;
+    }
+
+    int describe() {
+        return sound() + legs() - 52;
+    }
+}
+
+class Dog extends Animal {
+    int tricks;
+
+    int sound() {
+        return 87;
+    }
+}
+
+class Puppy extends Dog {
+    int legs() {
+        return 51;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * COMP 520
+ * Inheritance: calls to methods no subclass overrides are direct, and their objects have no vtable pointer
+ */
+class MainClass {
+    public static void main (String [] args) {
+        Shape s = new Square();
+        s.sides = 52;
+        System.out.println(s.sides);
+        System.out.println(s.name());
+
+        Square sq = new Square();
+        sq.sides = 4;
+        sq.width = 3;
+        System.out.println(sq.area() + 64);
+        System.out.println(sq.name());
+        System.out.println(sq.perimeter() + 60);
+
+        // A grandchild that adds methods but overrides none
+        Cube c = new Cube();
+        c.sides = 6;
+        c.width = 2;
+        System.out.println(c.volume() + 64);
+        System.out.println(c.perimeter() + 60);
+        Shape cs = c;
+        System.out.println(cs.name());
+        System.out.println(cs.sides + 48);
+    }
+}
+
+class Shape {
+    int sides;
+
+    int name() {
+        return 83;
+    }
+}
+
+class Square extends Shape {
+    int width;
+
+    int area() {
+        return width * width;
+    }
+
+    int perimeter() {
+        return sides * width;
+    }
+}
+
+class Cube extends Square {
+    int volume() {
+        return area() * width;
+    }
+}
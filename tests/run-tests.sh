@@ -0,0 +1,69 @@
+#!/bin/bash
+# Builds the compiler and runs the test programs against it
+#   pa1-pa3: fail programs must be rejected, pa1 and pa2 pass programs must parse and pa3 pass programs must get
+#   through contextual analysis, they may lack the main method code generation needs
+#   pa4 and pa5: pass programs must print their .out file, fail programs must be rejected or exit with an error,
+#   printing their .out file first and exiting with the status in their .status file when those exist
+# pa4 and pa5 run once for every mode below, or only with the given compiler flags, e.g. ./run-tests.sh --ir
+MODES=("" "--no-peephole" "--regalloc" "--gc" "--ir")
+shopt -s nullglob
+
+tests=$(cd "$(dirname "$0")" && pwd)
+build=$(mktemp -d)
+work=$(mktemp -d)
+trap 'rm -rf "$build" "$work"' EXIT
+javac -nowarn -d "$build" $(find "$tests/../src" -name '*.java') || exit 1
+cd "$work"
+if [[ $# -gt 0 ]]; then
+    MODES=("$*")
+fi
+
+pass=0
+fail=0
+
+report() {
+    echo "FAIL $1"
+    fail=$((fail+1))
+}
+
+for dir in pa1-tests-full pa2-tests-full pa3-tests-full; do
+    for f in "$tests/$dir"/*.java; do
+        name="$dir/$(basename "$f")"
+        out=$(timeout 10 java -cp "$build" miniJava.Compiler "$f" 2>&1)
+        if [[ $(basename "$f") == fail* ]]; then
+            echo "$out" | grep -q '^Error' && pass=$((pass+1)) || report "$name should be rejected"
+        elif [[ $dir != pa3* ]]; then
+            echo "$out" | grep -q 'at source position' && report "$name should parse" || pass=$((pass+1))
+        else
+            echo "$out" | grep -v '^Error' | grep -v 'must contain a main method' | grep -q . && report "$name should compile" || pass=$((pass+1))
+        fi
+    done
+done
+
+for mode in "${MODES[@]}"; do
+    for f in "$tests"/pa4-tests-partial/*.java "$tests"/pa5-tests/*.java; do
+        name="$(basename "$(dirname "$f")")/$(basename "$f") [$mode]"
+        rm -f a.out
+        timeout 10 java -cp "$build" miniJava.Compiler $mode "$f" > /dev/null 2>&1
+        if [[ ! -f a.out ]]; then
+            [[ $(basename "$f") == fail* ]] && pass=$((pass+1)) || report "$name does not compile"
+            continue
+        fi
+        chmod +x a.out
+        # the shell reports programs killed by a signal on its own stderr
+        { timeout 10 ./a.out > output; } 2> /dev/null
+        status=$?
+        if [[ -f "$f.out" ]] && ! cmp -s output "$f.out"; then
+            report "$name printed $(od -An -tu1 output | xargs), expected $(od -An -tu1 "$f.out" | xargs)"
+        elif [[ $(basename "$f") != fail* ]]; then
+            [[ $status == 0 ]] && pass=$((pass+1)) || report "$name exited with $status"
+        elif [[ -f "$f.status" ]]; then
+            [[ $status == $(cat "$f.status") ]] && pass=$((pass+1)) || report "$name exited with $status, expected $(cat "$f.status")"
+        else
+            [[ $status != 0 ]] && pass=$((pass+1)) || report "$name should exit with an error"
+        fi
+    done
+done
+
+echo "pass=$pass fail=$fail"
+[[ $fail == 0 ]]